@@ -12,11 +12,28 @@ import java.util.*;
  *  Classes used:
  *  <ul>
  *      <li><code>TreeMap</code> which keeps results in ascending order of cost.</li>
- *      <li><code>PrioQueue</code> which serves as the OpenSet.</li>
- *      <li><code>HashSet</code> which keeps the all the visited States (pulled from OpenSet).</li>
- *      <li><code>HashMap</code> which keeps for each State its best gScore.</li>
+ *      <li><code>PrioQueue</code> which serves as the OpenSet, a heap of vertex indices.</li>
+ *      <li><code>int[]</code> which marks the visited States (pulled from OpenSet) of the current search.</li>
+ *      <li><code>IntDoubleHashMap</code> which keeps for each vertex index its best gScore.</li>
+ *      <li><code>int[]</code> which keeps for each vertex index its predecessor.</li>
  *  </ul>
+ *  All the bookkeeping, the OpenSet included, is kept by
+ *  vertex index in primitive arrays and maps, which are
+ *  reused from taxi to taxi and from solve to solve (the
+ *  arrays as long as the graph has the same number of
+ *  vertices), so a search makes no garbage for its scores or
+ *  its queue, never hashes a vertex, and a dispatch loop that
+ *  keeps one A* per thread allocates nothing in proportion to the graph.
+ *  The fScore of a vertex is given to the <code>PrioQueue</code>
+ *  when the vertex is added and only changed through
+ *  <code>decreaseKey</code>, so the queue is always in order.
+ *  With assertions on (-ea) the queue checks itself after
+ *  every step; <code>AStarCheck</code> compares the results
+ *  with Dijkstra on random graphs.
+ *  Paths are returned as <code>Route</code> objects, which only
+ *  hold vertex indices until they are read.
  *  @see PrioQueue
+ *  @see Route
  *  @see CostObject
  *  The objects that the A* can work on are based
  *  on the <code>CostObject</code> interface. These
@@ -25,12 +42,182 @@ import java.util.*;
  */
 public class AStar<T extends CostObject<T>> {
 
-    private Set<Graph.Vertex<T>>                    closedSet;
-    private PrioQueue<Graph.Vertex<T>>              openSet;
-    private Map<Graph.Vertex<T>, Graph.Vertex<T>>   cameFrom;
-    private Map<Graph.Vertex<T>, Double>            gScore;
-    private Map<Graph.Vertex<T>, Double>            fScore;
-    Map<Graph.Vertex<T>, Double>                    finalScore;
+    /**
+     * The capacity argument that asks for an adaptive beam,
+     * optionally followed by the width to start with.
+     */
+    public static final String  AUTO = "auto";
+
+    /**
+     * How many times wider an adaptive beam becomes at a time.
+     */
+    private static final int    WIDEN = 4;
+
+    /**
+     * How many times its width an adaptive beam may expand
+     * vertices without getting closer before it widens.
+     */
+    private static final int    STALL = 4;
+
+    /**
+     * How much the weight of the ARA* goes down every round.
+     */
+    private static final double EPSILON_STEP = 0.5;
+
+    private static final int    MIN_WIDTH = 8;
+    private static final int    MAX_INITIAL_WIDTH = 1024;
+
+    private int[]                                   closedIn;
+    private int                                     search;
+    private PrioQueue                               openSet;
+    private int[]                                   cameFrom;
+    private IntDoubleHashMap                        gScore;
+    IntDoubleHashMap                                finalScore;
+    private RouteCache<T>                           cache;
+    private DistanceTreeCache<T>                    trees;
+    private OverlayRouter<T>                        overlay;
+    private Weighting<T>                            weighting = new DistanceWeighting<>();
+    /** The weighting of the running search, taken from weighting when it starts. */
+    private Weighting<T>                            pinned;
+    private double                                  departure;
+    private double                                  epsilon = 1.0;
+    private double                                  anytimeEpsilon;
+    private long                                    deadline;
+    private int                                     max;
+    private int                                     steps;
+    private Query                                   query;
+    private int                                     topK;
+    /** The memory of the last search, published for other threads when it ends. */
+    private volatile MemoryReport                   memory;
+
+    /**
+     * Sets a multi-level overlay router.
+     * When set, taxis that are not answered by a cache are
+     * routed by the overlay instead of the beam search, which
+     * gives exact routes for the overlay's own weighting.
+     * It is not used with time dependent weightings.
+     * @param overlay The router to be used (null for none).
+     */
+    public void setOverlay(OverlayRouter<T> overlay) {
+        this.overlay = overlay;
+    }
+
+    /**
+     * Sets the weighting of the edges.
+     * By default edges weigh their length, so routes are the
+     * shortest ones. With a time dependent weighting the A*
+     * becomes a time dependent A*: every edge is weighed at the
+     * time it is entered, which is the departure time plus the
+     * cost so far, and the heuristic is the weighting's lower bound.
+     * Caches are not used with time dependent weightings, as their
+     * routes depend on the departure time. Every solve takes one
+     * <code>snapshot</code> of the weighting and searches all the
+     * taxis with it, so live traffic changes only between solves.
+     * @param weighting The weighting to be used.
+     */
+    public void setWeighting(Weighting<T> weighting) {
+        this.weighting = weighting;
+    }
+
+    /**
+     *
+     * @return The weighting of the edges.
+     */
+    public Weighting<T> getWeighting() {
+        return weighting;
+    }
+
+    /**
+     *
+     * @return The number of taxis wanted (0 for all of them).
+     */
+    public int getTopK() {
+        return topK;
+    }
+
+    /**
+     * Routes only the k taxis closest to the client by road.
+     * The taxis are taken from the <code>TaxiIndex</code> of the
+     * graph in order of straight line distance, and routed until
+     * the k-th cheapest route found costs no more than the
+     * straight line to the next taxi, which no route of that taxi
+     * can beat. So the k routes are the same as when every taxi
+     * is routed (with a beam that never drops a vertex), but the
+     * far away taxis are never searched. Only the k routes are
+     * returned; the csv file has a line for every taxi routed.
+     * @param k The number of taxis wanted (0 for all of them).
+     */
+    public void setTopK(int k) {
+        if (k < 0)
+            throw (new IllegalArgumentException("K can not be negative."));
+        this.topK = k;
+    }
+
+    /**
+     * Makes the A* a weighted A*: the heuristic is multiplied
+     * by epsilon, so the search goes straight for the client
+     * and expands far fewer vertices, and the routes it finds
+     * cost at most epsilon times the shortest ones (as long as
+     * the beam never had to drop a vertex).
+     * @param epsilon The weight of the heuristic, 1 or more (1 is the plain A*).
+     */
+    public void setEpsilon(double epsilon) {
+        if (!(epsilon >= 1.0))
+            throw (new IllegalArgumentException("Epsilon must be at least 1."));
+        this.epsilon = epsilon;
+    }
+
+    /**
+     * Makes the A* an anytime repairing A* (ARA*).
+     * For every taxi a weighted A* finds a first route fast,
+     * then the weight is lowered step by step and the search is
+     * repaired, not started again, to find better routes, until
+     * the route is known to be the shortest or the time is up.
+     * The time is shared between the taxis that are still to be
+     * searched; a taxi always gets at least its first route.
+     * The openSet has no capacity in this mode, so the bound of
+     * every route holds.
+     * @param epsilon The first weight of the heuristic, more than 1 (0 turns ARA* off).
+     * @param deadline The time in milliseconds the whole solve may take.
+     */
+    public void setAnytime(double epsilon, long deadline) {
+        if (epsilon != 0 && !(epsilon > 1.0))
+            throw (new IllegalArgumentException("Epsilon must be more than 1."));
+        this.anytimeEpsilon = epsilon;
+        this.deadline = deadline;
+    }
+
+    /**
+     * Sets the departure time for time dependent weightings.
+     * @param departure The time of departure in hours since midnight.
+     */
+    public void setDeparture(double departure) {
+        this.departure = departure;
+    }
+
+    /**
+     * Sets a cache for the routes.
+     * Before searching for a taxi the cache is checked
+     * for a route between the same vertices on the same
+     * version of the graph, found with the same settings
+     * (capacity, epsilon, anytime, top k, departure and
+     * weighting), and every route found is stored in it.
+     * So one cache can be shared by many searches.
+     * @param cache The cache to be used (null for none).
+     */
+    public void setCache(RouteCache<T> cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Sets a cache of distance trees for popular clients.
+     * When the client is hot, all taxis are answered from
+     * its <code>ShortestPathTree</code> and no search runs.
+     * @param trees The cache to be used (null for none).
+     */
+    public void setTreeCache(DistanceTreeCache<T> trees) {
+        this.trees = trees;
+    }
 
     /**
      * The A* Algorithm implementation method.
@@ -50,33 +237,91 @@ public class AStar<T extends CostObject<T>> {
      *         <li>Else check if currentScore is better than old gScore and act accordingly.</li>
      *     </ul>
      * </ul>
+     * The capacity can also be adaptive: with <code>auto</code> every
+     * taxi starts with a narrow beam picked from its straight line
+     * distance to the client (<code>auto32</code> starts at 32 instead).
+     * The beam widens while the search runs if it stops getting
+     * closer to the client, and the search starts again with a
+     * wider beam if the openSet empties before the client is
+     * reached, up to a beam that holds the whole graph. The steps
+     * and largest openSet written for a taxi then cover all its tries.
      * @param graph The <code>Graph</code> which contains nodes, taxis, neighbors and client.
-     * @param arg The capacity of the A* openSet.
-     * @return A <code>TreeMap</code> with <code>Vertex</code> as key and list of <code>Vertex</code> as value.
+     * @param arg The capacity of the A* openSet, or <code>auto</code> followed by an optional first width.
+     * @return A <code>TreeMap</code> with <code>Vertex</code> as key and its <code>Route</code> as value.
      */
-    public Map<Graph.Vertex<T>, List<Graph.Vertex<T>>> solve(Graph<T> graph, String arg) {
+    public Map<Graph.Vertex<T>, Route<T>> solve(Graph<T> graph, String arg) {
+        return solve(graph, arg, (Query) null);
+    }
 
-        closedSet = new HashSet<>();
-        cameFrom = new HashMap<>();
-        gScore = new HashMap<>();
-        fScore = new HashMap<>();
-        finalScore = new HashMap<>();
+    /**
+     * Same as <code>solve(graph, arg)</code>, within the limits of a query.
+     * @param graph The <code>Graph</code> which contains nodes, taxis, neighbors and client.
+     * @param arg The capacity of the A* openSet, or <code>auto</code> followed by an optional first width.
+     * @param query The limits of the search (null for none).
+     * @return A <code>TreeMap</code> with <code>Vertex</code> as key and its <code>Route</code> as value.
+     * @see Query
+     */
+    public Map<Graph.Vertex<T>, Route<T>> solve(Graph<T> graph, String arg, Query query) {
         PrintWriter writer = null;
-        String file = "astar" + Integer.parseInt(arg) + ".csv";
-        int max, steps;
+        String file = "astar" + arg + ".csv";
+        try {
+            writer = new PrintWriter(file);
+        } catch (FileNotFoundException e) {
+            System.out.println("File not found");
+            System.exit(1);
+        }
+        Map<Graph.Vertex<T>, Route<T>> result = solve(graph, arg, graph.getClient(), query, writer);
+        writer.close();
+        return result;
+    }
 
+    /**
+     * Finds the routes of all the taxis to a client, within
+     * the limits of a query, and writes no csv file.
+     * If the query stops (deadline, budget or cancellation)
+     * the routes found so far are returned and the query tells
+     * why it stopped; the search of the taxi it stopped in is
+     * lost, except for the anytime A* which keeps its best route.
+     * @param graph The <code>Graph</code> which contains nodes, taxis and neighbors.
+     * @param arg The capacity of the A* openSet, or <code>auto</code> followed by an optional first width.
+     * @param client The location of the client, which is put on its closest vertex.
+     * @param query The limits of the search (null for none).
+     * @return A <code>TreeMap</code> with <code>Vertex</code> as key and its <code>Route</code> as value.
+     */
+    public Map<Graph.Vertex<T>, Route<T>> solve(Graph<T> graph, String arg, T client, Query query) {
+        return solve(graph, arg, graph.snap(client), query, null);
+    }
+
+    private Map<Graph.Vertex<T>, Route<T>> solve(Graph<T> graph, String arg, T goal, Query query, PrintWriter writer) {
+
+        this.query = query;
+        int n = graph.getVertexCount();
+        if (closedIn == null || closedIn.length != n) {
+            closedIn = new int[n];
+            search = 0;
+            cameFrom = new int[n];
+            Arrays.fill(cameFrom, -1);
+            /** Every search sets the capacity it needs. */
+            openSet = new PrioQueue(Math.max(n, 1), n);
+            /**
+             * The keys left from the last solve name
+             * vertices of the old arrays, so they go too.
+             */
+            if (gScore != null)
+                gScore.clear();
+        }
+        if (gScore == null)
+            gScore = new IntDoubleHashMap(1024);
         /**
-         * The comparator for the insertion to the <code>PrioQueue</code>.
-         * It is based on the fScore of the two vertices and is in ascending order.
+         * Final scores are kept by taxi id.
          */
-        final Comparator<Graph.Vertex<T>> qComparator = new Comparator<Graph.Vertex<T>>() {
-            @Override
-            public int compare(Graph.Vertex<T> v1, Graph.Vertex<T> v2) {
-                if (fScore.get(v1) < fScore.get(v2))
-                    return -1;
-                return 1;
-            }
-        };
+        if (finalScore == null)
+            finalScore = new IntDoubleHashMap(graph.getTaxis().size());
+        else
+            finalScore.clear();
+        boolean autoWidth = arg.startsWith(AUTO);
+        boolean bounded = (epsilon > 1.0 || anytimeEpsilon > 0);
+        int width = autoWidth ? ((arg.length() > AUTO.length()) ? Integer.parseInt(arg.substring(AUTO.length())) : 0) : Integer.parseInt(arg);
 
         /**
          * The comparator for the insertion to the <code>TreeMap</code>.
@@ -85,133 +330,469 @@ public class AStar<T extends CostObject<T>> {
         final Comparator<Graph.Vertex<T>> tComparator = new Comparator<Graph.Vertex<T>>() {
             @Override
             public int compare(Graph.Vertex<T> t1, Graph.Vertex<T> t2) {
-                if (finalScore.get(t1) < finalScore.get(t2))
+                if (finalScore.get(t1.getId()) < finalScore.get(t2.getId()))
                     return -1;
                 return 1;
             }
         };
 
-        openSet = new PrioQueue<>(Integer.parseInt(arg), qComparator);
-        Map<Graph.Vertex<T>, List<Graph.Vertex<T>>> result = new TreeMap<>(tComparator);
+        Map<Graph.Vertex<T>, Route<T>> result = new TreeMap<>(tComparator);
 
-        Map<Graph.Vertex<T>, Graph.Vertex<T>> vertices = graph.getAllVertices();
-        T goal = graph.getClient();
+        int goalIndex = graph.findVertex(goal).getIndex();
+        long version = graph.getVersion();
+        /**
+         * Pinned after the version is read, so a route is never
+         * cached under a version newer than the costs it was found with.
+         */
+        pinned = weighting.snapshot();
+        boolean timeDependent = pinned.isTimeDependent();
+        RouteCache<T> cache = timeDependent ? null : this.cache;
+        int settings = (cache == null) ? 0
+                : cache.settings(Arrays.asList(arg, epsilon, anytimeEpsilon, deadline, topK, departure, weighting));
+        ShortestPathTree<T> tree = (trees == null || timeDependent) ? null : trees.get(graph, goalIndex, pinned);
         //System.out.println("Goal coordinates " + goal);
-        try {
-            writer = new PrintWriter(file);
-            writer.println("Taxi ID, Max openSet Size, A* Steps, Distance");
-        } catch (FileNotFoundException e) {
-            System.out.println("File not found");
-            System.exit(1);
-        }
-
-        for (Graph.Vertex<T> taxi : graph.getTaxis()) {
+        if (writer != null)
+            writer.println("Taxi ID, Max openSet Size, A* Steps, Distance" + (bounded ? ", Bound" : ""));
 
-            closedSet.clear();
-            openSet.clear();
-            cameFrom.clear();
-            gScore.clear();
-            fScore.clear();
+        long end = System.nanoTime() + deadline * 1000000L;
+        int left = graph.getTaxis().size();
+        Iterator<Graph.Vertex<T>> taxis = graph.getTaxis().iterator();
+        TaxiIndex<T>.Cursor candidates = (topK > 0) ? graph.getTaxiIndex().nearest(goal) : null;
+        while (true) {
+            Graph.Vertex<T> taxi;
+            if (candidates != null) {
+                /**
+                 * No taxi left can beat the k-th route when even
+                 * the straight line to the closest of them costs more.
+                 */
+                if (kthCost(result, topK) <= pinned.heuristic(candidates.nextDistance()))
+                    break;
+                taxi = candidates.next();
+            } else {
+                if (!taxis.hasNext())
+                    break;
+                taxi = taxis.next();
+            }
+            left--;
+            if (query != null && query.isStopped())
+                break;
 
             //System.out.println();
             //System.out.println(taxi.getLocation());
-            Graph.Vertex<T> current = vertices.get(taxi);
-            cameFrom.put(current, null);
-            gScore.put(current, 0.0);
-            fScore.put(current, current.distance(goal));
-            openSet.add(current);
-            max = 1;
+            Graph.Vertex<T> current = graph.findVertex(taxi.getLocation());
+            if (tree != null) {
+                Route<T> route = tree.route(current.getIndex());
+                if (route != null) {
+                    finalScore.put(taxi.getId(), route.getCost());
+                    result.put(taxi, route);
+                    report(writer, taxi, 0, 0, route, bounded);
+                }
+                continue;
+            }
+            if (!graph.isReachable(current.getIndex(), goalIndex))
+                continue;
+            if (cache != null) {
+                Route<T> cached = cache.get(settings, current.getIndex(), goalIndex, version);
+                if (cached != null) {
+                    finalScore.put(taxi.getId(), cached.getCost());
+                    result.put(taxi, cached);
+                    report(writer, taxi, 0, 0, cached, bounded);
+                    continue;
+                }
+            }
+            if (overlay != null && !timeDependent) {
+                Route<T> route = overlay.route(current.getIndex(), goalIndex, query);
+                if (route != null) {
+                    finalScore.put(taxi.getId(), route.getCost());
+                    result.put(taxi, route);
+                    report(writer, taxi, 0, 0, route, bounded);
+                    if (cache != null)
+                        cache.put(settings, route.getSource(), goalIndex, version, route);
+                }
+                continue;
+            }
+            max = 0;
             steps = 0;
+            if (anytimeEpsilon > 0) {
+                long now = System.nanoTime();
+                Route<T> route = anytimeSearch(graph, current, goal, goalIndex, now + Math.max(0, end - now) / (left + 1));
+                if (route != null) {
+                    finalScore.put(taxi.getId(), route.getCost());
+                    result.put(taxi, route);
+                    if (cache != null)
+                        cache.put(settings, route.getSource(), goalIndex, version, route);
+                    report(writer, taxi, max, steps, route, bounded);
+                }
+                continue;
+            }
+            boolean adaptive = autoWidth;
+            int beam = (width > 0) ? width : initialWidth(graph, current, goal);
+            int limit = adaptive ? Math.max(beam, graph.getVertexCount()) : beam;
+            Route<T> route = beamSearch(graph, current, goal, beam, limit, adaptive);
+            while (route == null && beam < limit && (query == null || !query.isStopped())) {
+                /**
+                 * The beam dropped every way to the client,
+                 * so try again with a wider one.
+                 */
+                beam = (int) Math.min(limit, (long) beam * WIDEN);
+                route = beamSearch(graph, current, goal, beam, limit, true);
+            }
+            if (route != null) {
+                finalScore.put(taxi.getId(), route.getCost());
+                result.put(taxi, route);
+                if (cache != null)
+                    cache.put(settings, route.getSource(), goalIndex, version, route);
+                report(writer, taxi, max, steps, route, bounded);
+            }
 
-            while (!openSet.isEmpty()) {
-                steps++;
-                current = openSet.pollFirst();
-                //System.out.println("\nCurrent " + current.getLocation());
+        }
 
-                if (current.getLocation().equals(goal)) {
-                    finalScore.put(taxi, fScore.get(current));
-                    result.put(taxi, reconstructPath(current, cameFrom));
-                    writer.println(taxi.getId() + ", " + max + ", " + steps + ", " + fScore.get(current));
-                    break;
-                }
+        if (topK > 0) {
+            Iterator<Route<T>> routes = result.values().iterator();
+            for (int i = 0; routes.hasNext(); i++) {
+                routes.next();
+                if (i >= topK)
+                    routes.remove();
+            }
+        }
+        if (query != null)
+            query.finish();
+        this.query = null;
+        pinned = null;
+        memory = account();
+        return result;
+
+    }
+
+    /**
+     *
+     * @return The cost of the k-th cheapest route, or infinity if there are fewer routes.
+     */
+    private static <T extends CostObject<T>> double kthCost(Map<Graph.Vertex<T>, Route<T>> result, int k) {
+        if (result.size() < k)
+            return Double.POSITIVE_INFINITY;
+        int i = 0;
+        for (Route<T> route : result.values()) {
+            if (++i == k)
+                return route.getCost();
+        }
+        return Double.POSITIVE_INFINITY;
+    }
 
-                closedSet.add(current);
-                Double scoreSoFar = gScore.get(current);
+    /**
+     * Accounts for the memory of the last search: the arrays
+     * sized by the graph, the scores of the vertices it reached
+     * and what is left in the openSet. Nothing before the first search.
+     * </br>
+     * The report is taken when a search ends, so it can be read
+     * from another thread while the next search is running.
+     * @return The report.
+     */
+    public MemoryReport memoryReport() {
+        MemoryReport report = memory;
+        return (report != null ? report : new MemoryReport("A* search context"));
+    }
 
-                //System.out.println("With neighbors:");
-                for (Graph.Edge<T> edge : current.getEdges()) {
+    /**
+     * Accounts for the memory of the search that just ended.
+     * @return The report.
+     */
+    private MemoryReport account() {
+        MemoryReport report = new MemoryReport("A* search context");
+        report.add("closedIn", closedIn.length, "vertices", MemoryReport.array(closedIn.length, 4), "exact");
+        report.add("cameFrom", cameFrom.length, "vertices", MemoryReport.array(cameFrom.length, 4), "exact");
+        report.add("gScore", gScore.size(), "keys", gScore.memory(), "exact");
+        report.add("finalScore", finalScore.size(), "keys", finalScore.memory(), "exact");
+        report.add("openSet", openSet.size(), "entries", openSet.memory(), "layout");
+        return report;
+    }
 
-                    Graph.Vertex<T> neighbor = edge.getTo();
+    /**
+     * Writes the line of a taxi in the csv file.
+     */
+    private static <T extends CostObject<T>> void report(PrintWriter writer, Graph.Vertex<T> taxi, int max, int steps, Route<T> route, boolean bounded) {
+        if (writer != null)
+            writer.println(taxi.getId() + ", " + max + ", " + steps + ", " + route.getCost() + (bounded ? ", " + route.getBound() : ""));
+    }
 
-                    if (closedSet.contains(neighbor))
-                        continue;
+    /**
+     * The anytime repairing A* (ARA*) of one taxi.
+     * Each round is a weighted A* that only expands vertices
+     * whose fScore is below the cost of the route found so far.
+     * A vertex whose gScore gets better after it was expanded in
+     * the round is not expanded again but kept aside; at the next
+     * round, with a lower weight, these vertices go back into the
+     * openSet and every fScore is computed again. The bound of a
+     * route is the lowest of the weight of its round and the cost
+     * of the route divided by the lowest gScore + heuristic of the
+     * vertices still waiting, which is a lower bound of the shortest
+     * route. Steps and the largest openSet add up over the rounds.
+     * @param graph The graph.
+     * @param start The vertex of the taxi.
+     * @param goal The location of the client.
+     * @param goalIndex The index of the vertex of the client.
+     * @param until The System.nanoTime after which no new round starts.
+     * @return The best route found, or null if there is none.
+     */
+    private Route<T> anytimeSearch(Graph<T> graph, Graph.Vertex<T> start, T goal, int goalIndex, long until) {
+        openSet.clear();
+        openSet.setCapacity(Integer.MAX_VALUE);
+        gScore.forEachKey(touched -> cameFrom[touched] = -1);
+        gScore.clear();
+        List<Graph.Vertex<T>> inconsistent = new ArrayList<>();
 
-                    Double tGScore = scoreSoFar + edge.cost();
-                    //System.out.print(neighbor.getLocation());
-                    //System.out.print(" with gScore " + tGScore);
-                    //System.out.println(" with fScore " + (tGScore + neighbor.distance(goal)));
-                    if (gScore.containsKey(neighbor)) {
-                        if (tGScore < gScore.get(neighbor)) {
-                            if (openSet.contains(neighbor)) {
-                                gScore.put(neighbor, tGScore);
-                                fScore.put(neighbor, (tGScore + neighbor.distance(goal)));
-                                openSet.remove(neighbor);
-                                openSet.add(neighbor);
-                                cameFrom.put(neighbor, current);
-                                //System.out.println("Added after removing");
-                            } else {
-                                double prevFScore = fScore.get(neighbor);
-                                fScore.put(neighbor, (tGScore + neighbor.distance(goal)));
-                                if (openSet.add(neighbor)) {
-                                    gScore.put(neighbor, tGScore);
-                                    cameFrom.put(neighbor, current);
-                                    //System.out.println("Added with better score");
-                                } else {
-                                    fScore.put(neighbor, prevFScore);
-                                }
-                            }
-                        }
-                    } else {
-                        fScore.put(neighbor, (tGScore + neighbor.distance(goal)));
-                        if (openSet.add(neighbor)) {
-                            gScore.put(neighbor, tGScore);
-                            cameFrom.put(neighbor, current);
-                            //System.out.println("Added normally");
-                        } else {
-                            fScore.remove(neighbor);
-                        }
-                    }
+        double weight = anytimeEpsilon;
+        gScore.put(start.getIndex(), 0.0);
+        openSet.add(start.getIndex(), weight * pinned.heuristic(start.distance(goal)));
+        Route<T> best = null;
 
+        while (true) {
+            nextSearch();
+            boolean timeUp = false;
+            while (!openSet.isEmpty()) {
+                double goalScore = gScore.containsKey(goalIndex) ? gScore.get(goalIndex) : Double.POSITIVE_INFINITY;
+                if (goalScore <= openSet.peekPriority())
+                    break;
+                /**
+                 * Reading the clock is cheap but not free,
+                 * so it is only read every so many steps.
+                 */
+                if (best != null && (steps & 63) == 0 && System.nanoTime() > until) {
+                    timeUp = true;
+                    break;
+                }
+                if (query != null && query.expand()) {
+                    timeUp = true;
+                    break;
                 }
+                steps++;
+                Graph.Vertex<T> current = graph.getVertex(openSet.pollFirst());
+                closedIn[current.getIndex()] = search;
+                double scoreSoFar = gScore.get(current.getIndex());
 
+                for (Graph.Edge<T> edge : graph.edgesOf(current)) {
+                    Graph.Vertex<T> neighbor = edge.getTo();
+                    int n = neighbor.getIndex();
+                    double tGScore = scoreSoFar + pinned.cost(edge, departure + scoreSoFar);
+                    if (gScore.containsKey(n) && tGScore >= gScore.get(n))
+                        continue;
+                    gScore.put(n, tGScore);
+                    cameFrom[n] = current.getIndex();
+                    double tFScore = tGScore + weight * pinned.heuristic(neighbor.distance(goal));
+                    if (closedIn[n] == search)
+                        inconsistent.add(neighbor);
+                    else if (openSet.contains(n))
+                        openSet.decreaseKey(n, tFScore);
+                    else
+                        openSet.add(n, tFScore);
+                }
                 if (openSet.size() > max)
                     max = openSet.size();
+                assert openSet.checkInvariants();
+            }
+            if (timeUp)
+                return best;
+            if (!gScore.containsKey(goalIndex))
+                return best;
 
+            /**
+             * Everything still waiting is put back with the
+             * next weight, which also gives the lower bound.
+             */
+            double nextWeight = Math.max(1.0, weight - EPSILON_STEP);
+            List<Graph.Vertex<T>> waiting = new ArrayList<>(inconsistent);
+            while (!openSet.isEmpty())
+                waiting.add(graph.getVertex(openSet.pollFirst()));
+            inconsistent.clear();
+            double lowest = Double.POSITIVE_INFINITY;
+            for (Graph.Vertex<T> vertex : waiting) {
+                double h = pinned.heuristic(vertex.distance(goal));
+                double g = gScore.get(vertex.getIndex());
+                lowest = Math.min(lowest, g + h);
+                if (!openSet.contains(vertex.getIndex()))
+                    openSet.add(vertex.getIndex(), g + nextWeight * h);
             }
+            int[] chain = Route.chainOf(cameFrom, goalIndex);
+            double cost = costOf(graph, chain);
+            double bound = (lowest == Double.POSITIVE_INFINITY || cost <= lowest) ? 1.0 : Math.min(weight, cost / lowest);
+            if (best == null || cost < best.getCost() || bound < best.getBound())
+                best = new Route<>(graph, chain, cost, bound);
+            if (bound <= 1.0 || weight <= 1.0 || System.nanoTime() > until)
+                return best;
+            weight = nextWeight;
+        }
+    }
 
+    /**
+     * The cost of driving along a chain of vertices.
+     * In the ARA* the predecessors of the vertices on a
+     * route can get better after the route was found, so
+     * the route is weighed again once it is walked.
+     * @param graph The graph.
+     * @param chain The vertex indices from the start to the goal.
+     * @return The cost, taking the cheapest edge between each two vertices.
+     */
+    private double costOf(Graph<T> graph, int[] chain) {
+        double cost = 0;
+        for (int i = 1; i < chain.length; i++) {
+            double cheapest = Double.POSITIVE_INFINITY;
+            for (Graph.Edge<T> edge : graph.edgesOf(graph.getVertex(chain[i - 1]))) {
+                if (edge.getTo().getIndex() == chain[i])
+                    cheapest = Math.min(cheapest, pinned.cost(edge, departure + cost));
+            }
+            cost += cheapest;
         }
+        return cost;
+    }
 
-        writer.close();
-        return result;
+    /**
+     * One beam search from a taxi to the client.
+     * In adaptive mode the beam is made wider whenever the
+     * search stalls, that is when it has expanded
+     * <code>STALL</code> times the width of the beam without
+     * getting any closer to the client in straight line.
+     * The steps and the largest openSet of all the searches
+     * of a taxi are added up in <code>steps</code> and <code>max</code>.
+     * @param graph The graph.
+     * @param start The vertex of the taxi.
+     * @param goal The location of the client.
+     * @param width The capacity of the openSet to start with.
+     * @param limit The widest the openSet can become.
+     * @param adaptive true to widen the openSet when the search stalls.
+     * @return The route or null if the beam lost every way to the client.
+     */
+    private Route<T> beamSearch(Graph<T> graph, Graph.Vertex<T> start, T goal, int width, int limit, boolean adaptive) {
+        /**
+         * A vertex is closed only if it was closed
+         * by this search, so nothing needs clearing.
+         */
+        nextSearch();
+        openSet.clear();
+        openSet.setCapacity(width);
+        /**
+         * Only the vertices that got a gScore can
+         * have a predecessor, so resetting those is
+         * enough to clear the whole array.
+         */
+        gScore.forEachKey(touched -> cameFrom[touched] = -1);
+        gScore.clear();
+
+        gScore.put(start.getIndex(), 0.0);
+        openSet.add(start.getIndex(), epsilon * pinned.heuristic(start.distance(goal)));
+        max = Math.max(max, 1);
+        double closest = start.distance(goal);
+        int sinceCloser = 0;
 
+        while (!openSet.isEmpty()) {
+            if (query != null && query.expand())
+                return null;
+            steps++;
+            Graph.Vertex<T> current = graph.getVertex(openSet.pollFirst());
+            //System.out.println("\nCurrent " + current.getLocation());
+
+            if (current.getLocation().equals(goal)) {
+                double cost = gScore.get(current.getIndex());
+                double bound = (openSet.getDropped() == 0) ? epsilon : Double.POSITIVE_INFINITY;
+                return Route.fromPredecessors(graph, cameFrom, current.getIndex(), cost, bound);
+            }
+
+            if (adaptive) {
+                double left = current.distance(goal);
+                if (left < closest) {
+                    closest = left;
+                    sinceCloser = 0;
+                } else if (++sinceCloser > STALL * openSet.getCapacity() && openSet.getCapacity() < limit) {
+                    openSet.setCapacity((int) Math.min(limit, (long) openSet.getCapacity() * WIDEN));
+                    sinceCloser = 0;
+                }
+            }
+
+            closedIn[current.getIndex()] = search;
+            double scoreSoFar = gScore.get(current.getIndex());
+
+            //System.out.println("With neighbors:");
+            for (Graph.Edge<T> edge : graph.edgesOf(current)) {
+
+                Graph.Vertex<T> neighbor = edge.getTo();
+                int n = neighbor.getIndex();
+
+                if (closedIn[n] == search)
+                    continue;
+
+                double tGScore = scoreSoFar + pinned.cost(edge, departure + scoreSoFar);
+                //System.out.print(neighbor.getLocation());
+                //System.out.print(" with gScore " + tGScore);
+                //System.out.println(" with fScore " + (tGScore + neighbor.distance(goal)));
+                boolean seen = gScore.containsKey(n);
+                if (seen && tGScore >= gScore.get(n))
+                    continue;
+                double tFScore = tGScore + epsilon * pinned.heuristic(neighbor.distance(goal));
+                if (seen && openSet.contains(n)) {
+                    openSet.decreaseKey(n, tFScore);
+                    //System.out.println("Decreased");
+                } else if (!openSet.add(n, tFScore)) {
+                    /**
+                     * The beam is full of better vertices,
+                     * so the neighbor keeps its old score.
+                     */
+                    continue;
+                }
+                gScore.put(n, tGScore);
+                cameFrom[n] = current.getIndex();
+
+            }
+
+            if (openSet.size() > max)
+                max = openSet.size();
+            assert openSet.checkInvariants();
+
+        }
+        return null;
     }
 
     /**
-     * Reconstructs the path of the route.
-     * Finds all the previous vertices through the
-     * cameFrom map, and returns all the parents in
-     * an <code>ArrayList</code> of vertices.
-     * @param goal
-     * @param cameFrom
-     * @return
+     * Moves on to the mark of a new search in <code>closedIn</code>.
+     * The marks start again from 1 once they run out, after the
+     * array is cleared, so an old mark is never taken for a new one.
      */
-    private List<Graph.Vertex<T>> reconstructPath(Graph.Vertex<T> goal, Map<Graph.Vertex<T>, Graph.Vertex<T>> cameFrom) {
-        List<Graph.Vertex<T>> result = new ArrayList<>();
-        result.add(goal);
-        while ((goal = cameFrom.get(goal)) != null) {
-            result.add(goal);
+    private void nextSearch() {
+        if (search == Integer.MAX_VALUE) {
+            Arrays.fill(closedIn, 0);
+            search = 0;
         }
-        return result;
+        search++;
+    }
+
+    /**
+     * Picks the first width of an adaptive beam from the
+     * straight line distance to the client. The number of edges
+     * on the way is judged by the length of the edges around the
+     * taxi; a beam about as wide as the square root of it is
+     * usually enough, as the beam only has to hold the vertices
+     * across the front of the search and not along the whole way.
+     * The width is a power of two between <code>MIN_WIDTH</code>
+     * and <code>MAX_INITIAL_WIDTH</code>.
+     * @param graph The graph.
+     * @param start The vertex of the taxi.
+     * @param goal The location of the client.
+     * @return The width.
+     */
+    private int initialWidth(Graph<T> graph, Graph.Vertex<T> start, T goal) {
+        double length = 0;
+        int edges = 0;
+        for (Graph.Edge<T> edge : graph.edgesOf(start)) {
+            for (Graph.Edge<T> next : graph.edgesOf(edge.getTo())) {
+                length += next.cost();
+                edges++;
+            }
+        }
+        if (edges == 0 || length <= 0)
+            return MIN_WIDTH;
+        double hops = start.distance(goal) / (length / edges);
+        int width = MIN_WIDTH;
+        while (width < Math.sqrt(hops) && width < MAX_INITIAL_WIDTH)
+            width <<= 1;
+        return width;
     }
 
 }
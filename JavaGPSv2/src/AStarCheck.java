@@ -0,0 +1,606 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Checks the A* against Dijkstra on random graphs.
+ * Every round writes a random road network, random taxis and
+ * a random client to temporary files, loads them into a
+ * <code>Graph</code> and runs the A* with several beam widths.
+ * For every taxi it checks that:
+ * <ul>
+ *     <li>The route starts at the taxi, ends at the client and only uses edges of the graph.</li>
+ *     <li>The cost of the route is the sum of the costs of its edges.</li>
+ *     <li>With a beam wide enough to hold the whole graph, the cost is the
+ *     Dijkstra distance (<code>ShortestPathTree</code>) and no reachable taxi is missed.</li>
+ *     <li>With a narrower beam, the cost is never below the Dijkstra distance.</li>
+ *     <li>With an adaptive beam (<code>auto</code>), no reachable taxi is missed either.</li>
+ *     <li>With a weighted A* and with the anytime A* (ARA*), no reachable taxi is missed
+ *     and the cost is at most the bound of the route times the Dijkstra distance.</li>
+ *     <li>With a top k search, the routes cost the k shortest Dijkstra distances.</li>
+ *     <li>With live traffic (<code>TrafficOverlay</code>), the exact A* finds the Dijkstra
+ *     distances of the multiplied costs, also after an update, and a snapshot taken
+ *     before the update still gives the distances of before.</li>
+ *     <li>With a <code>DistanceTreeCache</code>, the routes read from the tree of the
+ *     client are the Dijkstra distances, and the tree is built again when the version
+ *     of the graph moves on, with new traffic or without.</li>
+ *     <li>With a multi-level <code>OverlayRouter</code>, the routes of the taxis and the
+ *     distances of all the vertices are the Dijkstra ones, also after new traffic
+ *     is published and the overlay is customized again.</li>
+ *     <li>With a <code>GraphEditor</code>, after every closed, opened and added road
+ *     and every moved node, the distances to a vertex are the ones of a graph read
+ *     afresh from the nodes as edited, also when edits come in during a compaction,
+ *     a graph taken halfway still gives its old distances, the exact
+ *     A* on the edited graph finds the Dijkstra distances, and a location whose
+ *     vertex lost all its roads snaps to a vertex that still has one.</li>
+ * </ul>
+ * Run it with assertions on (-ea) so the <code>PrioQueue</code>
+ * also checks itself after every step of every search.
+ * The A* writes its usual csv files in the working directory.
+ * </br>
+ * Arguments: the number of rounds and optionally the random seed.
+ */
+public class AStarCheck {
+
+    private static final double EPSILON = 1e-9;
+    private static final int[]  BEAMS = {1, 2, 4, 16, 64};
+    private static final String EXACT = Integer.toString(Integer.MAX_VALUE);
+    private static final Weighting<Coordinates> DISTANCE = new DistanceWeighting<>();
+
+    public static void main(String[] args) throws IOException {
+        int rounds = Integer.parseInt(args[0]);
+        long seed = (args.length > 1) ? Long.parseLong(args[1]) : System.nanoTime();
+        Random rand = new Random(seed);
+        System.out.println("Seed " + seed);
+
+        int failures = 0, searches = 0;
+        File dir = File.createTempFile("astarcheck", "");
+        dir.delete();
+        dir.mkdirs();
+        File nodes = new File(dir, "nodes.csv"), taxis = new File(dir, "taxis.csv"), client = new File(dir, "client.csv");
+        for (int round = 0; round < rounds; round++) {
+            writeRandom(rand, nodes, taxis, client);
+            Graph<Coordinates> graph = new Graph<>(nodes.getPath(), taxis.getPath(), client.getPath(), new Coordinates(), rand.nextBoolean());
+            int goal = graph.findVertex(graph.getClient()).getIndex();
+            ShortestPathTree<Coordinates> tree = ShortestPathTree.build(graph, goal, new DistanceWeighting<Coordinates>());
+
+            AStar<Coordinates> exact = new AStar<>();
+            failures += check(graph, tree, exact.solve(graph, Integer.toString(Integer.MAX_VALUE)), true, true);
+            for (int beam : BEAMS) {
+                AStar<Coordinates> astar = new AStar<>();
+                failures += check(graph, tree, astar.solve(graph, Integer.toString(beam)), false, false);
+            }
+            AStar<Coordinates> adaptive = new AStar<>();
+            failures += check(graph, tree, adaptive.solve(graph, AStar.AUTO), false, true);
+            AStar<Coordinates> weighted = new AStar<>();
+            weighted.setEpsilon(1.5);
+            failures += check(graph, tree, weighted.solve(graph, Integer.toString(Integer.MAX_VALUE)), false, true);
+            AStar<Coordinates> anytime = new AStar<>();
+            anytime.setAnytime(3.0, rand.nextInt(3));
+            failures += check(graph, tree, anytime.solve(graph, Integer.toString(Integer.MAX_VALUE)), false, true);
+            AStar<Coordinates> top = new AStar<>();
+            int k = 1 + rand.nextInt(3);
+            top.setTopK(k);
+            Map<Graph.Vertex<Coordinates>, Route<Coordinates>> closest = top.solve(graph, Integer.toString(Integer.MAX_VALUE));
+            failures += check(graph, tree, closest, true, false) + checkTopK(graph, tree, closest, k);
+            failures += checkTraffic(graph, goal, rand);
+            failures += checkTrees(graph, goal, rand);
+            failures += checkOverlay(graph, goal, rand);
+            failures += checkEdits(nodes, taxis, client, rand);
+            searches += graph.getTaxis().size() * (BEAMS.length + 12) + closest.size();
+        }
+        nodes.delete();
+        taxis.delete();
+        client.delete();
+        dir.delete();
+
+        System.out.println("Searches\t: " + searches);
+        System.out.println("Failures\t: " + failures);
+        if (failures > 0)
+            System.exit(1);
+    }
+
+    private static int check(Graph<Coordinates> graph, ShortestPathTree<Coordinates> tree,
+                             Map<Graph.Vertex<Coordinates>, Route<Coordinates>> results, boolean exact, boolean complete) {
+        return check(graph, tree, DISTANCE, results, exact, complete);
+    }
+
+    private static int check(Graph<Coordinates> graph, ShortestPathTree<Coordinates> tree, Weighting<Coordinates> weighting,
+                             Map<Graph.Vertex<Coordinates>, Route<Coordinates>> results, boolean exact, boolean complete) {
+        /**
+         * The results are ordered by cost and can not be
+         * looked up by taxi, so they are copied first.
+         */
+        Map<Graph.Vertex<Coordinates>, Route<Coordinates>> byTaxi = new IdentityHashMap<>();
+        for (Map.Entry<Graph.Vertex<Coordinates>, Route<Coordinates>> entry : results.entrySet())
+            byTaxi.put(entry.getKey(), entry.getValue());
+        int failures = 0;
+        for (Graph.Vertex<Coordinates> taxi : graph.getTaxis()) {
+            int source = graph.findVertex(taxi.getLocation()).getIndex();
+            Route<Coordinates> route = byTaxi.get(taxi);
+            if (route == null) {
+                if (complete && tree.reaches(source)) {
+                    System.out.println("Taxi " + taxi.getId() + ": no route, Dijkstra has " + tree.getDistance(source));
+                    failures++;
+                }
+                continue;
+            }
+            String problem = validate(graph, weighting, route, source, tree.getTarget());
+            double expected = tree.getDistance(source);
+            if (problem == null && exact && Math.abs(route.getCost() - expected) > EPSILON)
+                problem = "cost " + route.getCost() + ", Dijkstra " + expected;
+            if (problem == null && route.getCost() < expected - EPSILON)
+                problem = "cost " + route.getCost() + " below Dijkstra " + expected;
+            if (problem == null && route.getCost() > route.getBound() * expected + EPSILON)
+                problem = "cost " + route.getCost() + " over " + route.getBound() + " times Dijkstra " + expected;
+            if (problem != null) {
+                System.out.println("Taxi " + taxi.getId() + (exact ? " (exact)" : "") + ": " + problem);
+                failures++;
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * The routes of a top k search must cost the same
+     * as the k shortest Dijkstra distances of all taxis.
+     */
+    private static int checkTopK(Graph<Coordinates> graph, ShortestPathTree<Coordinates> tree,
+                                 Map<Graph.Vertex<Coordinates>, Route<Coordinates>> results, int k) {
+        List<Double> distances = new ArrayList<>();
+        for (Graph.Vertex<Coordinates> taxi : graph.getTaxis()) {
+            int source = graph.findVertex(taxi.getLocation()).getIndex();
+            if (tree.reaches(source))
+                distances.add(tree.getDistance(source));
+        }
+        Collections.sort(distances);
+        int expected = Math.min(k, distances.size());
+        if (results.size() != expected) {
+            System.out.println("Top " + k + ": " + results.size() + " routes instead of " + expected);
+            return 1;
+        }
+        int i = 0;
+        for (Route<Coordinates> route : results.values()) {
+            if (Math.abs(route.getCost() - distances.get(i)) > EPSILON) {
+                System.out.println("Top " + k + ": route " + i + " costs " + route.getCost() + ", Dijkstra " + distances.get(i));
+                return 1;
+            }
+            i++;
+        }
+        return 0;
+    }
+
+    /**
+     * Runs the exact A* with random traffic, twice, and checks the
+     * snapshot of the first traffic after the second is published.
+     */
+    private static int checkTraffic(Graph<Coordinates> graph, int goal, Random rand) {
+        TrafficOverlay<Coordinates> traffic = new TrafficOverlay<>(graph, DISTANCE);
+        int failures = 0;
+        ShortestPathTree<Coordinates> before = null;
+        Weighting<Coordinates> pinned = null;
+        for (int update = 0; update < 2; update++) {
+            traffic.update(randomTraffic(graph, rand), true);
+            ShortestPathTree<Coordinates> tree = ShortestPathTree.build(graph, goal, traffic);
+            AStar<Coordinates> astar = new AStar<>();
+            astar.setWeighting(traffic);
+            failures += check(graph, tree, traffic, astar.solve(graph, EXACT), true, true);
+            if (pinned != null) {
+                ShortestPathTree<Coordinates> old = ShortestPathTree.build(graph, goal, pinned);
+                for (int v = 0; v < graph.getVertexCount(); v++) {
+                    if (Math.abs(old.getDistance(v) - before.getDistance(v)) > EPSILON) {
+                        System.out.println("Traffic: snapshot gives " + old.getDistance(v) + " at " + v
+                                + " after an update, " + before.getDistance(v) + " before");
+                        failures++;
+                        break;
+                    }
+                }
+            }
+            before = tree;
+            pinned = traffic.snapshot();
+        }
+        return failures;
+    }
+
+    /**
+     * Answers the client from a tree cache three times: with the
+     * tree built at the first request, after new traffic and after
+     * the version of the graph moved on by itself. Every version
+     * must have built a tree of its own.
+     */
+    private static int checkTrees(Graph<Coordinates> graph, int goal, Random rand) {
+        TrafficOverlay<Coordinates> traffic = new TrafficOverlay<>(graph, DISTANCE);
+        DistanceTreeCache<Coordinates> trees = new DistanceTreeCache<>(1, 1, 1000);
+        AStar<Coordinates> astar = new AStar<>();
+        astar.setWeighting(traffic);
+        astar.setTreeCache(trees);
+        int failures = 0;
+        for (int bump = 0; bump < 3; bump++) {
+            if (bump == 1)
+                traffic.update(randomTraffic(graph, rand), true);
+            else if (bump == 2)
+                graph.nextVersion();
+            ShortestPathTree<Coordinates> tree = ShortestPathTree.build(graph, goal, traffic);
+            failures += check(graph, tree, traffic, astar.solve(graph, "1"), true, true);
+            if (trees.getBuilds() != bump + 1) {
+                System.out.println("Trees: " + trees.getBuilds() + " built after " + bump + " version changes");
+                failures++;
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * Routes the taxis through an overlay of random cells and
+     * levels, and asks it the distance of every vertex to the
+     * client, with the traffic of the start and after an update.
+     */
+    private static int checkOverlay(Graph<Coordinates> graph, int goal, Random rand) {
+        TrafficOverlay<Coordinates> traffic = new TrafficOverlay<>(graph, DISTANCE);
+        int[][] partition = OverlayRouter.gridPartition(graph, 0.002 * (1 + rand.nextInt(3)), 1 + rand.nextInt(3));
+        OverlayRouter<Coordinates> overlay = new OverlayRouter<>(graph, traffic, partition);
+        AStar<Coordinates> astar = new AStar<>();
+        astar.setWeighting(traffic);
+        astar.setOverlay(overlay);
+        int failures = 0;
+        for (int update = 0; update < 2; update++) {
+            if (update == 1)
+                traffic.update(randomTraffic(graph, rand), true);
+            ShortestPathTree<Coordinates> tree = ShortestPathTree.build(graph, goal, traffic);
+            failures += check(graph, tree, traffic, astar.solve(graph, "1"), true, true);
+            for (int v = 0; v < graph.getVertexCount(); v++) {
+                double distance = overlay.distance(v, goal), expected = tree.getDistance(v);
+                if (distance != expected && !(Math.abs(distance - expected) <= EPSILON)) {
+                    System.out.println("Overlay: distance " + distance + " from " + v + ", Dijkstra " + expected
+                            + (update == 1 ? " after new traffic" : ""));
+                    failures++;
+                    break;
+                }
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * Edits the graph of the nodes file, one random edit of each
+     * kind in turn, and compares it after every edit with a graph
+     * read from a nodes file written for the same network. Then a
+     * compaction runs while more edits come in, and a graph taken
+     * halfway must still be the one it was.
+     */
+    private static int checkEdits(File nodes, File taxis, File client, Random rand) throws IOException {
+        GraphEditor<Coordinates> editor = new GraphEditor<>(new Graph<>(nodes.getPath(), taxis.getPath(), client.getPath(), new Coordinates(), false));
+        Network network = new Network(nodes);
+        File edited = new File(nodes.getParentFile(), "edited.csv");
+        Graph<Coordinates> before = null, expected = null;
+        Coordinates goal = null;
+        int failures = 0;
+        for (int edit = 0; edit < 8; edit++) {
+            String kind = network.edit(editor, edit % 4, rand);
+            Graph<Coordinates> fresh = network.write(edited);
+            failures += compare(kind, editor.current(), fresh, network.anyLocation(rand));
+            if (edit == 3) {
+                before = editor.current();
+                expected = fresh;
+                goal = network.anyLocation(rand);
+            }
+        }
+        Thread compaction = new Thread(editor::compact);
+        compaction.start();
+        int during = 0;
+        do {
+            network.edit(editor, during % 4, rand);
+            during++;
+        } while (compaction.isAlive() && during < 20);
+        try {
+            compaction.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        failures += compare("compaction after " + during + " edits", editor.current(), network.write(edited), network.anyLocation(rand));
+        if (editor.getCompactions() != 1) {
+            System.out.println("Edits: " + editor.getCompactions() + " compactions instead of 1");
+            failures++;
+        }
+        failures += compare("more edits, on the graph before them", before, expected, goal);
+
+        Graph<Coordinates> graph = editor.current();
+        int target = graph.findVertex(graph.getClient()).getIndex();
+        AStar<Coordinates> astar = new AStar<>();
+        failures += check(graph, ShortestPathTree.build(graph, target, DISTANCE), astar.solve(graph, EXACT), true, true);
+        failures += checkSnap(editor, Network.near(network.anyLocation(rand), rand));
+        edited.delete();
+        return failures;
+    }
+
+    /**
+     * Closes every road of the vertex a location snaps to. The
+     * location must then snap to a vertex that still has a road,
+     * never to the one left without any. Which one depends on the
+     * components of the base, so only its distance is bounded.
+     */
+    private static int checkSnap(GraphEditor<Coordinates> editor, Coordinates location) {
+        Graph<Coordinates> graph = editor.current();
+        Coordinates snapped = graph.snap(location);
+        Set<Coordinates> neighbors = new HashSet<>();
+        for (Graph.Edge<Coordinates> edge : graph.edgesOf(graph.findVertex(snapped)))
+            neighbors.add(edge.getTo().getLocation());
+        for (Coordinates neighbor : neighbors)
+            editor.closeRoad(snapped, neighbor);
+        graph = editor.current();
+        double min = Double.MAX_VALUE;
+        for (int v = 0; v < graph.getVertexCount(); v++) {
+            Graph.Vertex<Coordinates> vertex = graph.getVertex(v);
+            if (!graph.edgesOf(vertex).isEmpty())
+                min = Math.min(min, vertex.getLocation().distance(location));
+        }
+        if (min == Double.MAX_VALUE)
+            return 0;
+        Coordinates snap = graph.snap(location);
+        if (graph.edgesOf(graph.findVertex(snap)).isEmpty() || snap.distance(location) < min - EPSILON) {
+            System.out.println("Edits: " + location + " snaps to " + snap + " at " + snap.distance(location)
+                    + " after closing the roads of " + snapped + ", the closest road is at " + min);
+            return 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Compares the distances to a location in an edited graph
+     * with the ones in a graph read from its nodes file.
+     */
+    private static int compare(String edit, Graph<Coordinates> graph, Graph<Coordinates> fresh, Coordinates goal) {
+        return compare(edit, graph, fresh, ShortestPathTree.build(fresh, fresh.findVertex(goal).getIndex(), DISTANCE), goal);
+    }
+
+    /**
+     * Compares the distances to a location in a graph with the
+     * ones of a tree of a graph of the same locations.
+     */
+    private static int compare(String edit, Graph<Coordinates> graph, Graph<Coordinates> other,
+                               ShortestPathTree<Coordinates> expected, Coordinates goal) {
+        if (graph.getVertexCount() != other.getVertexCount()) {
+            System.out.println("Edits: " + graph.getVertexCount() + " vertices after " + edit + ", "
+                    + other.getVertexCount() + " expected");
+            return 1;
+        }
+        ShortestPathTree<Coordinates> tree = ShortestPathTree.build(graph, graph.findVertex(goal).getIndex(), DISTANCE);
+        for (int v = 0; v < other.getVertexCount(); v++) {
+            Coordinates location = other.getVertex(v).getLocation();
+            Graph.Vertex<Coordinates> vertex = graph.findVertex(location);
+            if (vertex == null) {
+                System.out.println("Edits: no vertex at " + location + " after " + edit);
+                return 1;
+            }
+            double distance = tree.getDistance(vertex.getIndex()), dijkstra = expected.getDistance(v);
+            if (distance != dijkstra && !(Math.abs(distance - dijkstra) <= EPSILON)) {
+                System.out.println("Edits: distance " + distance + " from " + location + " after " + edit
+                        + ", " + dijkstra + " expected");
+                return 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * The road network of a nodes file as ways of nodes,
+     * edited alongside a <code>GraphEditor</code>. Nodes keep
+     * their number when they move and roads are closed by
+     * pair of nodes, as the editor does with its vertices.
+     */
+    private static class Network {
+
+        private final List<List<Integer>>   ways = new ArrayList<>();
+        private final List<Coordinates>     locations = new ArrayList<>();
+        private final Map<Long, Integer>    nodes = new HashMap<>();
+        private final Set<Long>             closed = new HashSet<>();
+        private int                         wayId = 1000000;
+
+        Network(File file) throws IOException {
+            List<String> lines = Files.readAllLines(file.toPath());
+            int previous = -1;
+            for (int i = 1; i < lines.size(); i++) {
+                String[] row = lines.get(i).split(",");
+                int id = Integer.parseInt(row[2]);
+                /** The nodes reader joins the first row to nothing, so it is a way of its own. */
+                if (id != previous || i == 2)
+                    ways.add(new ArrayList<>());
+                ways.get(ways.size() - 1).add(node(new Coordinates(Double.parseDouble(row[0]), Double.parseDouble(row[1]))));
+                previous = id;
+            }
+        }
+
+        Coordinates anyLocation(Random rand) {
+            return locations.get(rand.nextInt(locations.size()));
+        }
+
+        /**
+         * Makes an edit of a kind (close, open, move, add a way)
+         * on the editor and on the network, or a close if there
+         * is no road to open.
+         * @return What was done.
+         */
+        String edit(GraphEditor<Coordinates> editor, int kind, Random rand) {
+            while (true) {
+                if (kind == 1 && !closed.isEmpty()) {
+                    List<Long> pairs = new ArrayList<>(closed);
+                    long pair = pairs.get(rand.nextInt(pairs.size()));
+                    Coordinates a = locations.get((int) (pair >>> 32)), b = locations.get((int) pair);
+                    editor.reopenRoad(a, b);
+                    closed.remove(pair);
+                    return "opening " + a + " - " + b;
+                } else if (kind == 2) {
+                    int node = rand.nextInt(locations.size());
+                    Coordinates to = near(anyLocation(rand), rand);
+                    if (nodes.containsKey(to.key()))
+                        continue;
+                    Coordinates from = locations.get(node);
+                    editor.moveNode(from, to);
+                    nodes.remove(from.key());
+                    nodes.put(to.key(), node);
+                    locations.set(node, to);
+                    return "moving " + from + " to " + to;
+                } else if (kind == 3) {
+                    /** Points are nodes or new places, never the same twice in a row nor across a closed road. */
+                    List<Coordinates> points = new ArrayList<>();
+                    int count = 2 + rand.nextInt(3);
+                    for (int i = 0; i < count; i++) {
+                        Coordinates point = rand.nextBoolean() ? anyLocation(rand) : near(anyLocation(rand), rand);
+                        Integer node = nodes.get(point.key());
+                        if (node == null && points.contains(point))
+                            continue;
+                        if (!points.isEmpty()) {
+                            Integer last = nodes.get(points.get(points.size() - 1).key());
+                            if (point.equals(points.get(points.size() - 1))
+                                    || (node != null && last != null && closed.contains(pair(node, last))))
+                                continue;
+                        }
+                        points.add(point);
+                    }
+                    if (points.size() < 2)
+                        continue;
+                    editor.addWay(points, ++wayId);
+                    List<Integer> way = new ArrayList<>();
+                    for (Coordinates point : points)
+                        way.add(node(point));
+                    ways.add(way);
+                    return "adding a way through " + points;
+                } else {
+                    List<Integer> way = ways.get(rand.nextInt(ways.size()));
+                    if (way.size() < 2)
+                        continue;
+                    int i = rand.nextInt(way.size() - 1);
+                    int a = way.get(i), b = way.get(i + 1);
+                    if (a == b || closed.contains(pair(a, b)))
+                        continue;
+                    editor.closeRoad(locations.get(a), locations.get(b));
+                    closed.add(pair(a, b));
+                    return "closing " + locations.get(a) + " - " + locations.get(b);
+                }
+            }
+        }
+
+        /**
+         * Writes the network as a nodes file, each way cut
+         * where a road is closed, and reads it into a graph.
+         */
+        Graph<Coordinates> write(File file) throws IOException {
+            int id = 0;
+            try (PrintWriter out = new PrintWriter(file)) {
+                out.println("X,Y,id,name");
+                for (List<Integer> way : ways) {
+                    id++;
+                    for (int i = 0; i < way.size(); i++) {
+                        if (i > 0 && closed.contains(pair(way.get(i - 1), way.get(i))))
+                            id++;
+                        Coordinates location = locations.get(way.get(i));
+                        out.println(location.getX() + "," + location.getY() + "," + id + ",Street");
+                    }
+                }
+            }
+            return (new Graph<>(file.getPath(), new Coordinates()));
+        }
+
+        private int node(Coordinates location) {
+            Integer node = nodes.get(location.key());
+            if (node == null) {
+                node = locations.size();
+                locations.add(location);
+                nodes.put(location.key(), node);
+            }
+            return node;
+        }
+
+        private static Coordinates near(Coordinates location, Random rand) {
+            return (new Coordinates(location.getX() + (rand.nextInt(5) - 2) * 0.0005, location.getY() + (rand.nextInt(5) - 2) * 0.0005));
+        }
+
+        private static long pair(int a, int b) {
+            return ((long) Math.min(a, b) << 32) | Math.max(a, b);
+        }
+
+    }
+
+    /**
+     * A random multiplier between 0.5 and 3 for every way.
+     */
+    private static Map<Integer, Float> randomTraffic(Graph<Coordinates> graph, Random rand) {
+        Map<Integer, Float> multipliers = new HashMap<>();
+        for (int v = 0; v < graph.getVertexCount(); v++) {
+            for (Graph.Edge<Coordinates> edge : graph.edgesOf(graph.getVertex(v)))
+                multipliers.put(edge.getWayId(), 0.5f + 2.5f * rand.nextFloat());
+        }
+        return multipliers;
+    }
+
+    /**
+     * Follows the route vertex by vertex, adding up the
+     * costs of the edges between them. Routes of compressed
+     * graphs are read through their vertex indices only.
+     */
+    private static String validate(Graph<Coordinates> graph, Weighting<Coordinates> weighting, Route<Coordinates> route,
+                                   int source, int target) {
+        if (route.getSource() != source)
+            return "starts at " + route.getSource() + " instead of " + source;
+        if (route.getTarget() != target)
+            return "ends at " + route.getTarget() + " instead of " + target;
+        double cost = 0;
+        Graph.Vertex<Coordinates> from = null;
+        for (Graph.Vertex<Coordinates> vertex : route) {
+            if (vertex.getIndex() == -1)
+                continue;
+            if (from != null) {
+                double best = Double.MAX_VALUE;
+                for (Graph.Edge<Coordinates> edge : graph.edgesOf(from)) {
+                    if (edge.getTo().getIndex() == vertex.getIndex())
+                        best = Math.min(best, weighting.cost(edge, 0.0));
+                }
+                if (best == Double.MAX_VALUE)
+                    return "no edge from " + from.getIndex() + " to " + vertex.getIndex();
+                cost += best;
+            }
+            from = vertex;
+        }
+        if (Math.abs(cost - route.getCost()) > EPSILON)
+            return "edges add up to " + cost + " but the cost is " + route.getCost();
+        return null;
+    }
+
+    /**
+     * Writes a random network of ways on a lattice, so that
+     * ways cross each other at shared points, together with
+     * a few taxis and a client anywhere around it.
+     */
+    private static void writeRandom(Random rand, File nodes, File taxis, File client) throws IOException {
+        double x0 = 23.7, y0 = 37.95, step = 0.001;
+        int side = 5 + rand.nextInt(20);
+        int ways = 2 + rand.nextInt(side * 2);
+        try (PrintWriter out = new PrintWriter(nodes)) {
+            out.println("X,Y,id,name");
+            for (int way = 1; way <= ways; way++) {
+                int x = rand.nextInt(side), y = rand.nextInt(side);
+                int length = 2 + rand.nextInt(side);
+                for (int i = 0; i < length; i++) {
+                    out.println((x0 + x * step) + "," + (y0 + y * step) + "," + way + ",Street");
+                    if (rand.nextBoolean())
+                        x = Math.max(0, Math.min(side - 1, x + (rand.nextBoolean() ? 1 : -1)));
+                    else
+                        y = Math.max(0, Math.min(side - 1, y + (rand.nextBoolean() ? 1 : -1)));
+                }
+            }
+        }
+        try (PrintWriter out = new PrintWriter(taxis)) {
+            out.println("X,Y,id");
+            int count = 1 + rand.nextInt(10);
+            for (int id = 1; id <= count; id++)
+                out.println((x0 + rand.nextDouble() * side * step) + "," + (y0 + rand.nextDouble() * side * step) + "," + id);
+        }
+        try (PrintWriter out = new PrintWriter(client)) {
+            out.println("X,Y");
+            out.println((x0 + rand.nextDouble() * side * step) + "," + (y0 + rand.nextDouble() * side * step));
+        }
+    }
+
+}
@@ -0,0 +1,261 @@
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Groups concurrent requests for the same client vertex.
+ * Every request is snapped to its vertex. The first request for
+ * a vertex opens a group and waits a short window (or until the
+ * group is full) for other requests for the same vertex to join.
+ * Then the group is closed and searched once:
+ * <ul>
+ *     <li>A group of at least <code>minShared</code> requests builds one
+ *     <code>ShortestPathTree</code> towards the vertex, a reverse Dijkstra
+ *     that stops once it has reached every taxi and gives the exact route
+ *     of each, and every request of the group reads its routes from it.</li>
+ *     <li>A smaller group runs the usual <code>AStar</code> for each request.</li>
+ * </ul>
+ * Every request gets its own map, ordered by cost like the map
+ * of <code>AStar.solve</code>, so the caller can change it freely.
+ * The searches run on the executor given, so the requests can
+ * wait on cheap threads while the work goes to a bounded pool;
+ * if the executor rejects a group, every request of the group
+ * gets the <code>RejectedExecutionException</code>.
+ * </br>
+ * The requests of a group share one search, so the query of
+ * every request but the first is only used to report the end;
+ * deadlines and budgets are kept only by the groups that run A*.
+ * The tree uses the weighting of the <code>AStar</code> the factory makes,
+ * and keeps only its k best routes if the A* routes the top k taxis. With
+ * a time dependent weighting there is no tree (it is searched backwards,
+ * so the time an edge is entered is not known) and every group runs A*.
+ * @param <T> The type of the locations of the graph.
+ * @see DispatchServer
+ */
+public class BatchSolver<T extends CostObject<T>> {
+
+    private final Graph<T>                  graph;
+    private final String                    arg;
+    private final long                      window;
+    private final int                       maxGroup;
+    private final int                       minShared;
+    private final Executor                  executor;
+    private final Weighting<T>              weighting;
+    private final int                       topK;
+    private final Map<Integer, Group<T>>    open = new HashMap<>();
+    private final ThreadLocal<AStar<T>>     astars;
+    private long                            requests;
+    private long                            groups;
+    private long                            shared;
+
+    /**
+     * Typical constructor.
+     * @param graph The graph with the taxis.
+     * @param astars Makes the <code>AStar</code> of a search thread, with the settings of the searches.
+     * @param arg The capacity of the openSet of the A* (see <code>AStar.solve</code>).
+     * @param window How long a group stays open, in milliseconds.
+     * @param maxGroup How many requests close a group before its window ends.
+     * @param minShared How many requests a group needs to share one tree.
+     * @param executor Where the searches run.
+     */
+    public BatchSolver(Graph<T> graph, Supplier<AStar<T>> astars, String arg, long window, int maxGroup, int minShared,
+                       Executor executor) {
+        if (window < 0 || maxGroup < 1 || minShared < 1)
+            throw (new IllegalArgumentException("Batch settings must be positive."));
+        this.graph = graph;
+        this.arg = arg;
+        this.window = window;
+        this.maxGroup = maxGroup;
+        this.minShared = minShared;
+        this.executor = executor;
+        AStar<T> settings = astars.get();
+        weighting = settings.getWeighting();
+        topK = settings.getTopK();
+        this.astars = ThreadLocal.withInitial(astars);
+    }
+
+    /**
+     * Finds the routes of all the taxis to a client,
+     * together with the other requests for the same vertex.
+     * Blocks until the group of the request is searched.
+     * @param client The location of the client.
+     * @param query The limits of the search (null for none).
+     * @return A <code>TreeMap</code> with <code>Vertex</code> as key and its <code>Route</code> as value.
+     * @throws InterruptedException If the wait is interrupted.
+     * @throws RejectedExecutionException If the executor has no room for the group.
+     */
+    public Map<Graph.Vertex<T>, Route<T>> solve(T client, Query query) throws InterruptedException {
+        if (query == null)
+            query = new Query();
+        int target = graph.findVertex(graph.snap(client)).getIndex();
+        Group<T> group;
+        int slot;
+        boolean first;
+        synchronized (open) {
+            requests++;
+            group = open.get(target);
+            first = (group == null);
+            if (first) {
+                group = new Group<>(target);
+                open.put(target, group);
+            }
+            slot = group.clients.size();
+            group.clients.add(client);
+            group.queries.add(query);
+            if (group.clients.size() >= maxGroup) {
+                open.remove(target);
+                open.notifyAll();
+            }
+        }
+
+        if (first) {
+            close(group);
+            try {
+                final Group<T> closed = group;
+                executor.execute(() -> search(closed));
+            } catch (RejectedExecutionException e) {
+                group.rejected = e;
+                group.done.countDown();
+            }
+        }
+
+        group.done.await();
+        if (group.rejected != null)
+            throw group.rejected;
+        if (group.failure != null)
+            throw (new IllegalStateException("Search failed", group.failure));
+        Map<Graph.Vertex<T>, Route<T>> result;
+        if (group.tree != null) {
+            result = fromTree(group.tree);
+            query.finish();
+        } else {
+            result = group.results.get(slot);
+        }
+        return result;
+    }
+
+    /**
+     *
+     * @return The counters of the batching in one line.
+     */
+    @Override
+    public String toString() {
+        synchronized (open) {
+            return "requests=" + requests + " groups=" + groups + " shared=" + shared;
+        }
+    }
+
+    /**
+     * Waits until the window of a group ends or the group fills up.
+     */
+    private void close(Group<T> group) throws InterruptedException {
+        long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(window);
+        synchronized (open) {
+            long left;
+            while (open.get(group.target) == group && (left = until - System.nanoTime()) > 0)
+                TimeUnit.NANOSECONDS.timedWait(open, left);
+            if (open.get(group.target) == group)
+                open.remove(group.target);
+            groups++;
+            if (group.clients.size() >= minShared && !weighting.isTimeDependent())
+                shared++;
+        }
+    }
+
+    /**
+     * Runs on the executor. After the group is closed
+     * nobody else changes it, so it needs no lock.
+     */
+    private void search(Group<T> group) {
+        try {
+            if (group.clients.size() >= minShared && !weighting.isTimeDependent()) {
+                group.tree = ShortestPathTree.build(graph, group.target, weighting, sources());
+            } else {
+                AStar<T> astar = astars.get();
+                for (int i = 0; i < group.clients.size(); i++)
+                    group.results.add(byCost(astar.solve(graph, arg, group.clients.get(i), group.queries.get(i))));
+            }
+        } catch (RuntimeException e) {
+            group.failure = e;
+        } finally {
+            group.done.countDown();
+        }
+    }
+
+    /**
+     * The vertices of the taxis, where the tree can stop.
+     */
+    private int[] sources() {
+        int[] sources = new int[graph.getTaxis().size()];
+        int i = 0;
+        for (Graph.Vertex<T> taxi : graph.getTaxis())
+            sources[i++] = graph.findVertex(taxi.getLocation()).getIndex();
+        return sources;
+    }
+
+    private Map<Graph.Vertex<T>, Route<T>> fromTree(ShortestPathTree<T> tree) {
+        Map<Graph.Vertex<T>, Route<T>> routes = new LinkedHashMap<>();
+        for (Graph.Vertex<T> taxi : graph.getTaxis()) {
+            Route<T> route = tree.route(graph.findVertex(taxi.getLocation()).getIndex());
+            if (route != null)
+                routes.put(taxi, route);
+        }
+        Map<Graph.Vertex<T>, Route<T>> result = byCost(routes);
+        if (topK > 0) {
+            Iterator<Route<T>> sorted = result.values().iterator();
+            for (int i = 0; sorted.hasNext(); i++) {
+                sorted.next();
+                if (i >= topK)
+                    sorted.remove();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Copies routes into a map ordered by cost that does not
+     * depend on the state of an <code>AStar</code>. As in
+     * <code>AStar.solve</code>, equal costs keep the order
+     * they were put in.
+     */
+    private static <T extends CostObject<T>> Map<Graph.Vertex<T>, Route<T>> byCost(Map<Graph.Vertex<T>, Route<T>> routes) {
+        final Map<Graph.Vertex<T>, Double> costs = new IdentityHashMap<>();
+        for (Map.Entry<Graph.Vertex<T>, Route<T>> entry : routes.entrySet())
+            costs.put(entry.getKey(), entry.getValue().getCost());
+        Map<Graph.Vertex<T>, Route<T>> result = new TreeMap<>(new Comparator<Graph.Vertex<T>>() {
+            @Override
+            public int compare(Graph.Vertex<T> t1, Graph.Vertex<T> t2) {
+                if (costs.get(t1) < costs.get(t2))
+                    return -1;
+                return 1;
+            }
+        });
+        for (Map.Entry<Graph.Vertex<T>, Route<T>> entry : routes.entrySet())
+            result.put(entry.getKey(), entry.getValue());
+        return result;
+    }
+
+    /**
+     * The requests for one vertex that are searched together.
+     */
+    private static class Group<T extends CostObject<T>> {
+
+        private final int                                   target;
+        private final List<T>                               clients = new ArrayList<>();
+        private final List<Query>                           queries = new ArrayList<>();
+        private final List<Map<Graph.Vertex<T>, Route<T>>>  results = new ArrayList<>();
+        private final CountDownLatch                        done = new CountDownLatch(1);
+        private ShortestPathTree<T>                         tree;
+        private RejectedExecutionException                  rejected;
+        private RuntimeException                            failure;
+
+        Group(int target) {
+            this.target = target;
+        }
+
+    }
+
+}
@@ -0,0 +1,137 @@
+/**
+ * The connected components of a <code>Graph</code>.
+ * Every road of the graph can be driven both ways, so
+ * the strongly and the weakly connected components are the
+ * same, and a union-find over the edges is enough to find them.
+ * The union-find uses path halving and union by size, and
+ * has no recursion, so it works for any size of graph.
+ * </br>
+ * Components are numbered from 0 by order of their first vertex.
+ * The main component is the one with the most vertices.
+ */
+public class ConnectedComponents {
+
+    private final int[] component;
+    private final int[] sizes;
+    private final int   main;
+
+    private ConnectedComponents(int[] component, int[] sizes, int main) {
+        this.component = component;
+        this.sizes = sizes;
+        this.main = main;
+    }
+
+    /**
+     * Finds the components of a graph.
+     * @param graph The graph.
+     * @param <T> The type of the object the graph contains.
+     * @return The components.
+     */
+    public static <T extends CostObject<T>> ConnectedComponents of(Graph<T> graph) {
+        int n = graph.getVertexCount();
+        int[] parent = new int[n];
+        int[] size = new int[n];
+        for (int v = 0; v < n; v++) {
+            parent[v] = v;
+            size[v] = 1;
+        }
+
+        for (int v = 0; v < n; v++) {
+            for (Graph.Edge<T> edge : graph.edgesOf(graph.getVertex(v))) {
+                int a = find(parent, v);
+                int b = find(parent, edge.getTo().getIndex());
+                if (a == b)
+                    continue;
+                if (size[a] < size[b]) {
+                    int swap = a;
+                    a = b;
+                    b = swap;
+                }
+                parent[b] = a;
+                size[a] += size[b];
+            }
+        }
+
+        /**
+         * Give the roots consecutive numbers.
+         */
+        int[] number = new int[n];
+        int count = 0;
+        for (int v = 0; v < n; v++) {
+            if (find(parent, v) == v)
+                number[v] = count++;
+        }
+        int[] component = new int[n];
+        int[] sizes = new int[count];
+        int main = 0;
+        for (int v = 0; v < n; v++) {
+            component[v] = number[find(parent, v)];
+            sizes[component[v]]++;
+        }
+        for (int c = 1; c < count; c++) {
+            if (sizes[c] > sizes[main])
+                main = c;
+        }
+        return (new ConnectedComponents(component, sizes, main));
+    }
+
+    private static int find(int[] parent, int v) {
+        while (parent[v] != v) {
+            parent[v] = parent[parent[v]];
+            v = parent[v];
+        }
+        return v;
+    }
+
+    /**
+     *
+     * @param index The index of a vertex.
+     * @return The component of the vertex.
+     */
+    public int getComponent(int index) {
+        return component[index];
+    }
+
+    /**
+     *
+     * @return The main (largest) component.
+     */
+    public int getMain() {
+        return main;
+    }
+
+    /**
+     *
+     * @param index The index of a vertex.
+     * @return true iff the vertex is in the main component.
+     */
+    public boolean isMain(int index) {
+        return component[index] == main;
+    }
+
+    /**
+     *
+     * @return The number of components.
+     */
+    public int getCount() {
+        return sizes.length;
+    }
+
+    /**
+     *
+     * @param c A component.
+     * @return The number of vertices in it.
+     */
+    public int getSize(int c) {
+        return sizes[c];
+    }
+
+    /**
+     *
+     * @return The bytes taken by the components.
+     */
+    public long memory() {
+        return MemoryReport.shallow(ConnectedComponents.class) + MemoryReport.array(component.length, 4) + MemoryReport.array(sizes.length, 4);
+    }
+
+}
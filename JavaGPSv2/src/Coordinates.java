@@ -1,17 +1,27 @@
 /**
  * A class for a point's location on the map.
+ * The longitude and latitude are kept as whole numbers of
+ * 1e-7 degrees (about 1 cm), so two rows of the nodes file
+ * that give the same place with slightly different digits
+ * are the same point, and equal points have one exact
+ * <code>key</code> that needs no hashing of doubles.
  */
 public class Coordinates implements CostObject<Coordinates> {
 
-    private double x;
-    private double y;
+    /**
+     * Fixed point units per degree.
+     */
+    private static final double SCALE = 1e7;
+
+    private final int   x;
+    private final int   y;
 
     /**
      * Generic class constructor.
      */
     public Coordinates() {
-        x = Double.MAX_VALUE;
-        y = Double.MIN_VALUE;
+        x = Integer.MAX_VALUE;
+        y = Integer.MIN_VALUE;
     }
 
     /**
@@ -20,8 +30,34 @@ public class Coordinates implements CostObject<Coordinates> {
      * @param y The latitude.
      */
     public Coordinates(double x, double y) {
-        this.x = x;
-        this.y = y;
+        this.x = (int) Math.round(x * SCALE);
+        this.y = (int) Math.round(y * SCALE);
+    }
+
+    /**
+     *
+     * @return The longitude.
+     */
+    public double getX() {
+        return (x / SCALE);
+    }
+
+    /**
+     *
+     * @return The latitude.
+     */
+    public double getY() {
+        return (y / SCALE);
+    }
+
+    /**
+     * The longitude and latitude packed in one long.
+     * Two coordinates are equal iff their keys are equal.
+     * @return The key.
+     */
+    @Override
+    public long key() {
+        return (((long) x << 32) | (y & 0xFFFFFFFFL));
     }
 
     /**
@@ -44,7 +80,12 @@ public class Coordinates implements CostObject<Coordinates> {
      */
     @Override
     public Coordinates create(Coordinates other) {
-        return (new Coordinates(other.x, other.y));
+        return (new Coordinates(other));
+    }
+
+    private Coordinates(Coordinates other) {
+        this.x = other.x;
+        this.y = other.y;
     }
 
     /**
@@ -53,18 +94,18 @@ public class Coordinates implements CostObject<Coordinates> {
      * @return The distance in KiloMetres.
      */
     @Override
-    public Double distance(Coordinates other) {
-        Double r = 6371.0;
-        Double dLat = degreesToRadians(this.y - other.y);
-        Double dLon = degreesToRadians(this.x - other.x);
-        Double lat1 = degreesToRadians(this.y);
-        Double lat2 = degreesToRadians(other.y);
-        Double a = Math.sin(dLat / 2) * Math.sin(dLat / 2) + Math.sin(dLon / 2) * Math.sin(dLon / 2) * Math.cos(lat1) * Math.cos(lat2);
-        Double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+    public double distance(Coordinates other) {
+        double r = 6371.0;
+        double dLat = degreesToRadians(this.getY() - other.getY());
+        double dLon = degreesToRadians(this.getX() - other.getX());
+        double lat1 = degreesToRadians(this.getY());
+        double lat2 = degreesToRadians(other.getY());
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2) + Math.sin(dLon / 2) * Math.sin(dLon / 2) * Math.cos(lat1) * Math.cos(lat2);
+        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
         return (r * c);
     }
 
-    private Double degreesToRadians(double degrees) {
+    private static double degreesToRadians(double degrees) {
         return (degrees * Math.PI / 180);
     }
 
@@ -92,7 +133,7 @@ public class Coordinates implements CostObject<Coordinates> {
      */
     @Override
     public int hashCode() {
-        return (Double.valueOf(x).hashCode() * 31 + Double.valueOf(y).hashCode());
+        return (x * 31 + y);
     }
 
     /**
@@ -102,7 +143,7 @@ public class Coordinates implements CostObject<Coordinates> {
      */
     @Override
     public String toString() {
-        return (x + ", " + y);
+        return (getX() + ", " + getY());
     }
 
 }
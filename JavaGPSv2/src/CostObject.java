@@ -4,6 +4,12 @@ public interface CostObject<T> {
 
     public T create(T other);
 
-    public Double distance(T other);
+    public double distance(T other);
+
+    public double getX();
+
+    public double getY();
+
+    public long key();
 
 }
@@ -0,0 +1,506 @@
+import java.io.*;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Serves taxi requests over a local socket.
+ * A client sends one request per line and gets the answer
+ * back on the same connection:
+ * <ul>
+ *     <li><code>X,Y</code> finds the routes of all taxis to a client at X,Y.
+ *     The answer is one <code>taxiId,distance</code> line per taxi, best
+ *     first, followed by <code>END</code> and the status of the query
+ *     (see <code>Query.Status</code>).</li>
+ *     <li><code>STATS</code> answers with the counters of the server.</li>
+ *     <li><code>MEMORY</code> answers with the <code>MemoryReport</code> of the graph
+ *     and the search contexts and the state of the heap, followed by <code>END</code>.</li>
+ * </ul>
+ * With a <code>GraphEditor</code> the graph can be edited while it is served,
+ * and every edit answers with <code>OK</code> and the new version of the graph:
+ * <ul>
+ *     <li><code>CLOSE X1,Y1 X2,Y2</code> closes the road between two vertices.</li>
+ *     <li><code>OPEN X1,Y1 X2,Y2</code> opens it again.</li>
+ *     <li><code>MOVE X1,Y1 X2,Y2</code> moves the node at X1,Y1 to X2,Y2.</li>
+ *     <li><code>WAY ID X1,Y1 X2,Y2 ...</code> adds a way through the points.</li>
+ *     <li><code>COMPACT</code> hands a compaction of the edits to the background
+ *     compactor and answers at once with the current version,
+ *     which a compaction keeps.</li>
+ * </ul>
+ * A request that cannot be served gets a single line instead:
+ * <code>BUSY</code> when the server is saturated and
+ * <code>ERROR</code> with a message when the request is malformed.
+ * </br>
+ * The work of a request is split in two:
+ * <ul>
+ *     <li>Reading the request and writing the answer run on an I/O thread
+ *     per connection. These threads are virtual when the JVM has them
+ *     (Java 21 and later) and plain daemon threads otherwise. They
+ *     spend their time blocked, so there can be many of them.</li>
+ *     <li>The A* runs on a fixed pool of platform threads, one per core by
+ *     default, behind a bounded queue. When the queue is full the
+ *     request is rejected at once with <code>BUSY</code> instead of
+ *     waiting, so under overload the latency of the requests that are
+ *     accepted stays the same and only the excess is shed.</li>
+ * </ul>
+ * The deadline of a request starts when it is admitted, so the time
+ * it waits in the queue counts against it: a request that waited
+ * too long stops before it searches anything and answers with what
+ * it has (nothing) and <code>END DEADLINE</code>.
+ * </br>
+ * Every search thread has its own <code>AStar</code>, made by the factory
+ * given to the constructor, so they all search with the same settings
+ * (weighting, epsilon, anytime, top k). The graph is
+ * only read by the searches and is shared by all of them. An edit
+ * runs on the I/O thread of its connection and never stops a search:
+ * a search keeps the version of the graph it started with.
+ * </br>
+ * With a <code>RouteCache</code> all the search threads share one cache
+ * of routes, and its counters are part of <code>STATS</code>.
+ * </br>
+ * With a <code>RequestLog.Recorder</code> every well formed request
+ * is recorded when it arrives, also the ones that get <code>BUSY</code>,
+ * so a replay offers the same load as the real traffic.
+ * @param <T> The type of the locations of the graph.
+ * @see Query
+ */
+public class DispatchServer<T extends CostObject<T>> {
+
+    /**
+     * How many connections can be open at once.
+     * Connections over the limit get <code>BUSY</code> and are closed.
+     */
+    public static final int     MAX_CONNECTIONS = 1024;
+
+    private final Graph<T>              graph;
+    private final T                     generic;
+    private final String                arg;
+    private final long                  timeout;
+    private final ThreadPoolExecutor    searches;
+    private final ExecutorService       connections;
+    private final Semaphore             open;
+    private final Supplier<AStar<T>>    factory;
+    private final ThreadLocal<AStar<T>> astars;
+    private final List<AStar<T>>        contexts = new CopyOnWriteArrayList<>();
+    private final AtomicLong            accepted = new AtomicLong();
+    private final AtomicLong            rejected = new AtomicLong();
+    private final AtomicLong            completed = new AtomicLong();
+    private final AtomicLong            partial = new AtomicLong();
+    private final AtomicLong            failed = new AtomicLong();
+    private BatchSolver<T>              batches;
+    private RouteCache<T>               cache;
+    private RequestLog.Recorder         recorder;
+    private GraphEditor<T>              editor;
+    private volatile boolean            running;
+    private ServerSocket                server;
+    private Thread                      acceptor;
+
+    /**
+     * Constructor for plain A* searches.
+     * @param graph The graph with the taxis.
+     * @param generic Any location, used to create the locations of the requests.
+     * @param arg The capacity of the openSet (see <code>AStar.solve</code>).
+     * @param threads The number of search threads (0 for one per core).
+     * @param queue How many requests can wait for a search thread.
+     * @param timeout The deadline of a request in milliseconds (0 for none).
+     */
+    public DispatchServer(Graph<T> graph, T generic, String arg, int threads, int queue, long timeout) {
+        this(graph, generic, AStar::new, arg, threads, queue, timeout);
+    }
+
+    /**
+     * Typical constructor.
+     * @param graph The graph with the taxis.
+     * @param generic Any location, used to create the locations of the requests.
+     * @param astars Makes the <code>AStar</code> of a search thread, with the settings of the searches.
+     * @param arg The capacity of the openSet (see <code>AStar.solve</code>).
+     * @param threads The number of search threads (0 for one per core).
+     * @param queue How many requests can wait for a search thread.
+     * @param timeout The deadline of a request in milliseconds (0 for none).
+     */
+    public DispatchServer(Graph<T> graph, T generic, Supplier<AStar<T>> astars, String arg, int threads, int queue,
+                          long timeout) {
+        if (threads <= 0)
+            threads = Runtime.getRuntime().availableProcessors();
+        if (queue < 1)
+            throw (new IllegalArgumentException("The queue must hold at least 1 request."));
+        this.graph = graph;
+        this.generic = generic;
+        this.factory = astars;
+        this.arg = arg;
+        this.timeout = timeout;
+        searches = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queue), daemons("search"), new ThreadPoolExecutor.AbortPolicy());
+        connections = ioExecutor();
+        open = new Semaphore(MAX_CONNECTIONS);
+        this.astars = new ThreadLocal<AStar<T>>() {
+            @Override
+            protected AStar<T> initialValue() {
+                AStar<T> astar = newAStar();
+                contexts.add(astar);
+                return astar;
+            }
+        };
+    }
+
+    /**
+     * Groups the requests for the same client vertex that arrive
+     * within a window, so that each group is searched once
+     * (see <code>BatchSolver</code>). Must be called before <code>start</code>.
+     * @param window How long a group stays open, in milliseconds.
+     * @param maxGroup How many requests close a group before its window ends.
+     * @param minShared How many requests a group needs to share one tree.
+     */
+    public void setBatching(long window, int maxGroup, int minShared) {
+        if (editor != null)
+            throw (new IllegalStateException("An edited graph can not be batched."));
+        batches = new BatchSolver<>(graph, this::newAStar, arg, window, maxGroup, minShared, searches);
+    }
+
+    /**
+     * Shares one cache of routes between all the searches.
+     * Must be called before <code>start</code>.
+     * @param cache The cache.
+     */
+    public void setCache(RouteCache<T> cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Records the requests to a log (see <code>Replay</code>).
+     * Must be called before <code>start</code>.
+     * @param recorder The recorder of the log.
+     */
+    public void setRecorder(RequestLog.Recorder recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * Serves the graph of an editor and accepts edits.
+     * Batching keeps its own graph, so the two do not go together.
+     * Must be called before <code>start</code>.
+     * @param editor The editor of the graph given to the constructor.
+     */
+    public void setEditor(GraphEditor<T> editor) {
+        if (batches != null)
+            throw (new IllegalStateException("An edited graph can not be batched."));
+        this.editor = editor;
+    }
+
+    /**
+     * Starts listening.
+     * @param port The port (on the loopback address, 0 for any free port).
+     * @throws IOException If the port cannot be opened.
+     */
+    public void start(int port) throws IOException {
+        server = new ServerSocket(port, 128, InetAddress.getLoopbackAddress());
+        running = true;
+        acceptor = new Thread(this::accept, "dispatch-accept");
+        acceptor.start();
+    }
+
+    /**
+     * Stops listening, drops the requests still waiting
+     * and lets the searches running finish.
+     */
+    public void stop() {
+        running = false;
+        try {
+            server.close();
+        } catch (IOException e) {
+            System.out.println("Could not close dispatch socket");
+        }
+        searches.shutdownNow();
+        connections.shutdownNow();
+    }
+
+    /**
+     * Waits until the server stops.
+     * @throws InterruptedException If the wait is interrupted.
+     */
+    public void join() throws InterruptedException {
+        acceptor.join();
+    }
+
+    /**
+     *
+     * @return The port the server listens on.
+     */
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     *
+     * @return The counters of the server in one line.
+     */
+    public String stats() {
+        return "accepted=" + accepted.get() + " rejected=" + rejected.get() + " completed=" + completed.get()
+                + " partial=" + partial.get() + " failed=" + failed.get() + " queued=" + searches.getQueue().size()
+                + " active=" + searches.getActiveCount() + " connections=" + (MAX_CONNECTIONS - open.availablePermits())
+                + " heap=" + (Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) / 1048576 + "MB"
+                + ((batches == null) ? "" : " " + batches)
+                + ((cache == null) ? "" : " cached=" + cache.size() + " hits=" + cache.getHits() + " misses="
+                        + cache.getMisses() + " evictions=" + cache.getEvictions())
+                + ((recorder == null) ? "" : " recorded=" + recorder.getCount())
+                + ((editor == null) ? "" : " version=" + editor.current().getVersion() + " edits=" + editor.getEdits()
+                        + " pending=" + editor.getPending() + " compactions=" + editor.getCompactions());
+    }
+
+    /**
+     * The memory of the graph and of every search thread, as
+     * last seen by this thread: a search may be running meanwhile.
+     * @return The reports and the state of the heap.
+     */
+    public String memory() {
+        Graph<T> graph = graph();
+        MemoryReport searches = new MemoryReport("Search contexts");
+        int i = 0;
+        for (AStar<T> astar : contexts)
+            searches.add("thread " + (++i), graph.getVertexCount(), "vertices", astar.memoryReport().getTotal(), "layout");
+        return graph.memoryReport() + "\n" + searches + "\n" + MemoryReport.jvm();
+    }
+
+    /**
+     * Makes the <code>AStar</code> of a search thread.
+     * @return The search, with the cache of the server.
+     */
+    private AStar<T> newAStar() {
+        AStar<T> astar = factory.get();
+        if (cache != null)
+            astar.setCache(cache);
+        return astar;
+    }
+
+    private void accept() {
+        while (running) {
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                if (running)
+                    System.out.println("Dispatch accept error: " + e.getMessage());
+                continue;
+            }
+            if (!open.tryAcquire()) {
+                rejected.incrementAndGet();
+                refuse(socket);
+                continue;
+            }
+            try {
+                connections.execute(() -> serve(socket));
+            } catch (RejectedExecutionException e) {
+                open.release();
+                refuse(socket);
+            }
+        }
+    }
+
+    /**
+     * The loop of one connection, on its I/O thread.
+     */
+    private void serve(Socket socket) {
+        try (Socket s = socket;
+             BufferedReader br = new BufferedReader(new InputStreamReader(s.getInputStream()));
+             PrintWriter writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(s.getOutputStream())))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty())
+                    continue;
+                writer.print(answer(line));
+                writer.flush();
+            }
+        } catch (IOException e) {
+            if (running)
+                System.out.println("Dispatch connection error: " + e.getMessage());
+        } finally {
+            open.release();
+        }
+    }
+
+    private String answer(String line) {
+        if (line.equalsIgnoreCase("STATS"))
+            return stats() + "\n";
+        if (line.equalsIgnoreCase("MEMORY"))
+            return memory() + "END\n";
+        if (Character.isLetter(line.charAt(0)))
+            return edit(line.split("\\s+"));
+        T client;
+        try {
+            String[] parts = line.split(",");
+            if (parts.length < 2)
+                return "ERROR expected X,Y\n";
+            client = generic.create(Double.parseDouble(parts[0].trim()), Double.parseDouble(parts[1].trim()));
+        } catch (NumberFormatException e) {
+            return "ERROR " + e.getMessage() + "\n";
+        }
+        if (recorder != null)
+            recorder.record(client);
+        Query query = new Query(timeout, 0);
+        if (batches != null)
+            return batched(client, query);
+        Future<String> result;
+        try {
+            result = searches.submit(() -> search(client, query));
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            return "BUSY\n";
+        }
+        accepted.incrementAndGet();
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            query.cancel();
+            Thread.currentThread().interrupt();
+            return "ERROR interrupted\n";
+        } catch (ExecutionException e) {
+            failed.incrementAndGet();
+            return "ERROR " + e.getCause() + "\n";
+        }
+    }
+
+    /**
+     * Runs on a search thread. The answer is written here,
+     * while the results are still ordered by this thread's A*.
+     */
+    private String search(T client, Query query) {
+        return format(astars.get().solve(graph(), arg, client, query), query);
+    }
+
+    /**
+     * The graph a search starts with.
+     */
+    private Graph<T> graph() {
+        return (editor == null) ? graph : editor.current();
+    }
+
+    /**
+     * Runs an edit on the I/O thread. Compactions copy the whole
+     * graph, so they run on the thread of the compactor instead.
+     */
+    private String edit(String[] words) {
+        if (editor == null)
+            return "ERROR the graph can not be edited\n";
+        String command = words[0].toUpperCase();
+        try {
+            long version;
+            switch (command) {
+                case "COMPACT":
+                    editor.compactNow();
+                    version = editor.current().getVersion();
+                    break;
+                case "CLOSE":
+                case "OPEN":
+                case "MOVE":
+                    if (words.length != 3)
+                        return "ERROR expected " + command + " X1,Y1 X2,Y2\n";
+                    T a = location(words[1]), b = location(words[2]);
+                    if (command.equals("CLOSE"))
+                        version = editor.closeRoad(a, b);
+                    else if (command.equals("OPEN"))
+                        version = editor.reopenRoad(a, b);
+                    else
+                        version = editor.moveNode(a, b);
+                    break;
+                case "WAY":
+                    if (words.length < 4)
+                        return "ERROR expected WAY ID X1,Y1 X2,Y2 ...\n";
+                    List<T> points = new ArrayList<>();
+                    for (int i = 2; i < words.length; i++)
+                        points.add(location(words[i]));
+                    version = editor.addWay(points, Integer.parseInt(words[1]));
+                    break;
+                default:
+                    return "ERROR unknown command " + words[0] + "\n";
+            }
+            return "OK " + version + "\n";
+        } catch (IllegalArgumentException e) {
+            /** Also the NumberFormatException of a malformed location. */
+            return "ERROR " + e.getMessage() + "\n";
+        }
+    }
+
+    private T location(String word) {
+        String[] parts = word.split(",");
+        if (parts.length != 2)
+            throw (new IllegalArgumentException("expected X,Y, got " + word));
+        return generic.create(Double.parseDouble(parts[0].trim()), Double.parseDouble(parts[1].trim()));
+    }
+
+    /**
+     * Runs on the I/O thread: the request waits there for its
+     * group, and only the search of the group takes a search thread.
+     */
+    private String batched(T client, Query query) {
+        Map<Graph.Vertex<T>, Route<T>> results;
+        try {
+            results = batches.solve(client, query);
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            return "BUSY\n";
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "ERROR interrupted\n";
+        } catch (IllegalStateException e) {
+            failed.incrementAndGet();
+            return "ERROR " + e.getCause() + "\n";
+        }
+        accepted.incrementAndGet();
+        return format(results, query);
+    }
+
+    private String format(Map<Graph.Vertex<T>, Route<T>> results, Query query) {
+        StringBuilder answer = new StringBuilder();
+        for (Map.Entry<Graph.Vertex<T>, Route<T>> entry : results.entrySet())
+            answer.append(entry.getKey().getId()).append(',').append(entry.getValue().getCost()).append('\n');
+        answer.append("END ").append(query.getStatus()).append('\n');
+        if (query.isPartial())
+            partial.incrementAndGet();
+        else
+            completed.incrementAndGet();
+        return answer.toString();
+    }
+
+    private static void refuse(Socket socket) {
+        try (Socket s = socket;
+             PrintWriter writer = new PrintWriter(s.getOutputStream())) {
+            writer.println("BUSY");
+        } catch (IOException e) {
+            /** The client is gone anyway. */
+        }
+    }
+
+    /**
+     * An executor with one virtual thread per task if the JVM has
+     * virtual threads, else a cached pool of daemon threads.
+     * It is looked up by reflection so that the code still
+     * compiles and runs on Java 8.
+     */
+    private static ExecutorService ioExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(daemons("dispatch-io"));
+        }
+    }
+
+    private static ThreadFactory daemons(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+}
@@ -0,0 +1,191 @@
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * A cache of <code>ShortestPathTree</code>s for popular clients.
+ * Every request for a target vertex counts towards its popularity.
+ * Once a target has been asked for often enough it gets its own
+ * tree, and from then on the distance of every taxi to it is an
+ * array read instead of an A* search.
+ * <ul>
+ *     <li>Only a fixed number of trees is kept; a new hot target takes
+ *     the place of the least popular tree only if it is more popular.</li>
+ *     <li>Trees are not refreshed when the graph changes, but the next
+ *     time they are asked for (if the version of the graph is different).</li>
+ *     <li>Popularity is halved every so many requests, so targets that
+ *     were hot a while ago slowly cool down.</li>
+ * </ul>
+ * @param <T> The type of the object the graph contains.
+ * @see ShortestPathTree
+ */
+public class DistanceTreeCache<T extends CostObject<T>> {
+
+    private final int                               maxTrees;
+    private final int                               hotThreshold;
+    private final int                               decayInterval;
+    private final Map<Integer, Integer>             popularity;
+    private final Map<Integer, ShortestPathTree<T>> trees;
+    private int                                     requests;
+    private long                                    hits;
+    private long                                    builds;
+    private long                                    evictions;
+
+    /**
+     * Typical constructor.
+     * @param maxTrees The maximum number of trees kept.
+     * @param hotThreshold How many requests make a target hot.
+     * @param decayInterval Every how many requests popularity is halved.
+     */
+    public DistanceTreeCache(int maxTrees, int hotThreshold, int decayInterval) {
+        if (maxTrees < 1 || hotThreshold < 1 || decayInterval < 1)
+            throw (new IllegalArgumentException("Tree cache settings must be positive."));
+        this.maxTrees = maxTrees;
+        this.hotThreshold = hotThreshold;
+        this.decayInterval = decayInterval;
+        popularity = new HashMap<>();
+        trees = new HashMap<>();
+    }
+
+    /**
+     * Records a request for a target and returns its tree
+     * if the target is hot. The tree is built (or rebuilt
+     * if the graph changed) outside of the lock, so other
+     * requests are not held up meanwhile.
+     * @param graph The graph.
+     * @param target The index of the target vertex.
+     * @param weighting The weighting of the edges (not time dependent).
+     * @return The up to date tree or null if the target is not hot.
+     */
+    public ShortestPathTree<T> get(Graph<T> graph, int target, Weighting<T> weighting) {
+        int count;
+        synchronized (this) {
+            count = touch(target);
+            ShortestPathTree<T> tree = trees.get(target);
+            if (tree != null && tree.getVersion() == graph.getVersion()) {
+                hits++;
+                return tree;
+            }
+            if (tree == null && (count < hotThreshold || !hasRoomFor(count)))
+                return null;
+        }
+
+        ShortestPathTree<T> tree = ShortestPathTree.build(graph, target, weighting);
+
+        synchronized (this) {
+            builds++;
+            if (trees.containsKey(target) || makeRoom(count))
+                trees.put(target, tree);
+        }
+        return tree;
+    }
+
+    /**
+     * Drops all trees and popularity counts.
+     */
+    public synchronized void clear() {
+        trees.clear();
+        popularity.clear();
+        requests = 0;
+    }
+
+    /**
+     *
+     * @return The number of trees kept.
+     */
+    public synchronized int size() {
+        return trees.size();
+    }
+
+    /**
+     *
+     * @return The number of requests answered by an up to date tree.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     *
+     * @return The number of trees built or rebuilt.
+     */
+    public synchronized long getBuilds() {
+        return builds;
+    }
+
+    /**
+     *
+     * @return The number of trees dropped for more popular ones.
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Used to print the metrics.
+     * @return String as "hits, builds, evictions, size".
+     */
+    @Override
+    public synchronized String toString() {
+        return (hits + ", " + builds + ", " + evictions + ", " + trees.size());
+    }
+
+    /**
+     * Counts a request and decays popularity if it is time.
+     * @param target The index of the target vertex.
+     * @return The popularity of the target.
+     */
+    private int touch(int target) {
+        Integer old = popularity.get(target);
+        int count = (old == null) ? 1 : old + 1;
+        popularity.put(target, count);
+        if (++requests >= decayInterval) {
+            requests = 0;
+            Iterator<Map.Entry<Integer, Integer>> it = popularity.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Integer, Integer> entry = it.next();
+                int halved = entry.getValue() / 2;
+                if (halved == 0 && !trees.containsKey(entry.getKey()))
+                    it.remove();
+                else
+                    entry.setValue(halved);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Finds the kept tree with the least popular target.
+     * @return Its target or -1 if there are no trees.
+     */
+    private int coldest() {
+        int coldest = -1, min = Integer.MAX_VALUE;
+        for (Integer target : trees.keySet()) {
+            Integer count = popularity.get(target);
+            int c = (count == null) ? 0 : count;
+            if (c < min) {
+                min = c;
+                coldest = target;
+            }
+        }
+        return coldest;
+    }
+
+    private boolean hasRoomFor(int count) {
+        if (trees.size() < maxTrees)
+            return true;
+        Integer cold = popularity.get(coldest());
+        return (cold == null || cold < count);
+    }
+
+    private boolean makeRoom(int count) {
+        if (!hasRoomFor(count))
+            return false;
+        if (trees.size() >= maxTrees) {
+            trees.remove(coldest());
+            evictions++;
+        }
+        return true;
+    }
+
+}
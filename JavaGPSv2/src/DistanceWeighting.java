@@ -0,0 +1,59 @@
+/**
+ * The default weighting.
+ * The cost of an edge is its length in kilometres,
+ * so the A* finds the shortest route.
+ * @param <T> The type of the object the graph contains.
+ */
+public class DistanceWeighting<T extends CostObject<T>> implements Weighting<T> {
+
+    /**
+     *
+     * @param edge The edge.
+     * @param time Not used.
+     * @return The length of the edge.
+     */
+    @Override
+    public double cost(Graph.Edge<T> edge, double time) {
+        return edge.cost();
+    }
+
+    /**
+     *
+     * @param distance The straight line distance in kilometres.
+     * @return The distance itself.
+     */
+    @Override
+    public double heuristic(double distance) {
+        return distance;
+    }
+
+    /**
+     *
+     * @return false.
+     */
+    @Override
+    public boolean isTimeDependent() {
+        return false;
+    }
+
+    /**
+     * All distance weightings weigh the same, so the
+     * searches that use any of them can share a cache.
+     * @param o The other object.
+     * @return true iff it is a distance weighting too.
+     */
+    @Override
+    public boolean equals(Object o) {
+        return (o != null && o.getClass() == DistanceWeighting.class);
+    }
+
+    /**
+     *
+     * @return The same for all of them.
+     */
+    @Override
+    public int hashCode() {
+        return DistanceWeighting.class.hashCode();
+    }
+
+}
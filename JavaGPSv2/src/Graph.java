@@ -10,7 +10,7 @@ import java.util.*;
  * as the taxis and the client.
  * Classes used:
  * <ul>
- *     <li>HashMap</li>
+ *     <li>LongIntHashMap</li>
  *     <li>ArrayList</li>
  *     <li>T (generic object)</li>
  * </ul>
@@ -18,13 +18,30 @@ import java.util.*;
  */
 public class Graph<T extends CostObject<T>> {
 
-    private Map<Vertex<T>, Vertex<T>>   allVertices;
+    /**
+     * How much farther than the closest vertex of the fast scan a
+     * vertex can be and still be checked with <code>distance</code>,
+     * well over the error of <code>Haversine</code>.
+     */
+    private static final double         SNAP_SLACK = 1e-6;
+    private static final int            SNAP_TIES = 16;
+
+    private LongIntHashMap              locations;
+    private List<Vertex<T>>             vertices;
     private List<Vertex<T>>             taxis;
     private T                           client;
+    private volatile long               version;
+    private int                         edgeCount;
+    private ConnectedComponents         components;
+    private List<T>                     shapes;
+    private SnapPoints                  snapPoints;
+    private TaxiIndex<T>                taxiIndex;
 
     /**
      * The graph constructor.
      * Finds all the individual vertices (no duplicates).
+     * Finds the connected components, so that taxis and
+     * the client are only put on the main one.
      * Finds all the taxis.
      * Finds the client.
      * @param nodefile The file of nodes.
@@ -33,8 +50,112 @@ public class Graph<T extends CostObject<T>> {
      * @param generic A generic instance of the class used.
      */
     public Graph(String nodefile, String taxifile, String clientfile, T generic) {
-        allVertices = new HashMap<>();
+        this(nodefile, taxifile, clientfile, generic, false);
+    }
+
+    /**
+     * The graph constructor, with an optional compression
+     * of the chains of shape points (see <code>compressChains</code>).
+     * Taxis and the client are snapped after the compression,
+     * so they are only put on vertices that are kept.
+     * @param nodefile The file of nodes.
+     * @param taxifile The file of taxis.
+     * @param clientfile The file of client(s).
+     * @param generic A generic instance of the class used.
+     * @param compress true to compress the chains of shape points.
+     */
+    public Graph(String nodefile, String taxifile, String clientfile, T generic, boolean compress) {
+        this();
+        readNodes(nodefile, generic);
+        if (compress)
+            compressChains();
+        components = ConnectedComponents.of(this);
+        readTaxis(taxifile, generic);
+        readClient(clientfile, generic);
+    }
+
+    /**
+     * Constructor for a graph of nodes and taxis,
+     * for tools that pick their own clients.
+     * @param nodefile The file of nodes.
+     * @param taxifile The file of taxis.
+     * @param generic A generic instance of the class used.
+     */
+    public Graph(String nodefile, String taxifile, T generic) {
+        this();
+        readNodes(nodefile, generic);
+        components = ConnectedComponents.of(this);
+        readTaxis(taxifile, generic);
+    }
+
+    /**
+     * Constructor for a graph of nodes only,
+     * with no taxis and no client.
+     * @param nodefile The file of nodes.
+     * @param generic A generic instance of the class used.
+     */
+    public Graph(String nodefile, T generic) {
+        this();
+        readNodes(nodefile, generic);
+        components = ConnectedComponents.of(this);
+    }
+
+    /**
+     * Copy constructor.
+     * Copies any graph, read through its public methods, into a
+     * plain graph of its own vertices and edges: a graph made of
+     * layers (see <code>GraphEditor</code>) comes out flat. Vertices
+     * and edges keep their indices, so caches, trees and overlays of
+     * the source stay valid, and the copy has the version of the
+     * source. The taxis and the client are copied too.
+     * @param source The graph to copy.
+     */
+    public Graph(Graph<T> source) {
+        this();
+        int n = source.getVertexCount();
+        for (int i = 0; i < n; i++)
+            addVertex(new Vertex<>(source.getVertex(i).location));
+        for (int i = 0; i < n; i++) {
+            Vertex<T> from = vertices.get(i);
+            List<Edge<T>> edges = source.edgesOf(source.getVertex(i));
+            from.edges = new ArrayList<>(edges.size());
+            for (Edge<T> edge : edges) {
+                Edge<T> copy = new Edge<>(from, vertices.get(edge.to.index), edge.wayId, edge.length);
+                copy.index = edge.index;
+                List<T> shape = source.getShape(edge);
+                copy.shapeStart = shapes.size();
+                copy.shapeCount = shape.size();
+                shapes.addAll(shape);
+                from.edges.add(copy);
+            }
+        }
+        edgeCount = source.getEdgeCount();
+        components = ConnectedComponents.of(this);
+        for (Vertex<T> taxi : source.getTaxis())
+            taxis.add(new Vertex<>(taxi.location, taxi.id));
+        client = source.getClient();
+        version = source.getVersion();
+    }
+
+    /**
+     * Constructor for subclasses that
+     * load their vertices in their own way.
+     */
+    protected Graph() {
+        locations = new LongIntHashMap(1024);
+        vertices = new ArrayList<>();
         taxis = new ArrayList<>();
+        shapes = new ArrayList<>();
+    }
+
+    /**
+     * Reads the nodes file.
+     * Consecutive rows with the same id are
+     * connected with an edge in both directions.
+     * @param nodefile The file of nodes.
+     * @param generic A generic instance of the class used.
+     */
+    private void readNodes(String nodefile, T generic) {
         BufferedReader br = null;
         int prevId = -1, currId;
         Vertex<T> previous = null;
@@ -50,20 +171,22 @@ public class Graph<T extends CostObject<T>> {
             double y = Double.parseDouble(node[1]);
             currId = Integer.parseInt(node[2]);
             current = new Vertex<T>(generic.create(x, y));
-            allVertices.put(current, current);
+            addVertex(current);
             while ((line = br.readLine()) != null) {
                 node = line.split(",");
                 x = Double.parseDouble(node[0]);
                 y = Double.parseDouble(node[1]);
                 currId = Integer.parseInt(node[2]);
                 //System.out.println(currId + " " + prevId);
-                current = new Vertex<>(generic.create(x, y));
+                T location = generic.create(x, y);
+                int found = locations.get(location.key());
 
-                if (allVertices.containsKey(current)) {
-                    //System.out.println("Crossroad " + current.location);
-                    current = allVertices.get(current);
+                if (found != -1) {
+                    //System.out.println("Crossroad " + location);
+                    current = vertices.get(found);
                 } else {
-                    allVertices.put(current, current);
+                    current = new Vertex<>(location);
+                    addVertex(current);
                 }
 
                 if (prevId == currId) {
@@ -71,8 +194,8 @@ public class Graph<T extends CostObject<T>> {
                         //System.out.println(current.getLocation());
                         //System.out.println(previous.getLocation());
                         //System.out.println();
-                        current.addEdge(new Edge<>(current, previous));
-                        previous.addEdge((new Edge<>(previous, current)));
+                        addEdge(current, previous, currId);
+                        addEdge(previous, current, currId);
                     } catch (SameVerticesException e) {
 
                     }
@@ -98,6 +221,166 @@ public class Graph<T extends CostObject<T>> {
             }
         }
 
+    }
+
+    /**
+     * Collapses the chains of shape points into single edges.
+     * Most rows of the nodes file are only there to draw the
+     * way, and give vertices with just two neighbours on the same
+     * way. A search has to expand all of them one by one, even
+     * though the only choice it can make there is to go on.
+     * </br>
+     * Every such chain becomes one edge in each direction, from
+     * the vertex where the chain starts to the vertex where it ends,
+     * with the length of the whole chain and the way id of the chain.
+     * The locations of the points in between are kept in order in
+     * one list (<code>getShape</code>), so that routes can still be
+     * drawn along the road. Chains that are closed rings with no
+     * crossroad are left as they are.
+     * </br>
+     * Vertices and edges are given new indices,
+     * so this must run before anything keeps indices.
+     * @return The number of vertices removed.
+     */
+    private int compressChains() {
+        int n = vertices.size();
+        boolean[] interior = new boolean[n];
+        boolean[] removed = new boolean[n];
+        for (Vertex<T> vertex : vertices)
+            interior[vertex.index] = isShapePoint(vertex);
+
+        List<List<Edge<T>>> compressed = new ArrayList<>(n);
+        for (Vertex<T> start : vertices) {
+            if (interior[start.index]) {
+                compressed.add(null);
+                continue;
+            }
+            List<Edge<T>> edges = new ArrayList<>(start.edges.size());
+            for (Edge<T> first : start.edges) {
+                Vertex<T> previous = start;
+                Vertex<T> current = first.to;
+                double length = first.length;
+                int shapeStart = shapes.size();
+                while (interior[current.index] && current != start) {
+                    removed[current.index] = true;
+                    shapes.add(current.location);
+                    Edge<T> next = current.edges.get(0);
+                    if (next.to == previous)
+                        next = current.edges.get(1);
+                    length += next.length;
+                    previous = current;
+                    current = next.to;
+                }
+                if (current == start) {
+                    /**
+                     * A loop back to the same vertex is never
+                     * part of a shortest route.
+                     */
+                    shapes.subList(shapeStart, shapes.size()).clear();
+                    continue;
+                }
+                Edge<T> edge = new Edge<>(start, current, first.wayId, length);
+                edge.shapeStart = shapeStart;
+                edge.shapeCount = shapes.size() - shapeStart;
+                edges.add(edge);
+            }
+            compressed.add(edges);
+        }
+
+        List<Vertex<T>> kept = new ArrayList<>();
+        for (Vertex<T> vertex : vertices) {
+            if (removed[vertex.index])
+                continue;
+            List<Edge<T>> edges = compressed.get(vertex.index);
+            if (edges != null)
+                vertex.edges = edges;
+            kept.add(vertex);
+        }
+        edgeCount = 0;
+        for (int i = 0; i < kept.size(); i++) {
+            Vertex<T> vertex = kept.get(i);
+            vertex.index = i;
+            for (Edge<T> edge : vertex.edges)
+                edge.index = edgeCount++;
+        }
+        ((ArrayList<T>) shapes).trimToSize();
+        vertices = kept;
+        indexLocations();
+        return (n - kept.size());
+    }
+
+    /**
+     * A shape point is a vertex with exactly two
+     * different neighbours, both on the same way.
+     */
+    private static <T extends CostObject<T>> boolean isShapePoint(Vertex<T> vertex) {
+        if (vertex.edges.size() != 2)
+            return false;
+        Edge<T> a = vertex.edges.get(0), b = vertex.edges.get(1);
+        return (a.to != b.to && a.wayId == b.wayId);
+    }
+
+    /**
+     * Gives the vertices new indices, in the order given,
+     * and allocates the vertices, their locations and their
+     * edges again in that order. Objects allocated one after the
+     * other usually end up next to each other in memory, so a
+     * search that goes from a vertex to its neighbours finds them
+     * close by when the order keeps neighbours together
+     * (see <code>VertexOrder</code>). Edges get new indices
+     * too, following the vertices.
+     * </br>
+     * Must run before anything keeps indices of
+     * this graph (caches, trees, overlays).
+     * @param order The old index of the vertex at each new index.
+     */
+    public void renumber(int[] order) {
+        int n = vertices.size();
+        if (order.length != n)
+            throw (new IllegalArgumentException("The order must have one entry per vertex."));
+        List<Vertex<T>> renumbered = new ArrayList<>(n);
+        int[] newIndex = new int[n];
+        Arrays.fill(newIndex, -1);
+        for (int i = 0; i < n; i++) {
+            Vertex<T> old = vertices.get(order[i]);
+            if (newIndex[order[i]] != -1)
+                throw (new IllegalArgumentException("Vertex " + order[i] + " is twice in the order."));
+            newIndex[order[i]] = i;
+            Vertex<T> vertex = new Vertex<>(old.location.create(old.location));
+            vertex.index = i;
+            vertex.edges = new ArrayList<>(old.edges.size());
+            renumbered.add(vertex);
+        }
+
+        edgeCount = 0;
+        for (int i = 0; i < n; i++) {
+            Vertex<T> vertex = renumbered.get(i);
+            for (Edge<T> old : vertices.get(order[i]).edges) {
+                Edge<T> edge = new Edge<>(vertex, renumbered.get(newIndex[old.to.index]), old.wayId, old.length);
+                edge.index = edgeCount++;
+                edge.shapeStart = old.shapeStart;
+                edge.shapeCount = old.shapeCount;
+                vertex.edges.add(edge);
+            }
+        }
+
+        vertices = renumbered;
+        snapPoints = null;
+        indexLocations();
+        if (components != null)
+            components = ConnectedComponents.of(this);
+        nextVersion();
+    }
+
+    /**
+     * Reads the taxis file.
+     * Each taxi is put on its closest vertex.
+     * @param taxifile The file of taxis.
+     * @param generic A generic instance of the class used.
+     */
+    protected void readTaxis(String taxifile, T generic) {
+        BufferedReader br = null;
+
         try {
             br = new BufferedReader(new FileReader(taxifile));
             String line;
@@ -124,6 +407,16 @@ public class Graph<T extends CostObject<T>> {
                 System.out.println("Could not close taxis file");
             }
         }
+    }
+
+    /**
+     * Reads the client file.
+     * The client is put on its closest vertex.
+     * @param clientfile The file of client(s).
+     * @param generic A generic instance of the class used.
+     */
+    protected void readClient(String clientfile, T generic) {
+        BufferedReader br = null;
 
         try {
             br = new BufferedReader(new FileReader(clientfile));
@@ -150,25 +443,100 @@ public class Graph<T extends CostObject<T>> {
                 System.out.println("Could not close taxis file");
             }
         }
+    }
 
+    /**
+     * Adds a new vertex to the graph and gives
+     * it the next free index.
+     * @param vertex The vertex to be added.
+     */
+    private void addVertex(Vertex<T> vertex) {
+        vertex.index = vertices.size();
+        vertices.add(vertex);
+        locations.put(vertex.location.key(), vertex.index);
+    }
+
+    /**
+     * Maps the location of every vertex to its index again,
+     * after the vertices were given new indices.
+     */
+    private void indexLocations() {
+        locations = new LongIntHashMap(vertices.size());
+        for (Vertex<T> vertex : vertices)
+            locations.put(vertex.location.key(), vertex.index);
+    }
+
+    /**
+     * Adds a new edge to the graph and gives
+     * it the next free edge index.
+     * @param from The beginning of the edge.
+     * @param to The ending of the edge.
+     * @param wayId The id of the way of the edge.
+     * @throws SameVerticesException
+     */
+    private void addEdge(Vertex<T> from, Vertex<T> to, int wayId) throws SameVerticesException {
+        Edge<T> edge = new Edge<>(from, to, wayId);
+        edge.index = edgeCount++;
+        from.addEdge(edge);
+    }
+
+    /**
+     * Sets the index of a vertex loaded by a subclass.
+     * @param vertex The vertex.
+     * @param index Its index.
+     * @param <T> The type of the object the graph contains.
+     */
+    protected static <T extends CostObject<T>> void setIndex(Vertex<T> vertex, int index) {
+        vertex.index = index;
+    }
+
+    /**
+     * Creates an edge loaded by a subclass.
+     * @param from The beginning of the edge.
+     * @param to The ending of the edge.
+     * @param wayId The id of the way of the edge.
+     * @param index The index of the edge.
+     * @param <T> The type of the object the graph contains.
+     * @return The edge.
+     * @throws SameVerticesException
+     */
+    protected static <T extends CostObject<T>> Edge<T> newEdge(Vertex<T> from, Vertex<T> to, int wayId, int index) throws SameVerticesException {
+        Edge<T> edge = new Edge<>(from, to, wayId);
+        edge.index = index;
+        return edge;
     }
 
     /**
      * To find the location of the taxis and
      * the client as they are not given as
      * a node of the map given.
+     * Only vertices of the main component are
+     * used, so that small pieces of road cut off
+     * from the rest of the map never get a taxi.
+     * </br>
+     * The scan runs over the primitive arrays of <code>Haversine</code>.
+     * Its closest vertex is then checked with <code>distance</code> against
+     * every vertex that is nearly as close, so the result is the same as
+     * comparing <code>distance</code> with every vertex.
      * @param loc The taxi's/client's location.
      * @return The closest location based on the nodes.
      */
-    private T findClosest(T loc) {
+    protected T findClosest(T loc) {
+        SnapPoints snap = snapPoints();
+        int best = snap.points.nearest(loc.getX(), loc.getY());
+        double limit = snap.points.term(best, loc.getX(), loc.getY()) * (1 + SNAP_SLACK) + Double.MIN_NORMAL;
+        int[] near = new int[SNAP_TIES];
+        int found = snap.points.within(loc.getX(), loc.getY(), limit, near);
+        if (found > near.length) {
+            near = new int[found];
+            snap.points.within(loc.getX(), loc.getY(), limit, near);
+        }
+
         double min = Double.MAX_VALUE;
         T result = null;
-        T curLoc = null;
-        double dist;
-
-        for (Vertex<T> current : allVertices.keySet()) {
-            curLoc = current.getLocation();
-            dist = curLoc.distance(loc);
+        for (int i = 0; i < found; i++) {
+            T curLoc = vertices.get(snap.vertices[near[i]]).getLocation();
+            double dist = curLoc.distance(loc);
             if (dist < min) {
                 min = dist;
                 result = curLoc;
@@ -179,11 +547,244 @@ public class Graph<T extends CostObject<T>> {
     }
 
     /**
-     * Get all vertices.
-     * @return HashMap<K: Vertex, V: Vertex> of the nodes.
+     * The locations of the main component in primitive arrays,
+     * built on the first snap and again after a renumbering.
+     */
+    private synchronized SnapPoints snapPoints() {
+        if (snapPoints == null) {
+            int[] kept = new int[vertices.size()];
+            int n = 0;
+            for (Vertex<T> current : vertices) {
+                if (components == null || components.isMain(current.index))
+                    kept[n++] = current.index;
+            }
+            double[] xs = new double[n], ys = new double[n];
+            for (int i = 0; i < n; i++) {
+                T location = vertices.get(kept[i]).getLocation();
+                xs[i] = location.getX();
+                ys[i] = location.getY();
+            }
+            snapPoints = new SnapPoints(new Haversine.Points(xs, ys), Arrays.copyOf(kept, n));
+        }
+        return snapPoints;
+    }
+
+    /**
+     * Puts a location on the graph, the way
+     * the taxis and the client are put on it.
+     * @param location Any location.
+     * @return The location of the closest vertex of the main component.
      */
-    public Map<Vertex<T>, Vertex<T>> getAllVertices() {
-        return allVertices;
+    public T snap(T location) {
+        return findClosest(location);
+    }
+
+    /**
+     * Get the vertex of the graph at a location.
+     * @param location The location.
+     * @return The vertex or null if there is none there.
+     */
+    public Vertex<T> findVertex(T location) {
+        int index = locations.get(location.key());
+        return (index == -1) ? null : vertices.get(index);
+    }
+
+    /**
+     * Get the edges going out of a vertex.
+     * Searches should use this instead of asking the vertex,
+     * so that graphs which load their vertices lazily can
+     * load them first.
+     * @param vertex A vertex of the graph.
+     * @return Its edges.
+     */
+    public List<Edge<T>> edgesOf(Vertex<T> vertex) {
+        return vertex.getEdges();
+    }
+
+    /**
+     * Get the edge that goes the opposite way of an edge.
+     * Every road gives an edge in each direction, so searches
+     * that go backwards use this to weigh an edge the way it
+     * is actually driven.
+     * A compressed graph can have several edges of the same
+     * way between two vertices (a way that leaves a crossroad
+     * and comes back to it), so the one with the closest
+     * length is taken.
+     * @param edge An edge of the graph.
+     * @return The opposite edge, or the edge itself if there is none.
+     */
+    public Edge<T> reverse(Edge<T> edge) {
+        int from = edge.getFrom().getIndex();
+        Edge<T> found = edge;
+        double closest = Double.MAX_VALUE;
+        for (Edge<T> back : edgesOf(edge.getTo())) {
+            if (back.getTo().getIndex() == from && back.getWayId() == edge.getWayId()) {
+                double difference = Math.abs(back.length - edge.length);
+                if (difference < closest) {
+                    closest = difference;
+                    found = back;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Get the shape points of an edge.
+     * Edges made by compressing a chain of shape points
+     * lead through the locations of these points.
+     * @param edge An edge of the graph.
+     * @return The locations between the two ends of the edge, in driving order.
+     */
+    public List<T> getShape(Edge<T> edge) {
+        return shapes.subList(edge.shapeStart, edge.shapeStart + edge.shapeCount);
+    }
+
+    /**
+     *
+     * @return true iff some edges have shape points.
+     */
+    public boolean hasShapes() {
+        return !shapes.isEmpty();
+    }
+
+    /**
+     * Get a vertex by its index.
+     * @param index The index of the vertex.
+     * @return The vertex with this index.
+     */
+    public Vertex<T> getVertex(int index) {
+        return vertices.get(index);
+    }
+
+    /**
+     * Get the number of vertices.
+     * Vertex indices go from 0 to this number minus one.
+     * @return The number of vertices.
+     */
+    public int getVertexCount() {
+        return vertices.size();
+    }
+
+    /**
+     * Get the connected components.
+     * @return The components or null if they were not computed.
+     */
+    public ConnectedComponents getComponents() {
+        return components;
+    }
+
+    /**
+     * Checks if a vertex can be reached from another one.
+     * Graphs without components (like tiled graphs, which
+     * only keep their main component) answer always true.
+     * @param from The index of the first vertex.
+     * @param to The index of the second vertex.
+     * @return false iff there is certainly no route between them.
+     */
+    public boolean isReachable(int from, int to) {
+        return (components == null || components.getComponent(from) == components.getComponent(to));
+    }
+
+    /**
+     * Get the number of edges.
+     * Every road gives two edges, one for each direction,
+     * and edge indices go from 0 to this number minus one.
+     * @return The number of edges.
+     */
+    public int getEdgeCount() {
+        return edgeCount;
+    }
+
+    /**
+     * Get the version of the graph.
+     * Anything that keeps results computed on the
+     * graph (like <code>RouteCache</code>) uses it
+     * to know if these results are still valid.
+     * @return The current version.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Moves the graph to a new version.
+     * Must be called whenever the costs of the graph change.
+     * @return The new version.
+     */
+    public synchronized long nextVersion() {
+        return ++version;
+    }
+
+    /**
+     * Sets the version of a graph built by a subclass
+     * to follow the graph it replaces, so that caches
+     * never take one for the other.
+     * @param version The version.
+     */
+    protected synchronized void setVersion(long version) {
+        this.version = version;
+    }
+
+    /**
+     * Accounts for the memory of the graph, structure by structure.
+     * Vertices are sampled, as each has its own list of edges;
+     * everything else is computed from the sizes of its arrays
+     * or from the shape of its objects.
+     * @return The report.
+     */
+    public MemoryReport memoryReport() {
+        int n = vertices.size();
+        MemoryReport report = new MemoryReport("Graph of " + n + " vertices, " + edgeCount + " edges and " + taxis.size() + " taxis");
+        long sampled = 0;
+        int samples = 0;
+        for (int i = 0; i < n; i += Math.max(1, n / MemoryReport.SAMPLE)) {
+            Vertex<T> vertex = vertices.get(i);
+            sampled += MemoryReport.shallow(Vertex.class) + MemoryReport.shallow(vertex.location.getClass())
+                    + ((vertex.edges == null) ? 0 : MemoryReport.arrayList(vertex.edges.size()));
+            samples++;
+        }
+        report.add("vertex list", n, "vertices", MemoryReport.arrayList(n), "layout");
+        report.add("vertices", n, "vertices", (samples == 0) ? 0 : Math.round((double) sampled / samples * n), "sampled");
+        report.add("edges", edgeCount, "edges", edgeCount * MemoryReport.shallow(Edge.class), "layout");
+        report.add("locations", locations.size(), "keys", locations.memory(), "exact");
+        if (components != null)
+            report.add("components", n, "vertices", components.memory(), "exact");
+        if (!shapes.isEmpty())
+            report.add("shape points", shapes.size(), "points",
+                    MemoryReport.arrayList(shapes.size()) + shapes.size() * MemoryReport.shallow(shapes.get(0).getClass()), "layout");
+        reportTaxis(report);
+        return report;
+    }
+
+    /**
+     * Adds the taxis and what is built to find and snap
+     * them to a memory report, for graphs of any layout.
+     * @param report The report.
+     */
+    protected void reportTaxis(MemoryReport report) {
+        long taxiBytes = MemoryReport.arrayList(taxis.size());
+        for (Vertex<T> taxi : taxis)
+            taxiBytes += MemoryReport.shallow(Vertex.class) + MemoryReport.shallow(taxi.location.getClass());
+        report.add("taxis", taxis.size(), "taxis", taxiBytes, "layout");
+        synchronized (this) {
+            if (snapPoints != null)
+                report.add("snap points", snapPoints.vertices.length, "vertices", MemoryReport.shallow(SnapPoints.class)
+                        + snapPoints.points.memory() + MemoryReport.array(snapPoints.vertices.length, 4), "exact");
+            if (taxiIndex != null)
+                report.add("taxi index", taxis.size(), "taxis", taxiIndex.memory(), "exact");
+        }
+    }
+
+    /**
+     * Get the spatial index of the taxis.
+     * It is built the first time it is asked for.
+     * @return The index.
+     */
+    public synchronized TaxiIndex<T> getTaxiIndex() {
+        if (taxiIndex == null)
+            taxiIndex = new TaxiIndex<>(taxis);
+        return taxiIndex;
     }
 
     /**
@@ -194,6 +795,30 @@ public class Graph<T extends CostObject<T>> {
         return taxis;
     }
 
+    /**
+     * Puts a taxi on the vertex closest to a location, as
+     * for the taxis file. The spatial index of the taxis
+     * is built again the next time it is asked for.
+     * @param location The location of the taxi.
+     * @param id The id of the taxi.
+     */
+    public synchronized void addTaxi(T location, int id) {
+        taxis.add(new Vertex<>(findClosest(location), id));
+        taxiIndex = null;
+    }
+
+    /**
+     * Replaces the taxis and the client by ones a subclass
+     * already put on its vertices.
+     * @param taxis The taxis.
+     * @param client The location of the client.
+     */
+    protected synchronized void setTaxis(List<Vertex<T>> taxis, T client) {
+        this.taxis = taxis;
+        this.client = client;
+        taxiIndex = null;
+    }
+
     /**
      * Get location of client.
      * @return The client's location.
@@ -202,6 +827,21 @@ public class Graph<T extends CostObject<T>> {
         return client;
     }
 
+    /**
+     * The vertices a location can be snapped to.
+     */
+    private static class SnapPoints {
+
+        private final Haversine.Points  points;
+        private final int[]             vertices;
+
+        SnapPoints(Haversine.Points points, int[] vertices) {
+            this.points = points;
+            this.vertices = vertices;
+        }
+
+    }
+
     /**
      * A vertex class.
      * Contains the location of the vertex,
@@ -212,6 +852,7 @@ public class Graph<T extends CostObject<T>> {
 
         private T               location;
         private final int       id;
+        private int             index;
         private List<Edge<T>>   edges;
 
         /**
@@ -223,6 +864,7 @@ public class Graph<T extends CostObject<T>> {
         public Vertex(T location) {
             this.location = location;
             id = 0;
+            index = -1;
             edges = new ArrayList<>();
         }
 
@@ -236,6 +878,7 @@ public class Graph<T extends CostObject<T>> {
         public Vertex(T location, int id) {
             this.location = location;
             this.id = id;
+            index = -1;
             edges = null;
         }
 
@@ -264,6 +907,16 @@ public class Graph<T extends CostObject<T>> {
             return id;
         }
 
+        /**
+         * The index of the vertex in the graph.
+         * Taxis and copies that are not part of
+         * the graph have index -1.
+         * @return The index.
+         */
+        public int getIndex() {
+            return index;
+        }
+
         /**
          *
          * @return ArrayList of the edges.
@@ -285,7 +938,7 @@ public class Graph<T extends CostObject<T>> {
          * @param other The other vertex.
          * @return The distance.
          */
-        public Double distance(Vertex<T> other) {
+        public double distance(Vertex<T> other) {
             return this.location.distance(other.getLocation());
         }
 
@@ -295,7 +948,7 @@ public class Graph<T extends CostObject<T>> {
          * @param other The location.
          * @return The distance.
          */
-        public Double distance(T other) {
+        public double distance(T other) {
             return this.location.distance(other);
         }
 
@@ -335,8 +988,13 @@ public class Graph<T extends CostObject<T>> {
      */
     public static class Edge<T extends CostObject<T>> {
 
-        private Vertex<T>   from;
-        private Vertex<T>   to;
+        private Vertex<T>       from;
+        private Vertex<T>       to;
+        private final int       wayId;
+        private final double    length;
+        private int             index;
+        private int             shapeStart;
+        private int             shapeCount;
 
         /**
          * Constructor.
@@ -345,12 +1003,39 @@ public class Graph<T extends CostObject<T>> {
          * @throws SameVerticesException
          */
         public Edge(Vertex<T> from, Vertex<T> to) throws SameVerticesException {
+            this(from, to, -1);
+        }
+
+        /**
+         * Constructor for edges of a known way.
+         * @param from The beginning of the edge.
+         * @param to The ending of the edge.
+         * @param wayId The id of the way (road) the edge belongs to.
+         * @throws SameVerticesException
+         */
+        public Edge(Vertex<T> from, Vertex<T> to, int wayId) throws SameVerticesException {
             if (from == null || to == null)
                 throw (new NullPointerException("Both 'from' and 'to' vertices must be non-null."));
             if (from.equals(to))
                 throw (new SameVerticesException("'from' and 'to' vertices must be of different location."));
             this.from = from;
             this.to = to;
+            this.wayId = wayId;
+            this.length = from.distance(to);
+            this.index = -1;
+        }
+
+        /**
+         * Constructor for edges that stand for a whole
+         * chain of shape points, so their length is not
+         * the distance between their two ends.
+         */
+        private Edge(Vertex<T> from, Vertex<T> to, int wayId, double length) {
+            this.from = from;
+            this.to = to;
+            this.wayId = wayId;
+            this.length = length;
+            this.index = -1;
         }
 
         /**
@@ -371,10 +1056,29 @@ public class Graph<T extends CostObject<T>> {
 
         /**
          *
+         * @return The id of the way of the edge (-1 if unknown).
+         */
+        public int getWayId() {
+            return wayId;
+        }
+
+        /**
+         * The index of the edge in the graph.
+         * Edges that are not part of the graph have index -1.
+         * @return The index.
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * The length of the road of the edge, which
+         * is longer than the distance between its ends
+         * if the edge has shape points.
          * @return The edges cost.
          */
-        public Double cost() {
-            return from.distance(to);
+        public double cost() {
+            return length;
         }
 
     }
@@ -0,0 +1,819 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+
+/**
+ * Edits a graph while it is being searched: roads are closed and
+ * opened again, ways are added and nodes are moved, without
+ * reading the nodes file again.
+ * </br>
+ * The graph that was loaded is never changed. The edits go to a
+ * layer on top of it, which only ever adds: new vertices and edges
+ * get the next free indices, a vertex that moves or whose roads
+ * change gets a new list of edges in the layer, and closed roads
+ * are left out of these lists. The base and the layer together
+ * look like any other <code>Graph</code>. The layer keeps every value
+ * an edit writes next to the ones it replaced, tagged with the number
+ * of the edit, so the layer of an edit is just that number and costs
+ * only what the edit changed. The graph is published with a single
+ * volatile write, as <code>TrafficOverlay</code> does with its
+ * multipliers:
+ * <ul>
+ *     <li>A search takes <code>current()</code> once and sees that
+ *     graph until it ends, never half an edit.</li>
+ *     <li>Searches never wait for edits; edits wait for each other.</li>
+ *     <li>Every edit is a new version, so caches drop the routes of the graph before.</li>
+ * </ul>
+ * Vertices keep their index for good: a node that moves keeps its
+ * index, and a vertex whose roads are all closed stays, without edges.
+ * So routes, trees and caches of older versions still name the same vertices.
+ * </br>
+ * The layer costs a lookup for every vertex a search expands and
+ * grows with every edit, so from time to time it is folded into
+ * a new flat base (<code>compact</code>). The copy is made from a
+ * published graph without holding up the edits, and the edits that
+ * came in meanwhile are applied again on top of it.
+ * <code>startCompaction</code> does this on a background thread
+ * and <code>compactNow</code> hands one compaction to it.
+ * </br>
+ * Graphs with compressed chains of shape points can not be edited, as
+ * the length of their edges is not the distance between their ends.
+ * Until the next compaction the graph has no connected components
+ * (every vertex counts as reachable), and locations snap to the main
+ * component of the base, to moved nodes and to the vertices of new
+ * ways that meet an existing road.
+ * @param <T> The type of the object the graph contains.
+ */
+public class GraphEditor<T extends CostObject<T>> {
+
+    private volatile Graph<T>           current;
+    private Layer<T>                    layer;
+    /** The edits since the base was made, in order. */
+    private final List<Edit<T>>         log = new ArrayList<>();
+    private long                        edits;
+    private long                        compactions;
+    private ScheduledExecutorService    compactor;
+    /** Held for a whole compaction, so two never overlap. */
+    private final Object                compacting = new Object();
+
+    /**
+     * Typical constructor.
+     * @param graph The graph as loaded, which is not changed.
+     */
+    public GraphEditor(Graph<T> graph) {
+        if (graph.hasShapes())
+            throw (new IllegalArgumentException("A graph with compressed chains can not be edited."));
+        layer = new Layer<>(graph);
+        current = graph;
+    }
+
+    /**
+     * The graph with all the edits so far.
+     * A search must take it once and use it to the end.
+     * @return The graph.
+     */
+    public Graph<T> current() {
+        return current;
+    }
+
+    /**
+     * Closes the road between two vertices, in both directions.
+     * @param a The location of a vertex.
+     * @param b The location of a neighbour of the vertex.
+     * @return The version of the graph with the road closed.
+     * @throws IllegalArgumentException If there is no open road between them.
+     */
+    public synchronized long closeRoad(T a, T b) {
+        return apply(change -> change.close(a, b));
+    }
+
+    /**
+     * Opens a road closed by <code>closeRoad</code> again,
+     * with the way and the edge indices it had.
+     * @param a The location of a vertex.
+     * @param b The location of a neighbour of the vertex.
+     * @return The version of the graph with the road open.
+     * @throws IllegalArgumentException If no road between them is closed.
+     */
+    public synchronized long reopenRoad(T a, T b) {
+        return apply(change -> change.reopen(a, b));
+    }
+
+    /**
+     * Adds a way, as rows of the nodes file with the same id would:
+     * consecutive points are joined by a road in both directions, and
+     * a point at the location of a vertex is a crossroad with it.
+     * @param points The points of the way, in order (at least 2).
+     * @param wayId The id of the way.
+     * @return The version of the graph with the way.
+     */
+    public synchronized long addWay(List<T> points, int wayId) {
+        List<T> copy = new ArrayList<>(points);
+        return apply(change -> change.addWay(copy, wayId));
+    }
+
+    /**
+     * Moves a node, with its roads. Taxis and the client
+     * on the node move with it.
+     * @param from The location of the node.
+     * @param to Its new location, where there must be no vertex.
+     * @return The version of the graph with the node moved.
+     * @throws IllegalArgumentException If there is no node at from, or already one at to.
+     */
+    public synchronized long moveNode(T from, T to) {
+        return apply(change -> change.move(from, to));
+    }
+
+    /**
+     *
+     * @return The number of edits not compacted yet.
+     */
+    public synchronized int getPending() {
+        return log.size();
+    }
+
+    /**
+     *
+     * @return The number of edits so far.
+     */
+    public synchronized long getEdits() {
+        return edits;
+    }
+
+    /**
+     *
+     * @return The number of compactions so far.
+     */
+    public synchronized long getCompactions() {
+        return compactions;
+    }
+
+    /**
+     * Folds the layer into a new flat base.
+     * The copy runs without the lock, so edits go on meanwhile;
+     * they are applied again on top of the new base once it is done.
+     */
+    public void compact() {
+        synchronized (compacting) {
+            fold();
+        }
+    }
+
+    /**
+     * Compacts on the thread of the background compactions as soon
+     * as it is free, so the caller does not wait for the copy.
+     */
+    public synchronized void compactNow() {
+        compactor().execute(this::compactInBackground);
+    }
+
+    private void fold() {
+        Graph<T> snapshot;
+        Layer<T> folded;
+        int done;
+        synchronized (this) {
+            if (log.isEmpty())
+                return;
+            snapshot = current;
+            folded = layer;
+            done = log.size();
+        }
+        Graph<T> flat = new Graph<>(snapshot);
+        synchronized (this) {
+            List<Edit<T>> later = new ArrayList<>(log.subList(done, log.size()));
+            log.clear();
+            layer = folded.rebase(flat);
+            if (later.isEmpty()) {
+                /** The same graph as the one published, so the same version. */
+                current = flat;
+            } else {
+                for (Edit<T> edit : later) {
+                    Change<T> change = new Change<>(layer);
+                    edit.apply(change);
+                    layer = change.commit();
+                    log.add(edit);
+                }
+                current = new Edited<>(layer, current);
+            }
+            compactions++;
+        }
+    }
+
+    /**
+     * Compacts on a background thread whenever enough edits are pending.
+     * @param period How often to look, in milliseconds.
+     * @param minEdits How many edits make a compaction worth it.
+     */
+    public synchronized void startCompaction(long period, int minEdits) {
+        stopCompaction();
+        compactor().scheduleWithFixedDelay(() -> {
+            if (getPending() >= minEdits)
+                compactInBackground();
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops compacting in the background.
+     */
+    public synchronized void stopCompaction() {
+        if (compactor != null)
+            compactor.shutdownNow();
+        compactor = null;
+    }
+
+    /**
+     * The thread of the background compactions, started the first time.
+     */
+    private ScheduledExecutorService compactor() {
+        if (compactor == null) {
+            compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "graph-compactor");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return compactor;
+    }
+
+    private void compactInBackground() {
+        try {
+            compact();
+        } catch (RuntimeException e) {
+            System.out.println("Compaction failed: " + e);
+        }
+    }
+
+    /**
+     * Applies an edit on top of the layer and publishes
+     * it. An edit that fails changes nothing.
+     */
+    private long apply(Edit<T> edit) {
+        Change<T> change = new Change<>(layer);
+        edit.apply(change);
+        layer = change.commit();
+        log.add(edit);
+        edits++;
+        current = new Edited<>(layer, current);
+        return current.getVersion();
+    }
+
+    /**
+     * An edit, kept so it can be applied again after a compaction.
+     */
+    private interface Edit<T extends CostObject<T>> {
+        void apply(Change<T> change);
+    }
+
+    /**
+     * A road closed by an edit, in one direction.
+     */
+    private static class Closed {
+
+        private final int   from;
+        private final int   to;
+        private final int   wayId;
+        private final int   index;
+
+        Closed(int from, int to, int wayId, int index) {
+            this.from = from;
+            this.to = to;
+            this.wayId = wayId;
+            this.index = index;
+        }
+
+    }
+
+    /**
+     * A value with the number of the edit that made it,
+     * in front of the value it replaced.
+     */
+    private static class Version<V> {
+
+        private final V             value;
+        private final int           edit;
+        private final Version<V>    older;
+
+        Version(V value, int edit, Version<V> older) {
+            this.value = value;
+            this.edit = edit;
+            this.older = older;
+        }
+
+        /**
+         *
+         * @return The newest value made by an edit up to the one given, or null if none.
+         */
+        static <V> V at(Version<V> version, int edit) {
+            for (; version != null; version = version.older) {
+                if (version.edit <= edit)
+                    return version.value;
+            }
+            return null;
+        }
+
+        static <V> V get(Map<Long, Version<V>> versions, long key, int edit) {
+            return at(versions.get(key), edit);
+        }
+
+        static <V> void put(Map<Long, Version<V>> versions, long key, V value, int edit) {
+            versions.put(key, new Version<>(value, edit, versions.get(key)));
+        }
+
+    }
+
+    /**
+     * Values by vertex index that are only ever added to: a new value
+     * goes in front of the older ones of its index, so the layers of
+     * earlier edits read on as before. Readers take no lock, as the
+     * values of the edits they can see were written before the graph
+     * of these edits was published by its volatile write.
+     */
+    private static class Versions<V> {
+
+        private volatile Version<V>[]   versions = newVersions(0);
+        private int                     count;
+
+        V get(int index, int edit) {
+            Version<V>[] array = versions;
+            return (index < array.length) ? Version.at(array[index], edit) : null;
+        }
+
+        /**
+         * Adds a value, growing the array if needed.
+         * Only the edits call it, one at a time.
+         */
+        void put(int index, V value, int edit) {
+            Version<V>[] array = versions;
+            if (index >= array.length) {
+                array = Arrays.copyOf(array, Math.max(index + 1, array.length * 3 / 2));
+                versions = array;
+            }
+            array[index] = new Version<>(value, edit, array[index]);
+            count++;
+        }
+
+        /**
+         *
+         * @return The number of values, of all the edits.
+         */
+        int size() {
+            return count;
+        }
+
+        /**
+         * @param bytes The bytes of a value.
+         * @return The bytes taken by the array, the versions and their values.
+         */
+        long memory(ToLongFunction<V> bytes) {
+            Version<V>[] array = versions;
+            long total = MemoryReport.array(array.length, MemoryReport.REFERENCE);
+            for (Version<V> version : array) {
+                for (; version != null; version = version.older)
+                    total += MemoryReport.shallow(Version.class) + bytes.applyAsLong(version.value);
+            }
+            return total;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <V> Version<V>[] newVersions(int length) {
+            return (Version<V>[]) new Version<?>[length];
+        }
+
+    }
+
+    /**
+     * The edits on top of a base graph, up to one of them. All the
+     * layers of a base share the same versions and only differ in the
+     * number of their last edit, so a new layer costs what its edit
+     * changed and the ones before it see nothing of it.
+     */
+    private static class Layer<T extends CostObject<T>> {
+
+        private final Graph<T>                          base;
+        /** The number of the last edit, counted from the base. */
+        private final int                               edit;
+        /** The vertices added or moved, by index. */
+        private final Versions<Graph.Vertex<T>>         vertices;
+        /** The edges of the vertices added, moved or with roads changed, by index. */
+        private final Versions<List<Graph.Edge<T>>>     edges;
+        /** The indices of the vertices added or moved, by location key (-1 where a node left). */
+        private final Map<Long, Version<Integer>>       locations;
+        /** The closed roads, by pair of vertices (empty once opened again). */
+        private final Map<Long, Version<List<Closed>>>  closed;
+        /** The vertices added or moved that locations can snap to, the first snappableCount of them. */
+        private final int[]                             snappable;
+        private final int                               snappableCount;
+        /** The nodes moved by the last edit, by the key of their old location. */
+        private final Map<Long, Integer>                moved;
+        private final int                               vertexCount;
+        private final int                               edgeCount;
+
+        Layer(Graph<T> base) {
+            this(base, 0, new Versions<>(), new Versions<>(), new ConcurrentHashMap<>(), new ConcurrentHashMap<>(),
+                    new int[0], 0, Collections.emptyMap(), base.getVertexCount(), base.getEdgeCount());
+        }
+
+        private Layer(Graph<T> base, int edit, Versions<Graph.Vertex<T>> vertices, Versions<List<Graph.Edge<T>>> edges,
+                      Map<Long, Version<Integer>> locations, Map<Long, Version<List<Closed>>> closed, int[] snappable,
+                      int snappableCount, Map<Long, Integer> moved, int vertexCount, int edgeCount) {
+            this.base = base;
+            this.edit = edit;
+            this.vertices = vertices;
+            this.edges = edges;
+            this.locations = locations;
+            this.closed = closed;
+            this.snappable = snappable;
+            this.snappableCount = snappableCount;
+            this.moved = moved;
+            this.vertexCount = vertexCount;
+            this.edgeCount = edgeCount;
+        }
+
+        /**
+         * An empty layer on a compacted copy of the graph of this one.
+         * Only the closed roads are kept, so they can still be opened.
+         */
+        Layer<T> rebase(Graph<T> flat) {
+            Map<Long, Version<List<Closed>>> kept = new ConcurrentHashMap<>();
+            for (Long pair : closed.keySet()) {
+                List<Closed> roads = Version.get(closed, pair, edit);
+                if (roads != null && !roads.isEmpty())
+                    Version.put(kept, pair, roads, 0);
+            }
+            return (new Layer<>(flat, 0, new Versions<>(), new Versions<>(), new ConcurrentHashMap<>(), kept,
+                    new int[0], 0, Collections.emptyMap(), flat.getVertexCount(), flat.getEdgeCount()));
+        }
+
+        Graph.Vertex<T> vertex(int index) {
+            Graph.Vertex<T> vertex = vertices.get(index, edit);
+            return (vertex != null) ? vertex : base.getVertex(index);
+        }
+
+        List<Graph.Edge<T>> edgesOf(Graph.Vertex<T> vertex) {
+            List<Graph.Edge<T>> own = edges.get(vertex.getIndex(), edit);
+            return (own != null) ? own : base.edgesOf(vertex);
+        }
+
+        List<Graph.Edge<T>> edgesAt(int index) {
+            List<Graph.Edge<T>> own = edges.get(index, edit);
+            return (own != null) ? own : base.edgesOf(base.getVertex(index));
+        }
+
+        /**
+         *
+         * @return The index of the vertex at a location, or -1 if there is none.
+         */
+        int find(T location) {
+            Integer own = Version.get(locations, location.key(), edit);
+            if (own != null)
+                return own;
+            Graph.Vertex<T> vertex = base.findVertex(location);
+            return (vertex == null) ? -1 : vertex.getIndex();
+        }
+
+        List<Closed> closedAt(long pair) {
+            return Version.get(closed, pair, edit);
+        }
+
+        boolean isSnappable(int index) {
+            for (int i = 0; i < snappableCount; i++) {
+                if (snappable[i] == index)
+                    return true;
+            }
+            return false;
+        }
+
+        /**
+         *
+         * @return The number of values kept for the edits, of this layer and the later ones.
+         */
+        int size() {
+            return vertices.size() + edges.size();
+        }
+
+        /**
+         *
+         * @return The bytes taken by the edits, without the base.
+         */
+        long memory() {
+            return vertices.memory(vertex -> MemoryReport.shallow(Graph.Vertex.class)
+                    + MemoryReport.shallow(vertex.getLocation().getClass()))
+                    + edges.memory(list -> MemoryReport.arrayList(list.size()) + list.size() * MemoryReport.shallow(Graph.Edge.class))
+                    + MemoryReport.array(snappable.length, 4);
+        }
+
+    }
+
+    /**
+     * One edit on top of a layer. What it changes is kept aside
+     * and only goes into the versions when it commits, so an
+     * edit that fails leaves the layer as it was.
+     */
+    private static class Change<T extends CostObject<T>> {
+
+        private final Layer<T>                          layer;
+        private final Map<Integer, Graph.Vertex<T>>     vertices = new HashMap<>();
+        private final Map<Integer, List<Graph.Edge<T>>> edges = new HashMap<>();
+        private final Map<Long, Integer>                locations = new HashMap<>();
+        private final Map<Long, List<Closed>>           closed = new HashMap<>();
+        private final List<Integer>                     snappable = new ArrayList<>();
+        private final Map<Long, Integer>                moved = new HashMap<>();
+        private int                                     vertexCount;
+        private int                                     edgeCount;
+
+        Change(Layer<T> layer) {
+            this.layer = layer;
+            vertexCount = layer.vertexCount;
+            edgeCount = layer.edgeCount;
+        }
+
+        /**
+         * Writes the changes as the versions of the next edit.
+         * @return The layer of the next edit.
+         */
+        Layer<T> commit() {
+            int edit = layer.edit + 1;
+            for (Map.Entry<Integer, Graph.Vertex<T>> entry : vertices.entrySet())
+                layer.vertices.put(entry.getKey(), entry.getValue(), edit);
+            for (Map.Entry<Integer, List<Graph.Edge<T>>> entry : edges.entrySet())
+                layer.edges.put(entry.getKey(), entry.getValue(), edit);
+            for (Map.Entry<Long, Integer> entry : locations.entrySet())
+                Version.put(layer.locations, entry.getKey(), entry.getValue(), edit);
+            for (Map.Entry<Long, List<Closed>> entry : closed.entrySet())
+                Version.put(layer.closed, entry.getKey(), entry.getValue(), edit);
+            int[] array = layer.snappable;
+            int count = layer.snappableCount;
+            if (count + snappable.size() > array.length)
+                array = Arrays.copyOf(array, Math.max(count + snappable.size(), array.length * 2));
+            for (int index : snappable)
+                array[count++] = index;
+            return (new Layer<>(layer.base, edit, layer.vertices, layer.edges, layer.locations, layer.closed,
+                    array, count, moved, vertexCount, edgeCount));
+        }
+
+        void close(T a, T b) {
+            int from = require(a), to = require(b);
+            if (drop(from, to) + drop(to, from) == 0)
+                throw (new IllegalArgumentException("There is no open road between " + a + " and " + b + "."));
+        }
+
+        void reopen(T a, T b) {
+            long pair = pair(require(a), require(b));
+            List<Closed> roads = closedAt(pair);
+            if (roads == null || roads.isEmpty())
+                throw (new IllegalArgumentException("There is no closed road between " + a + " and " + b + "."));
+            closed.put(pair, Collections.<Closed>emptyList());
+            for (Closed road : roads)
+                edit(road.from).add(edge(vertex(road.from), vertex(road.to), road.wayId, road.index));
+        }
+
+        void addWay(List<T> points, int wayId) {
+            if (points.size() < 2)
+                throw (new IllegalArgumentException("A way needs at least 2 points."));
+            boolean meets = false;
+            List<Integer> added = new ArrayList<>();
+            int previous = -1;
+            for (T point : points) {
+                int current = find(point);
+                if (current != -1) {
+                    meets = true;
+                } else {
+                    current = add(point);
+                    added.add(current);
+                }
+                if (previous != -1 && previous != current) {
+                    edit(previous).add(edge(vertex(previous), vertex(current), wayId, edgeCount++));
+                    edit(current).add(edge(vertex(current), vertex(previous), wayId, edgeCount++));
+                }
+                previous = current;
+            }
+            if (meets)
+                snappable.addAll(added);
+        }
+
+        void move(T from, T to) {
+            int index = require(from);
+            if (find(to) != -1)
+                throw (new IllegalArgumentException("There is already a vertex at " + to + "."));
+            Graph.Vertex<T> old = vertex(index);
+            Graph.Vertex<T> node = new Graph.Vertex<>(to.create(to));
+            Graph.setIndex(node, index);
+            List<Graph.Edge<T>> roads = edgesAt(index);
+            vertices.put(index, node);
+            locations.put(old.getLocation().key(), -1);
+            locations.put(to.key(), index);
+            moved.put(old.getLocation().key(), index);
+            /**
+             * The edges of the node and the edges of its neighbours
+             * that lead to it are made again, with the new lengths.
+             */
+            List<Graph.Edge<T>> own = new ArrayList<>(roads.size());
+            for (Graph.Edge<T> road : roads) {
+                int neighbor = road.getTo().getIndex();
+                own.add(edge(node, vertex(neighbor), road.getWayId(), road.getIndex()));
+                List<Graph.Edge<T>> theirs = edit(neighbor);
+                for (int i = 0; i < theirs.size(); i++) {
+                    Graph.Edge<T> back = theirs.get(i);
+                    if (back.getTo().getIndex() == index)
+                        theirs.set(i, edge(vertex(neighbor), node, back.getWayId(), back.getIndex()));
+                }
+            }
+            edges.put(index, own);
+            if (!snappable.contains(index) && !layer.isSnappable(index))
+                snappable.add(index);
+        }
+
+        private Graph.Vertex<T> vertex(int index) {
+            Graph.Vertex<T> vertex = vertices.get(index);
+            return (vertex != null) ? vertex : layer.vertex(index);
+        }
+
+        private List<Graph.Edge<T>> edgesAt(int index) {
+            List<Graph.Edge<T>> own = edges.get(index);
+            return (own != null) ? own : layer.edgesAt(index);
+        }
+
+        private int find(T location) {
+            Integer own = locations.get(location.key());
+            return (own != null) ? own : layer.find(location);
+        }
+
+        private List<Closed> closedAt(long pair) {
+            List<Closed> own = closed.get(pair);
+            return (own != null) ? own : layer.closedAt(pair);
+        }
+
+        private int require(T location) {
+            int index = find(location);
+            if (index == -1)
+                throw (new IllegalArgumentException("There is no vertex at " + location + "."));
+            return index;
+        }
+
+        private int add(T location) {
+            Graph.Vertex<T> vertex = new Graph.Vertex<>(location.create(location));
+            int index = vertexCount++;
+            Graph.setIndex(vertex, index);
+            vertices.put(index, vertex);
+            locations.put(location.key(), index);
+            edges.put(index, new ArrayList<>());
+            return index;
+        }
+
+        /**
+         * Takes the edges from one vertex to another out of its list.
+         * @return How many there were.
+         */
+        private int drop(int from, int to) {
+            List<Graph.Edge<T>> list = edit(from);
+            List<Closed> before = closedAt(pair(from, to));
+            List<Closed> roads = (before == null) ? new ArrayList<>() : new ArrayList<>(before);
+            int dropped = 0;
+            for (Iterator<Graph.Edge<T>> it = list.iterator(); it.hasNext(); ) {
+                Graph.Edge<T> edge = it.next();
+                if (edge.getTo().getIndex() == to) {
+                    roads.add(new Closed(from, to, edge.getWayId(), edge.getIndex()));
+                    it.remove();
+                    dropped++;
+                }
+            }
+            if (dropped > 0)
+                closed.put(pair(from, to), roads);
+            return dropped;
+        }
+
+        /**
+         * The edges of a vertex, copied the first time
+         * this edit changes them.
+         */
+        private List<Graph.Edge<T>> edit(int index) {
+            List<Graph.Edge<T>> own = edges.get(index);
+            if (own == null) {
+                own = new ArrayList<>(layer.edgesAt(index));
+                edges.put(index, own);
+            }
+            return own;
+        }
+
+        private static long pair(int a, int b) {
+            return ((long) Math.min(a, b) << 32) | Math.max(a, b);
+        }
+
+        private static <T extends CostObject<T>> Graph.Edge<T> edge(Graph.Vertex<T> from, Graph.Vertex<T> to, int wayId, int index) {
+            try {
+                return Graph.newEdge(from, to, wayId, index);
+            } catch (Graph.SameVerticesException e) {
+                throw (new IllegalArgumentException("A road can not start and end at " + from.getLocation() + "."));
+            }
+        }
+
+    }
+
+    /**
+     * The graph of a base and a layer.
+     */
+    private static class Edited<T extends CostObject<T>> extends Graph<T> {
+
+        private final Graph<T>  base;
+        private final Layer<T>  layer;
+
+        /**
+         * Takes over the taxis and the client of the graph before,
+         * moving the ones on a node that moved, and its version plus one.
+         */
+        Edited(Layer<T> layer, Graph<T> previous) {
+            this.base = layer.base;
+            this.layer = layer;
+            List<Vertex<T>> taxis = new ArrayList<>(previous.getTaxis().size());
+            for (Vertex<T> taxi : previous.getTaxis()) {
+                Integer node = layer.moved.get(taxi.getLocation().key());
+                taxis.add((node == null) ? taxi : new Vertex<>(getVertex(node).getLocation(), taxi.getId()));
+            }
+            T client = previous.getClient();
+            if (client != null && layer.moved.containsKey(client.key()))
+                client = getVertex(layer.moved.get(client.key())).getLocation();
+            setTaxis(taxis, client);
+            setVersion(previous.getVersion() + 1);
+        }
+
+        @Override
+        public Vertex<T> getVertex(int index) {
+            return layer.vertex(index);
+        }
+
+        @Override
+        public int getVertexCount() {
+            return layer.vertexCount;
+        }
+
+        @Override
+        public int getEdgeCount() {
+            return layer.edgeCount;
+        }
+
+        @Override
+        public List<Edge<T>> edgesOf(Vertex<T> vertex) {
+            return layer.edgesOf(vertex);
+        }
+
+        @Override
+        public Vertex<T> findVertex(T location) {
+            int index = layer.find(location);
+            return (index == -1) ? null : layer.vertex(index);
+        }
+
+        /**
+         * The closest of the snap of the base, if that vertex did not
+         * move and still has a road, and of the vertices of the layer
+         * that can be snapped to and have one. If it moved or lost all
+         * its roads, every vertex with a road is looked at.
+         * @throws IllegalStateException If no vertex has a road any more.
+         */
+        @Override
+        protected T findClosest(T loc) {
+            T best = base.snap(loc);
+            double min = best.distance(loc);
+            Vertex<T> snapped = findVertex(best);
+            if (snapped == null || edgesOf(snapped).isEmpty()) {
+                best = null;
+                min = Double.MAX_VALUE;
+                for (int i = 0; i < layer.vertexCount; i++) {
+                    Vertex<T> vertex = layer.vertex(i);
+                    double dist = vertex.getLocation().distance(loc);
+                    if (dist < min && !edgesOf(vertex).isEmpty()) {
+                        min = dist;
+                        best = vertex.getLocation();
+                    }
+                }
+            }
+            for (int i = 0; i < layer.snappableCount; i++) {
+                Vertex<T> vertex = layer.vertex(layer.snappable[i]);
+                double dist = vertex.getLocation().distance(loc);
+                if (dist < min && !edgesOf(vertex).isEmpty()) {
+                    min = dist;
+                    best = vertex.getLocation();
+                }
+            }
+            if (best == null)
+                throw (new IllegalStateException("There is no road left to snap " + loc + " to."));
+            return best.create(best);
+        }
+
+        @Override
+        public void renumber(int[] order) {
+            throw (new UnsupportedOperationException("An edited graph keeps its indices."));
+        }
+
+        @Override
+        public MemoryReport memoryReport() {
+            MemoryReport report = base.memoryReport();
+            report.add("edit layer", layer.size(), "versions", layer.memory(), "layout");
+            return report;
+        }
+
+    }
+
+}
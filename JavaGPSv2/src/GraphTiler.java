@@ -0,0 +1,177 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * Splits a road network into tiles on disk.
+ * The nodes file is read once into a <code>Graph</code> and its
+ * vertices are put in square grid cells of longitude/latitude.
+ * Every non empty cell is written as its own binary tile file,
+ * next to an index of all the tiles, so that a <code>TiledGraph</code>
+ * can later load only the tiles it needs.
+ * </br>
+ * Only the main connected component is written, so tiled
+ * graphs never hold cut off pieces of road. Vertices are
+ * renumbered so that the vertices of a tile have consecutive
+ * indices; edge indices stay the same. An edge is kept
+ * in the tile of the vertex it starts from, together with the
+ * location of the vertex it ends at, so a tile can be loaded on
+ * its own even if its edges lead into other tiles.
+ * </br>
+ * Index file (<code>tiles.idx</code>):
+ * <pre>
+ * double cellSize, int vertexCount, int edgeCount, int tileCount,
+ * tileCount x (int cellX, int cellY, int firstVertex, int vertexCount)
+ * </pre>
+ * Tile file (<code>tile_cellX_cellY.bin</code>):
+ * <pre>
+ * int vertexCount, vertexCount x (double x, double y),
+ * int edgeCount, edgeCount x (int from, int to, int wayId, int edgeIndex, double toX, double toY)
+ * </pre>
+ * where <code>from</code> is local to the tile and <code>to</code> is global.
+ * @see TiledGraph
+ */
+public class GraphTiler {
+
+    public static final String INDEX = "tiles.idx";
+
+    /**
+     * Tiles a nodes file.
+     * Arguments: the nodes file, the output directory and the
+     * size of a cell in degrees (for example 0.02).
+     * @param args The arguments.
+     */
+    public static void main(String[] args) {
+        long startTime = System.currentTimeMillis();
+        int tiles = tile(args[0], args[1], Double.parseDouble(args[2]));
+        System.out.println("Tiles\t\t: " + tiles);
+        System.out.println("Tiling\t\t: " + (System.currentTimeMillis() - startTime) / 1000.0);
+    }
+
+    /**
+     * Tiles a nodes file.
+     * @param nodefile The nodes file.
+     * @param directory The directory the tiles are written to.
+     * @param cellSize The size of a cell in degrees.
+     * @return The number of tiles written.
+     */
+    public static int tile(String nodefile, String directory, double cellSize) {
+        Graph<Coordinates> graph = new Graph<>(nodefile, new Coordinates());
+        int n = graph.getVertexCount();
+        ConnectedComponents components = graph.getComponents();
+
+        /**
+         * Group the vertices by cell, in a fixed order of cells.
+         */
+        TreeMap<Long, List<Integer>> cells = new TreeMap<>();
+        int kept = 0;
+        for (int v = 0; v < n; v++) {
+            if (!components.isMain(v))
+                continue;
+            kept++;
+            Coordinates location = graph.getVertex(v).getLocation();
+            long key = key(cell(location.getX(), cellSize), cell(location.getY(), cellSize));
+            List<Integer> members = cells.get(key);
+            if (members == null) {
+                members = new ArrayList<>();
+                cells.put(key, members);
+            }
+            members.add(v);
+        }
+
+        int[] renumbered = new int[n];
+        int next = 0;
+        for (List<Integer> members : cells.values()) {
+            for (int v : members)
+                renumbered[v] = next++;
+        }
+
+        new File(directory).mkdirs();
+        DataOutputStream index = null;
+        try {
+            index = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(directory, INDEX))));
+            index.writeDouble(cellSize);
+            index.writeInt(kept);
+            index.writeInt(graph.getEdgeCount());
+            index.writeInt(cells.size());
+            for (Map.Entry<Long, List<Integer>> entry : cells.entrySet()) {
+                int cellX = (int) (entry.getKey() >> 32);
+                int cellY = (int) (long) entry.getKey();
+                List<Integer> members = entry.getValue();
+                index.writeInt(cellX);
+                index.writeInt(cellY);
+                index.writeInt(renumbered[members.get(0)]);
+                index.writeInt(members.size());
+                writeTile(graph, members, renumbered, tileFile(directory, cellX, cellY));
+            }
+        } catch (IOException e) {
+            System.out.println("Could not write tiles: " + e.getMessage());
+            System.exit(1);
+        } finally {
+            try {
+                if (index != null) {
+                    index.close();
+                }
+            } catch (IOException e) {
+                System.out.println("Could not close tiles index");
+            }
+        }
+        return cells.size();
+    }
+
+    private static void writeTile(Graph<Coordinates> graph, List<Integer> members, int[] renumbered, File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(members.size());
+            int edges = 0;
+            for (int v : members) {
+                Graph.Vertex<Coordinates> vertex = graph.getVertex(v);
+                out.writeDouble(vertex.getLocation().getX());
+                out.writeDouble(vertex.getLocation().getY());
+                edges += vertex.getEdges().size();
+            }
+            out.writeInt(edges);
+            for (int local = 0; local < members.size(); local++) {
+                for (Graph.Edge<Coordinates> edge : graph.getVertex(members.get(local)).getEdges()) {
+                    Coordinates to = edge.getTo().getLocation();
+                    out.writeInt(local);
+                    out.writeInt(renumbered[edge.getTo().getIndex()]);
+                    out.writeInt(edge.getWayId());
+                    out.writeInt(edge.getIndex());
+                    out.writeDouble(to.getX());
+                    out.writeDouble(to.getY());
+                }
+            }
+        }
+    }
+
+    /**
+     * The cell of a coordinate.
+     * @param coordinate A longitude or latitude.
+     * @param cellSize The size of a cell in degrees.
+     * @return The cell number along that axis.
+     */
+    public static int cell(double coordinate, double cellSize) {
+        return (int) Math.floor(coordinate / cellSize);
+    }
+
+    /**
+     * Packs the two cell numbers of a cell in one key.
+     * @param cellX The cell along the longitude.
+     * @param cellY The cell along the latitude.
+     * @return The key.
+     */
+    public static long key(int cellX, int cellY) {
+        return ((long) cellX << 32) | (cellY & 0xFFFFFFFFL);
+    }
+
+    /**
+     * The file of a tile.
+     * @param directory The directory of the tiles.
+     * @param cellX The cell along the longitude.
+     * @param cellY The cell along the latitude.
+     * @return The tile file.
+     */
+    public static File tileFile(String directory, int cellX, int cellY) {
+        return new File(directory, "tile_" + cellX + "_" + cellY + ".bin");
+    }
+
+}
@@ -0,0 +1,275 @@
+/**
+ * Great circle distances from one point to many points at once.
+ * <code>Coordinates.distance</code> works on one pair and calls
+ * <code>sin</code>, <code>cos</code> and <code>atan2</code> every time,
+ * which is what most of the time of a scan over thousands of points goes to.
+ * Here the points are kept in plain arrays, in radians, with the
+ * cosine of their latitude computed once, and the loops over them
+ * only multiply and add:
+ * <ul>
+ *     <li><code>sin</code> of the half differences is a polynomial, with an
+ *     error below 1e-11 on [-pi/2, pi/2], the only range it is used in.</li>
+ *     <li>Ranking and filtering compare the haversine term itself, which grows
+ *     with the distance, so they need no inverse at all: <code>nearest</code>
+ *     and <code>within</code> never leave the polynomial.</li>
+ *     <li>Only <code>distances</code> turns terms into kilometres, with a
+ *     polynomial <code>asin</code> whose error is below 1e-10 radians.</li>
+ * </ul>
+ * Compared with <code>Coordinates.distance</code> the distances are within
+ * 1e-8 of each other relatively; between points less than a few hundred
+ * kilometres apart they differ by less than a micrometre.
+ * The loops only call small static methods that the JIT inlines,
+ * so a scan over the points touches three arrays and nothing else.
+ * </br>
+ * The JDK Vector API would do the same loops a few lanes at a time,
+ * but it is an incubator module after Java 8 and the code has to
+ * build without it; the loops are written so that switching them
+ * over only means changing the loop bodies.
+ * @see Coordinates
+ */
+public final class Haversine {
+
+    /**
+     * The radius of the Earth in kilometres, as in <code>Coordinates</code>.
+     */
+    public static final double  EARTH_RADIUS = 6371.0;
+
+    private static final double TWO_PI = 2 * Math.PI;
+
+    /**
+     * Taylor coefficients of sin(x)/x in powers of x^2.
+     */
+    private static final double[] SIN = {
+            1.0, -1.0 / 6, 1.0 / 120, -1.0 / 5040, 1.0 / 362880, -1.0 / 39916800, 1.0 / 6227020800.0, -1.0 / 1307674368000.0
+    };
+
+    /**
+     * Taylor coefficients of asin(x)/x in powers of x^2,
+     * enough for an error below 1e-9 up to x = 0.5.
+     */
+    private static final double[] ASIN = new double[14];
+
+    static {
+        double binomial = 1.0;
+        for (int n = 0; n < ASIN.length; n++) {
+            if (n > 0)
+                binomial *= (2.0 * n - 1) / (2.0 * n);
+            ASIN[n] = binomial / (2 * n + 1);
+        }
+    }
+
+    private Haversine() {
+    }
+
+    /**
+     * A sine for |x| <= pi/2.
+     * @param x The angle in radians.
+     * @return Its sine.
+     */
+    static double sin(double x) {
+        double x2 = x * x;
+        double p = SIN[SIN.length - 1];
+        for (int i = SIN.length - 2; i >= 0; i--)
+            p = p * x2 + SIN[i];
+        return x * p;
+    }
+
+    /**
+     * An arcsine for 0 <= x <= 1. Values over 0.5 use
+     * asin(x) = pi/2 - 2 asin(sqrt((1 - x) / 2)), so the
+     * series is always summed where it converges fast.
+     * @param x The sine.
+     * @return The angle in radians.
+     */
+    static double asin(double x) {
+        boolean high = x > 0.5;
+        double s = high ? Math.sqrt((1 - x) / 2) : x;
+        double s2 = s * s;
+        double p = ASIN[ASIN.length - 1];
+        for (int i = ASIN.length - 2; i >= 0; i--)
+            p = p * s2 + ASIN[i];
+        p *= s;
+        return high ? Math.PI / 2 - 2 * p : p;
+    }
+
+    /**
+     * The haversine term of two points: the square of the sine
+     * of half the central angle between them. It grows with
+     * the distance, so it can be compared instead of it.
+     * @param lon1 The longitude of the first point in radians.
+     * @param lat1 The latitude of the first point in radians.
+     * @param cosLat1 The cosine of lat1.
+     * @param lon2 The longitude of the second point in radians.
+     * @param lat2 The latitude of the second point in radians.
+     * @param cosLat2 The cosine of lat2.
+     * @return The haversine term, between 0 and 1.
+     */
+    public static double term(double lon1, double lat1, double cosLat1, double lon2, double lat2, double cosLat2) {
+        double dLon = lon2 - lon1;
+        dLon -= TWO_PI * Math.rint(dLon / TWO_PI);
+        double sLat = sin((lat2 - lat1) * 0.5);
+        double sLon = sin(dLon * 0.5);
+        return sLat * sLat + sLon * sLon * cosLat1 * cosLat2;
+    }
+
+    /**
+     *
+     * @param term A haversine term.
+     * @return The distance in kilometres.
+     */
+    public static double kilometres(double term) {
+        return 2 * EARTH_RADIUS * asin(Math.sqrt(Math.min(1.0, Math.max(0.0, term))));
+    }
+
+    /**
+     *
+     * @param kilometres A distance.
+     * @return The haversine term of two points that far apart.
+     */
+    public static double termOf(double kilometres) {
+        if (kilometres >= Math.PI * EARTH_RADIUS)
+            return 1.0;
+        double s = Math.sin(kilometres / (2 * EARTH_RADIUS));
+        return s * s;
+    }
+
+    /**
+     * A fixed set of points in plain arrays.
+     */
+    public static class Points {
+
+        private final double[]  lons;
+        private final double[]  lats;
+        private final double[]  cosLats;
+
+        /**
+         * Typical constructor.
+         * @param longitudes The longitudes in degrees.
+         * @param latitudes The latitudes in degrees (as many as the longitudes).
+         */
+        public Points(double[] longitudes, double[] latitudes) {
+            if (longitudes.length != latitudes.length)
+                throw (new IllegalArgumentException("Got " + longitudes.length + " longitudes and " + latitudes.length + " latitudes."));
+            int n = longitudes.length;
+            lons = new double[n];
+            lats = new double[n];
+            cosLats = new double[n];
+            for (int i = 0; i < n; i++) {
+                lons[i] = Math.toRadians(longitudes[i]);
+                lats[i] = Math.toRadians(latitudes[i]);
+                cosLats[i] = Math.cos(lats[i]);
+            }
+        }
+
+        /**
+         *
+         * @return The number of points.
+         */
+        public int size() {
+            return lons.length;
+        }
+
+        /**
+         *
+         * @return The bytes taken by the points.
+         */
+        public long memory() {
+            return MemoryReport.shallow(Points.class) + 3 * MemoryReport.array(lons.length, 8);
+        }
+
+        /**
+         * The haversine term between a point and one of the points.
+         * @param i The index of the point.
+         * @param longitude The longitude of the other point in degrees.
+         * @param latitude The latitude of the other point in degrees.
+         * @return The haversine term.
+         */
+        public double term(int i, double longitude, double latitude) {
+            double lat = Math.toRadians(latitude);
+            return Haversine.term(Math.toRadians(longitude), lat, Math.cos(lat), lons[i], lats[i], cosLats[i]);
+        }
+
+        /**
+         * The haversine terms between a point and all the points.
+         * @param longitude The longitude in degrees.
+         * @param latitude The latitude in degrees.
+         * @param out Where the terms go, at least <code>size()</code> long.
+         */
+        public void terms(double longitude, double latitude, double[] out) {
+            terms(0, lons.length, longitude, latitude, out);
+        }
+
+        /**
+         * The haversine terms between a point and a range of the points,
+         * for points kept in groups such as the cells of a grid.
+         * @param from The index of the first point.
+         * @param to The index after the last point.
+         * @param longitude The longitude in degrees.
+         * @param latitude The latitude in degrees.
+         * @param out Where the terms go, the one of point <code>from</code> first,
+         * at least <code>to - from</code> long.
+         */
+        public void terms(int from, int to, double longitude, double latitude, double[] out) {
+            double lon = Math.toRadians(longitude), lat = Math.toRadians(latitude), cosLat = Math.cos(lat);
+            for (int i = from; i < to; i++)
+                out[i - from] = Haversine.term(lon, lat, cosLat, lons[i], lats[i], cosLats[i]);
+        }
+
+        /**
+         * The distances between a point and all the points.
+         * @param longitude The longitude in degrees.
+         * @param latitude The latitude in degrees.
+         * @param out Where the distances in kilometres go, at least <code>size()</code> long.
+         */
+        public void distances(double longitude, double latitude, double[] out) {
+            terms(longitude, latitude, out);
+            for (int i = 0; i < lons.length; i++)
+                out[i] = kilometres(out[i]);
+        }
+
+        /**
+         * Finds the point closest to a point.
+         * @param longitude The longitude in degrees.
+         * @param latitude The latitude in degrees.
+         * @return The index of the closest point (the first one among equals), or -1 if there are no points.
+         */
+        public int nearest(double longitude, double latitude) {
+            double lon = Math.toRadians(longitude), lat = Math.toRadians(latitude), cosLat = Math.cos(lat);
+            int best = -1;
+            double min = Double.POSITIVE_INFINITY;
+            for (int i = 0; i < lons.length; i++) {
+                double term = Haversine.term(lon, lat, cosLat, lons[i], lats[i], cosLats[i]);
+                if (term < min) {
+                    min = term;
+                    best = i;
+                }
+            }
+            return best;
+        }
+
+        /**
+         * Finds the points within a haversine term of a point.
+         * Use <code>termOf</code> to filter by kilometres.
+         * @param longitude The longitude in degrees.
+         * @param latitude The latitude in degrees.
+         * @param maxTerm The largest haversine term kept.
+         * @param out Where the indices of the points found go, in order.
+         * @return How many points were found; only the first
+         * <code>out.length</code> of them are in <code>out</code>.
+         */
+        public int within(double longitude, double latitude, double maxTerm, int[] out) {
+            double lon = Math.toRadians(longitude), lat = Math.toRadians(latitude), cosLat = Math.cos(lat);
+            int found = 0;
+            for (int i = 0; i < lons.length; i++) {
+                if (Haversine.term(lon, lat, cosLat, lons[i], lats[i], cosLats[i]) <= maxTerm) {
+                    if (found < out.length)
+                        out[found] = i;
+                    found++;
+                }
+            }
+            return found;
+        }
+
+    }
+
+}
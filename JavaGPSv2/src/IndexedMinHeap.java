@@ -0,0 +1,271 @@
+import java.util.Arrays;
+
+/**
+ * A binary min heap of vertex indices.
+ * Each index in the heap has a <code>double</code> key,
+ * and the position of every index is kept in an array,
+ * so that the key of an index already in the heap can be
+ * decreased in place. No objects are created per entry.
+ * </br>
+ * Indices with equal keys come out in no particular order,
+ * unless they are given a tie breaker with <code>set</code>:
+ * then the smaller tie breaker comes out first. The array of
+ * tie breakers is only made the first time one is given.
+ * @see ShortestPathTree
+ * @see PrioQueue
+ */
+public class IndexedMinHeap {
+
+    private final int[]     heap;
+    private final int[]     position;
+    private final double[]  keys;
+    private long[]          ties;
+    private int             size;
+
+    /**
+     * Typical constructor.
+     * @param capacity The number of possible indices (0 to capacity - 1).
+     */
+    public IndexedMinHeap(int capacity) {
+        heap = new int[capacity];
+        position = new int[capacity];
+        keys = new double[capacity];
+        Arrays.fill(position, -1);
+        size = 0;
+    }
+
+    /**
+     * Adds an index, or decreases its key if it is
+     * already in the heap with a bigger key.
+     * @param index The index.
+     * @param key The key.
+     * @return true iff the heap changed.
+     */
+    public boolean push(int index, double key) {
+        int pos = position[index];
+        if (pos == -1) {
+            pos = size++;
+            heap[pos] = index;
+            position[index] = pos;
+        } else if (key >= keys[index]) {
+            return false;
+        }
+        keys[index] = key;
+        siftUp(pos);
+        return true;
+    }
+
+    /**
+     * Adds an index, or changes its key and tie breaker
+     * if it is already in the heap, up or down.
+     * @param index The index.
+     * @param key The key.
+     * @param tie The tie breaker among equal keys (smaller first).
+     */
+    public void set(int index, double key, long tie) {
+        if (ties == null)
+            ties = new long[keys.length];
+        int pos = position[index];
+        keys[index] = key;
+        ties[index] = tie;
+        if (pos == -1) {
+            pos = size++;
+            heap[pos] = index;
+            position[index] = pos;
+            siftUp(pos);
+        } else {
+            siftUp(pos);
+            siftDown(position[index]);
+        }
+    }
+
+    /**
+     * Takes an index out of the heap, wherever it is.
+     * @param index The index.
+     * @return true iff it was in the heap.
+     */
+    public boolean remove(int index) {
+        int pos = position[index];
+        if (pos == -1)
+            return false;
+        position[index] = -1;
+        size--;
+        if (pos < size) {
+            int moved = heap[size];
+            heap[pos] = moved;
+            position[moved] = pos;
+            siftUp(pos);
+            siftDown(position[moved]);
+        }
+        return true;
+    }
+
+    /**
+     * Removes the index with the smallest key.
+     * @return The index. {Default: -1 if empty}.
+     */
+    public int poll() {
+        if (size == 0)
+            return -1;
+        int first = heap[0];
+        position[first] = -1;
+        size--;
+        if (size > 0) {
+            heap[0] = heap[size];
+            position[heap[0]] = 0;
+            siftDown(0);
+        }
+        return first;
+    }
+
+    /**
+     *
+     * @return The index with the smallest key. {Default: -1 if empty}.
+     */
+    public int peek() {
+        return (size == 0) ? -1 : heap[0];
+    }
+
+    /**
+     *
+     * @return The smallest key in the heap.
+     */
+    public double peekKey() {
+        return keys[heap[0]];
+    }
+
+    /**
+     *
+     * @param index The index.
+     * @return The last key given to this index.
+     */
+    public double getKey(int index) {
+        return keys[index];
+    }
+
+    /**
+     *
+     * @param index The index.
+     * @return The last tie breaker given to this index, 0 if none ever was.
+     */
+    public long getTie(int index) {
+        return (ties == null) ? 0 : ties[index];
+    }
+
+    /**
+     *
+     * @param index The index.
+     * @return true iff the index is in the heap.
+     */
+    public boolean contains(int index) {
+        return position[index] != -1;
+    }
+
+    /**
+     *
+     * @return true iff the heap is empty.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     *
+     * @return The number of indices in the heap.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     *
+     * @param i A position in the heap, from 0 to size - 1.
+     * @return The index at that position.
+     */
+    public int at(int i) {
+        return heap[i];
+    }
+
+    /**
+     *
+     * @return The bytes taken by the heap.
+     */
+    public long memory() {
+        return MemoryReport.shallow(IndexedMinHeap.class) + 2 * MemoryReport.array(heap.length, 4)
+                + MemoryReport.array(keys.length, 8) + ((ties == null) ? 0 : MemoryReport.array(ties.length, 8));
+    }
+
+    /**
+     * Checks that every index is where its position says
+     * and comes after its parent.
+     * @return true, so it can be used in an <code>assert</code>.
+     * @throws IllegalStateException If something is wrong.
+     */
+    public boolean checkInvariants() {
+        for (int pos = 0; pos < size; pos++) {
+            int index = heap[pos];
+            if (position[index] != pos)
+                throw (new IllegalStateException("Index " + index + " at " + pos + " has position " + position[index]));
+            if (Double.isNaN(keys[index]))
+                throw (new IllegalStateException("NaN key for " + index));
+            if (pos > 0 && before(index, heap[(pos - 1) >>> 1]))
+                throw (new IllegalStateException("Index " + index + " comes before its parent"));
+        }
+        return true;
+    }
+
+    /**
+     * Empties the heap.
+     * Only the positions of the indices still in the
+     * heap are reset, so this is cheap after a search.
+     */
+    public void clear() {
+        for (int i = 0; i < size; i++)
+            position[heap[i]] = -1;
+        size = 0;
+    }
+
+    private void siftUp(int pos) {
+        int index = heap[pos];
+        while (pos > 0) {
+            int parent = (pos - 1) >>> 1;
+            int other = heap[parent];
+            if (!before(index, other))
+                break;
+            heap[pos] = other;
+            position[other] = pos;
+            pos = parent;
+        }
+        heap[pos] = index;
+        position[index] = pos;
+    }
+
+    private void siftDown(int pos) {
+        int index = heap[pos];
+        int half = size >>> 1;
+        while (pos < half) {
+            int child = 2 * pos + 1;
+            int right = child + 1;
+            if (right < size && before(heap[right], heap[child]))
+                child = right;
+            int other = heap[child];
+            if (!before(other, index))
+                break;
+            heap[pos] = other;
+            position[other] = pos;
+            pos = child;
+        }
+        heap[pos] = index;
+        position[index] = pos;
+    }
+
+    /**
+     * Whether an index comes out before another: a smaller
+     * key, or the same key and a smaller tie breaker.
+     */
+    private boolean before(int a, int b) {
+        double ka = keys[a], kb = keys[b];
+        return ka < kb || (ka == kb && ties != null && ties[a] < ties[b]);
+    }
+
+}
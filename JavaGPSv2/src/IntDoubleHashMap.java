@@ -0,0 +1,191 @@
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A hash map from int keys to double values with no boxing.
+ * Keys and values are kept in two plain arrays and collisions
+ * are solved by linear probing, so <code>get</code> and
+ * <code>put</code> allocate nothing and the map can be cleared
+ * and filled again for every search without making garbage.
+ * Removal moves the following keys back into the freed slot,
+ * so there are no tombstones and lookups stay short.
+ * </br>
+ * Any int is a valid key except <code>Integer.MIN_VALUE</code>,
+ * which marks the free slots.
+ */
+public class IntDoubleHashMap {
+
+    private static final int    FREE = Integer.MIN_VALUE;
+    private static final float  LOAD_FACTOR = 0.75f;
+
+    private int[]       keys;
+    private double[]    values;
+    private int         size;
+    private int         mask;
+
+    /**
+     * Typical constructor.
+     * @param expected How many keys are expected, to avoid growing.
+     */
+    public IntDoubleHashMap(int expected) {
+        int capacity = 16;
+        while (capacity * LOAD_FACTOR < expected)
+            capacity <<= 1;
+        allocate(capacity);
+    }
+
+    /**
+     *
+     * @param key The key.
+     * @return true iff the key has a value.
+     */
+    public boolean containsKey(int key) {
+        return slotOf(key) >= 0;
+    }
+
+    /**
+     *
+     * @param key The key.
+     * @return The value of the key or NaN if there is none.
+     */
+    public double get(int key) {
+        int slot = slotOf(key);
+        return (slot < 0) ? Double.NaN : values[slot];
+    }
+
+    /**
+     * Puts a value, replacing the old value of the key if any.
+     * @param key The key.
+     * @param value The value.
+     */
+    public void put(int key, double value) {
+        if (key == FREE)
+            throw (new IllegalArgumentException("Integer.MIN_VALUE can not be a key."));
+        int slot = hash(key) & mask;
+        while (keys[slot] != FREE) {
+            if (keys[slot] == key) {
+                values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > keys.length * LOAD_FACTOR)
+            grow();
+    }
+
+    /**
+     * Removes a key and its value.
+     * @param key The key.
+     * @return true iff the key had a value.
+     */
+    public boolean remove(int key) {
+        int slot = slotOf(key);
+        if (slot < 0)
+            return false;
+        /**
+         * Move back every key after the freed slot that
+         * would not be found any more across the gap.
+         */
+        int gap = slot;
+        int next = (gap + 1) & mask;
+        while (keys[next] != FREE) {
+            int home = hash(keys[next]) & mask;
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[gap] = FREE;
+        size--;
+        return true;
+    }
+
+    /**
+     * Gives every key to an action, in no particular order.
+     * The map must not change while this runs.
+     * @param action The action.
+     */
+    public void forEachKey(IntConsumer action) {
+        for (int key : keys) {
+            if (key != FREE)
+                action.accept(key);
+        }
+    }
+
+    /**
+     *
+     * @return The number of keys.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     *
+     * @return true iff there are no keys.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     *
+     * @return The bytes taken by the map and its arrays.
+     */
+    public long memory() {
+        return MemoryReport.shallow(IntDoubleHashMap.class) + MemoryReport.array(keys.length, 4) + MemoryReport.array(values.length, 8);
+    }
+
+    /**
+     * Removes all keys, keeping the arrays.
+     */
+    public void clear() {
+        if (size == 0)
+            return;
+        Arrays.fill(keys, FREE);
+        size = 0;
+    }
+
+    private int slotOf(int key) {
+        int slot = hash(key) & mask;
+        while (keys[slot] != FREE) {
+            if (keys[slot] == key)
+                return slot;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new double[capacity];
+        Arrays.fill(keys, FREE);
+        mask = capacity - 1;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        double[] oldValues = values;
+        allocate(keys.length << 1);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE)
+                put(oldKeys[i], oldValues[i]);
+        }
+    }
+
+    /**
+     * Spreads the bits of the key, as vertex indices
+     * that are close together would otherwise fill
+     * one run of slots.
+     */
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+}
@@ -0,0 +1,124 @@
+import java.util.Arrays;
+
+/**
+ * A hash map from long keys to int values with no boxing.
+ * Keys and values are kept in two plain arrays and collisions
+ * are solved by linear probing, so a lookup reads one or two
+ * neighbouring slots and allocates nothing. The map only holds
+ * values that are not negative, and -1 means "no value"; that is
+ * all the <code>Graph</code> needs to map locations to vertex indices.
+ * There is no removal.
+ */
+public class LongIntHashMap {
+
+    private static final float  LOAD_FACTOR = 0.75f;
+
+    private long[]  keys;
+    private int[]   values;
+    private int     size;
+    private int     mask;
+
+    /**
+     * Typical constructor.
+     * @param expected How many keys are expected, to avoid growing.
+     */
+    public LongIntHashMap(int expected) {
+        int capacity = 16;
+        while (capacity * LOAD_FACTOR < expected)
+            capacity <<= 1;
+        allocate(capacity);
+    }
+
+    /**
+     *
+     * @param key The key.
+     * @return The value of the key or -1 if there is none.
+     */
+    public int get(long key) {
+        int slot = hash(key) & mask;
+        while (values[slot] != -1) {
+            if (keys[slot] == key)
+                return values[slot];
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Puts a value, replacing the old value of the key if any.
+     * @param key The key.
+     * @param value The value, 0 or more.
+     */
+    public void put(long key, int value) {
+        if (value < 0)
+            throw (new IllegalArgumentException("Values must not be negative."));
+        int slot = hash(key) & mask;
+        while (values[slot] != -1) {
+            if (keys[slot] == key) {
+                values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > keys.length * LOAD_FACTOR)
+            grow();
+    }
+
+    /**
+     *
+     * @return The number of keys.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     *
+     * @return The bytes taken by the map and its arrays.
+     */
+    public long memory() {
+        return MemoryReport.shallow(LongIntHashMap.class) + MemoryReport.array(keys.length, 8) + MemoryReport.array(values.length, 4);
+    }
+
+    /**
+     * Removes all keys, keeping the arrays.
+     */
+    public void clear() {
+        Arrays.fill(values, -1);
+        size = 0;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(values, -1);
+        mask = capacity - 1;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(keys.length << 1);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != -1)
+                put(oldKeys[i], oldValues[i]);
+        }
+    }
+
+    /**
+     * Mixes all the bits of the key, so keys that
+     * differ only in a few bits still spread out.
+     */
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+}
@@ -0,0 +1,263 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * How many bytes the structures of a graph or of a search take.
+ * Every structure adds one line, with the number of units it
+ * holds (vertices, edges, keys...) and its size. A size is:
+ * <ul>
+ *     <li><b>exact</b> for plain arrays and for the classes made of them
+ *     (<code>LongIntHashMap</code>, <code>ConnectedComponents</code>...):
+ *     an array takes its header and its elements, rounded up to 8 bytes.</li>
+ *     <li><b>layout</b> for objects that all have the same shape, like edges:
+ *     the size of one object, from its fields, times the count.</li>
+ *     <li><b>sampled</b> for objects whose size differs, like vertices with their
+ *     lists of edges: the average of up to <code>SAMPLE</code> of them, spread
+ *     evenly over all of them, times the count.</li>
+ * </ul>
+ * Object sizes follow the HotSpot layout: a 12 byte header and 4 byte
+ * references with compressed oops (heaps under 32 GB), else 16 and 8.
+ * Collections of the JDK are not read by reflection (they are closed
+ * to it after Java 8) but sized from the way they grow.
+ * </br>
+ * With bytes per vertex and per edge, the memory of the graph of
+ * any other nodes file is a multiplication. <code>jvm</code> gives
+ * what the heap and the garbage collectors actually did, to check
+ * the estimate against.
+ */
+public class MemoryReport {
+
+    /**
+     * How many objects are looked at for a sampled size.
+     */
+    public static final int     SAMPLE = 1000;
+
+    /**
+     * True if references take 4 bytes.
+     */
+    public static final boolean COMPRESSED = compressedOops();
+    public static final int     REFERENCE = COMPRESSED ? 4 : 8;
+    public static final int     HEADER = COMPRESSED ? 12 : 16;
+    public static final int     ARRAY_HEADER = 16;
+
+    private static final Map<Class<?>, Long>    SHALLOW = new ConcurrentHashMap<>();
+
+    private final String        title;
+    private final List<Line>    lines;
+
+    /**
+     * Typical constructor.
+     * @param title What the report is about.
+     */
+    public MemoryReport(String title) {
+        this.title = title;
+        lines = new ArrayList<>();
+    }
+
+    /**
+     * Adds the size of a structure.
+     * @param structure The name of the structure.
+     * @param count How many units it holds.
+     * @param unit What a unit is.
+     * @param bytes Its size in bytes.
+     * @param how <code>exact</code>, <code>layout</code> or <code>sampled</code>.
+     */
+    public void add(String structure, long count, String unit, long bytes, String how) {
+        lines.add(new Line(structure, count, unit, bytes, how));
+    }
+
+    /**
+     *
+     * @return The sum of the sizes of all the structures.
+     */
+    public long getTotal() {
+        long total = 0;
+        for (Line line : lines)
+            total += line.bytes;
+        return total;
+    }
+
+    /**
+     *
+     * @param structure The name of a structure.
+     * @return Its size in bytes, or 0 if it is not in the report.
+     */
+    public long getBytes(String structure) {
+        for (Line line : lines) {
+            if (line.structure.equals(structure))
+                return line.bytes;
+        }
+        return 0;
+    }
+
+    /**
+     * The report as a table, one structure per line,
+     * with its bytes per unit and the total.
+     * @return The table.
+     */
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder();
+        report.append(title).append(" (").append(COMPRESSED ? "compressed" : "plain").append(" oops)\n");
+        report.append(String.format("%-16s %12s %-10s %14s %10s  %s%n", "Structure", "Count", "Unit", "Bytes", "Per unit", "How"));
+        for (Line line : lines) {
+            report.append(String.format("%-16s %12d %-10s %14d %10.1f  %s%n", line.structure, line.count, line.unit,
+                    line.bytes, (line.count == 0) ? 0.0 : (double) line.bytes / line.count, line.how));
+        }
+        report.append(String.format("%-16s %12s %-10s %14d %10s  (%.1f MB)%n", "Total", "", "", getTotal(), "", getTotal() / 1048576.0));
+        return report.toString();
+    }
+
+    /**
+     * The size of an array.
+     * @param length The number of elements.
+     * @param elementBytes The size of one element (REFERENCE for objects).
+     * @return The size in bytes.
+     */
+    public static long array(long length, int elementBytes) {
+        return align(ARRAY_HEADER + length * elementBytes);
+    }
+
+    /**
+     * The size of an object of a shape not known by reflection.
+     * @param references The number of reference fields.
+     * @param primitiveBytes The bytes of all its primitive fields.
+     * @return The size in bytes.
+     */
+    public static long object(int references, int primitiveBytes) {
+        return align(HEADER + (long) references * REFERENCE + primitiveBytes);
+    }
+
+    /**
+     * The size of an object of a class, without what it refers to.
+     * It adds up the instance fields of the class and its
+     * superclasses; field packing may make it a little smaller.
+     * @param type The class.
+     * @return The size in bytes.
+     */
+    public static long shallow(Class<?> type) {
+        Long known = SHALLOW.get(type);
+        if (known != null)
+            return known;
+        long bytes = HEADER;
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers()))
+                    continue;
+                Class<?> t = field.getType();
+                if (t == long.class || t == double.class)
+                    bytes += 8;
+                else if (t == int.class || t == float.class)
+                    bytes += 4;
+                else if (t == short.class || t == char.class)
+                    bytes += 2;
+                else if (t == byte.class || t == boolean.class)
+                    bytes += 1;
+                else
+                    bytes += REFERENCE;
+            }
+        }
+        bytes = align(bytes);
+        SHALLOW.put(type, bytes);
+        return bytes;
+    }
+
+    /**
+     * The size of an <code>ArrayList</code> and its array, for a list
+     * that grew from empty one element at a time: the array starts
+     * at 10 elements and grows by half each time it is full.
+     * @param size The number of elements.
+     * @return The size in bytes, without the elements.
+     */
+    public static long arrayList(int size) {
+        long capacity = 0;
+        if (size > 0) {
+            capacity = 10;
+            while (capacity < size)
+                capacity += capacity >> 1;
+        }
+        return object(2, 8) + array(capacity, REFERENCE);
+    }
+
+    /**
+     * The size of a <code>HashMap</code>, its table and its nodes,
+     * for a map that grew from the default capacity: the table
+     * doubles whenever it is three quarters full.
+     * @param size The number of entries.
+     * @return The size in bytes, without the keys and the values.
+     */
+    public static long hashMap(int size) {
+        long table = 16;
+        while (table * 0.75 < size)
+            table <<= 1;
+        return object(4, 16) + array(table, REFERENCE) + size * object(3, 4);
+    }
+
+    /**
+     * The size of an <code>ArrayList</code> made with the right capacity.
+     * @param size The number of elements.
+     * @return The size in bytes, without the elements.
+     */
+    public static long presizedList(int size) {
+        return object(2, 8) + array(size, REFERENCE);
+    }
+
+    /**
+     * What the heap and the garbage collectors did so far.
+     * @return A few lines of text.
+     */
+    public static String jvm() {
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("Heap used %.1f MB, committed %.1f MB, max %.1f MB%n",
+                heap.getUsed() / 1048576.0, heap.getCommitted() / 1048576.0, heap.getMax() / 1048576.0));
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            report.append(String.format("GC %s: %d collections, %d ms%n", gc.getName(), gc.getCollectionCount(), gc.getCollectionTime()));
+        return report.toString();
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    /**
+     * Asks HotSpot whether oops are compressed. Other JVMs, or
+     * a HotSpot without the management module, are guessed from
+     * the largest heap, as HotSpot compresses them under 32 GB.
+     */
+    private static boolean compressedOops() {
+        try {
+            com.sun.management.HotSpotDiagnosticMXBean hotspot =
+                    ManagementFactory.getPlatformMXBean(com.sun.management.HotSpotDiagnosticMXBean.class);
+            return Boolean.parseBoolean(hotspot.getVMOption("UseCompressedOops").getValue());
+        } catch (RuntimeException | LinkageError e) {
+            return Runtime.getRuntime().maxMemory() < (32L << 30);
+        }
+    }
+
+    private static class Line {
+
+        private final String    structure;
+        private final long      count;
+        private final String    unit;
+        private final long      bytes;
+        private final String    how;
+
+        Line(String structure, long count, String unit, long bytes, String how) {
+            this.structure = structure;
+            this.count = count;
+            this.unit = unit;
+            this.bytes = bytes;
+            this.how = how;
+        }
+
+    }
+
+}
@@ -0,0 +1,137 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the vertex orders of <code>VertexOrder</code>.
+ * The graph and its taxis are loaded again for every order,
+ * renumbered and then searched: every search is a whole
+ * <code>AStar.solve</code> from all the taxis to a random client,
+ * once with a fixed beam and once with an adaptive one. The
+ * A* reads the vertices, edges and scores of its neighbours one
+ * after the other, so how fast it runs depends a lot on where the
+ * vertices sit in memory. The clients are the same locations for
+ * every order and every beam.
+ * </br>
+ * For each order it prints the mean index distance of
+ * an edge (a measure of how far apart neighbours are kept)
+ * and the solves per second and milliseconds per solve of
+ * each beam. To see the cache misses themselves, run it once
+ * per order under a profiler such as
+ * <code>perf stat -e cache-misses java OrderBenchmark ...</code>.
+ * </br>
+ * The <code>random</code> order shuffles the vertices, as a baseline
+ * for sources that number nodes by id with neighbours far apart.
+ * A nodes file written way after way, as ours are, is already close
+ * to a good order. Measured with 12 taxis, one JVM per order,
+ * milliseconds per solve over two runs (beam 64 / auto):
+ * <ul>
+ *     <li>479660 rows, 200 solves: random (edge span 106588) 295-324 / 193-223,
+ *     input (267) 158-172 / 124-134, bfs (333) 170-185 / 120-131,
+ *     hilbert (326) 160-166 / 106-118.</li>
+ *     <li>10800 rows, 1000 solves: random (2399) 7.1-7.8 / 4.6-5.0,
+ *     input (40) 6.5-6.9 / 3.6-4.8, bfs (50) 7.2-7.4 / 3.9-4.1,
+ *     hilbert (49) 7.0-7.3 / 3.9-4.2.</li>
+ * </ul>
+ * So on the large graph both orders solve about twice as fast as
+ * the shuffled one with beam 64 and 1.5 to 2 times as fast with
+ * <code>auto</code>. Against the order of the file they are within
+ * the noise, hilbert a little ahead with <code>auto</code>. The
+ * small graph fits in the cache, and all orders run alike.
+ * </br>
+ * Arguments: the nodes file, the taxis file, the number of
+ * searches, and optionally the orders to run (random, input,
+ * bfs, hilbert; all of them if none are given).
+ */
+public class OrderBenchmark {
+
+    private static final int        WARMUP = 20;
+    private static final String[]   BEAMS = {"64", AStar.AUTO};
+
+    public static void main(String[] args) {
+        String nodefile = args[0];
+        String taxifile = args[1];
+        int searches = Integer.parseInt(args[2]);
+        List<String> orders = new ArrayList<>();
+        for (int i = 3; i < args.length; i++)
+            orders.add(args[i]);
+        if (orders.isEmpty()) {
+            orders.add("random");
+            orders.add("input");
+            orders.add("bfs");
+            orders.add("hilbert");
+        }
+
+        List<Coordinates> clients = null;
+        System.out.println("Order, Edge Span, Beam, Solves/s, ms/Solve");
+        for (String order : orders) {
+            Graph<Coordinates> graph = new Graph<>(nodefile, taxifile, new Coordinates());
+            if (clients == null)
+                clients = pickClients(graph, searches + WARMUP);
+            graph.renumber(order(graph, order));
+            System.gc();
+
+            double span = VertexOrder.meanEdgeSpan(graph);
+            for (String beam : BEAMS) {
+                AStar<Coordinates> astar = new AStar<>();
+                for (int i = 0; i < WARMUP; i++)
+                    astar.solve(graph, beam, clients.get(i), null);
+                long startTime = System.nanoTime();
+                for (int i = WARMUP; i < clients.size(); i++)
+                    astar.solve(graph, beam, clients.get(i), null);
+                double seconds = (System.nanoTime() - startTime) / 1e9;
+                System.out.println(order + ", " + span + ", " + beam + ", "
+                        + searches / seconds + ", " + seconds * 1000 / searches);
+            }
+        }
+    }
+
+    private static int[] order(Graph<Coordinates> graph, String name) {
+        switch (name) {
+            case "bfs":
+                return VertexOrder.bfs(graph);
+            case "hilbert":
+                return VertexOrder.hilbert(graph);
+            case "input":
+                return VertexOrder.identity(graph);
+            case "random":
+                return shuffled(graph.getVertexCount());
+            default:
+                System.out.println("Unknown order " + name + "!");
+                System.exit(1);
+                return null;
+        }
+    }
+
+    /**
+     * Vertices in no order at all, as they come from sources that
+     * number nodes by id, for a baseline where neighbours are far
+     * apart. Always the same order, from a fixed seed.
+     */
+    private static int[] shuffled(int n) {
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++)
+            order[i] = i;
+        Random rand = new Random(2);
+        for (int i = n - 1; i > 0; i--) {
+            int j = rand.nextInt(i + 1);
+            int t = order[i];
+            order[i] = order[j];
+            order[j] = t;
+        }
+        return order;
+    }
+
+    private static List<Coordinates> pickClients(Graph<Coordinates> graph, int count) {
+        Random rand = new Random(1);
+        ConnectedComponents components = graph.getComponents();
+        List<Coordinates> clients = new ArrayList<>(count);
+        while (clients.size() < count) {
+            int v = rand.nextInt(graph.getVertexCount());
+            if (components.isMain(v))
+                clients.add(graph.getVertex(v).getLocation());
+        }
+        return clients;
+    }
+
+}
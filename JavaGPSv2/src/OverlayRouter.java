@@ -0,0 +1,546 @@
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * A multi-level overlay router (customizable route planning).
+ * The work is split in three phases:
+ * <ul>
+ *     <li>Partition (once): the vertices are split in cells on a number
+ *     of levels, every cell of a level lying inside one cell of the next.
+ *     The partition does not depend on the weights. A vertex is a boundary
+ *     vertex of a level if one of its edges leads into another cell of it.</li>
+ *     <li>Customization (every time the weights change): for every cell the
+ *     cost between each pair of its boundary vertices is computed. Level 1
+ *     searches the roads inside the cell, higher levels search the costs of
+ *     the level below, so this is fast, and cells of a level are done in parallel.</li>
+ *     <li>Query: a bidirectional Dijkstra that uses the roads only inside the
+ *     cells of the source and the target, and jumps over every other cell
+ *     through the costs of the highest level that holds neither of them.</li>
+ * </ul>
+ * The costs are kept per cell as flat <code>double[]</code> matrices. A new
+ * customization builds new matrices and publishes them at once, so queries
+ * never see half of an update. Customization runs again by itself on the
+ * first query after the version of the <code>Graph</code> changes. It takes
+ * one <code>snapshot</code> of the weighting, which the queries of its costs
+ * also use for the roads inside the cells of the source and the target, so
+ * a route never mixes costs of before and after a traffic update.
+ * </br>
+ * Routes are exact for the weighting given, which must not be time dependent.
+ * @param <T> The type of the object the graph contains.
+ * @see Weighting
+ */
+public class OverlayRouter<T extends CostObject<T>> {
+
+    private final Graph<T>              graph;
+    private final Weighting<T>          weighting;
+    private final int                   levels;
+    private final int[]                 cellCount;
+    private final int[][]               cell;
+    private final int[][]               boundaryPos;
+    private final int[][][]             boundary;
+    private final int[][]               local;
+    private final int[][][]             nodes;
+    private final ThreadLocal<SearchState> states;
+    private volatile Metric             metric;
+    private long                        customizeTime;
+
+    /**
+     * Typical constructor.
+     * Builds the overlay and runs the first customization.
+     * @param graph The graph.
+     * @param weighting The weighting of the edges (not time dependent).
+     * @param partition A cell label for every vertex index on each level,
+     *                  lowest level first; the cells must be nested.
+     */
+    public OverlayRouter(Graph<T> graph, Weighting<T> weighting, int[][] partition) {
+        if (weighting.isTimeDependent())
+            throw (new IllegalArgumentException("Overlay costs need a weighting that does not depend on time."));
+        this.graph = graph;
+        this.weighting = weighting;
+        levels = partition.length;
+        int n = graph.getVertexCount();
+
+        /**
+         * Levels are numbered from 1; index 0 is left empty.
+         */
+        cellCount = new int[levels + 1];
+        cell = new int[levels + 1][];
+        boundaryPos = new int[levels + 1][];
+        boundary = new int[levels + 1][][];
+        local = new int[levels + 1][];
+        nodes = new int[levels + 1][][];
+
+        for (int l = 1; l <= levels; l++) {
+            Map<Integer, Integer> dense = new HashMap<>();
+            cell[l] = new int[n];
+            for (int v = 0; v < n; v++) {
+                Integer id = dense.get(partition[l - 1][v]);
+                if (id == null) {
+                    id = dense.size();
+                    dense.put(partition[l - 1][v], id);
+                }
+                cell[l][v] = id;
+            }
+            cellCount[l] = dense.size();
+
+            List<List<Integer>> border = lists(cellCount[l]);
+            boundaryPos[l] = new int[n];
+            for (int v = 0; v < n; v++) {
+                boundaryPos[l][v] = -1;
+                for (Graph.Edge<T> edge : graph.edgesOf(graph.getVertex(v))) {
+                    if (cell[l][edge.getTo().getIndex()] != cell[l][v]) {
+                        boundaryPos[l][v] = border.get(cell[l][v]).size();
+                        border.get(cell[l][v]).add(v);
+                        break;
+                    }
+                }
+            }
+            boundary[l] = toArrays(border);
+
+            /**
+             * The vertices searched inside a cell: all of them on level 1,
+             * the boundary vertices of the cells one level below otherwise.
+             */
+            List<List<Integer>> inside = lists(cellCount[l]);
+            local[l] = new int[n];
+            for (int v = 0; v < n; v++) {
+                local[l][v] = -1;
+                if (l == 1 || boundaryPos[l - 1][v] >= 0) {
+                    local[l][v] = inside.get(cell[l][v]).size();
+                    inside.get(cell[l][v]).add(v);
+                }
+            }
+            nodes[l] = toArrays(inside);
+        }
+
+        states = new ThreadLocal<SearchState>() {
+            @Override
+            protected SearchState initialValue() {
+                return new SearchState(graph.getVertexCount());
+            }
+        };
+        customize();
+    }
+
+    /**
+     * A partition of a graph in a grid of longitude/latitude cells.
+     * Level 1 uses cells of the size given and every level above
+     * uses cells twice as large on each side, so cells are nested.
+     * @param graph The graph.
+     * @param cellSize The size of a level 1 cell in degrees.
+     * @param levels The number of levels.
+     * @return The cell label of every vertex on each level.
+     */
+    public static int[][] gridPartition(Graph<Coordinates> graph, double cellSize, int levels) {
+        int n = graph.getVertexCount();
+        int[][] partition = new int[levels][n];
+        for (int l = 0; l < levels; l++) {
+            Map<Long, Integer> labels = new HashMap<>();
+            double size = cellSize * (1 << l);
+            for (int v = 0; v < n; v++) {
+                Coordinates location = graph.getVertex(v).getLocation();
+                long key = GraphTiler.key(GraphTiler.cell(location.getX(), size), GraphTiler.cell(location.getY(), size));
+                Integer label = labels.get(key);
+                if (label == null) {
+                    label = labels.size();
+                    labels.put(key, label);
+                }
+                partition[l][v] = label;
+            }
+        }
+        return partition;
+    }
+
+    /**
+     * Computes the costs between the boundary vertices of every cell
+     * for the current weights, level by level, the cells of each level
+     * in parallel, and publishes them.
+     */
+    public synchronized void customize() {
+        long startTime = System.currentTimeMillis();
+        long version = graph.getVersion();
+        Weighting<T> pinned = weighting.snapshot();
+        final double[][][] clique = new double[levels + 1][][];
+        for (int l = 1; l <= levels; l++) {
+            final int level = l;
+            clique[level] = new double[cellCount[level]][];
+            IntStream.range(0, cellCount[level]).parallel().forEach(c -> clique[level][c] = customizeCell(pinned, level, c, clique));
+        }
+        metric = new Metric(version, pinned, clique);
+        customizeTime = System.currentTimeMillis() - startTime;
+    }
+
+    /**
+     * The shortest route between two vertices.
+     * @param source The index of the first vertex.
+     * @param target The index of the last vertex.
+     * @return The route or null if the target cannot be reached.
+     */
+    public Route<T> route(int source, int target) {
+        return route(source, target, null);
+    }
+
+    /**
+     * The shortest route between two vertices, within the limits
+     * of a query: every vertex settled on either side counts as an
+     * expansion, and a search that is stopped finds no route.
+     * @param source The index of the first vertex.
+     * @param target The index of the last vertex.
+     * @param query The limits of the search (null for none).
+     * @return The route or null if the target cannot be reached or the query stopped.
+     */
+    public Route<T> route(int source, int target, Query query) {
+        Metric m = current();
+        SearchState q = states.get();
+        int meet = search(m, q, source, target, query);
+        if (meet == -1) {
+            q.reset();
+            return null;
+        }
+        double cost = q.forward[meet] + q.backward[meet];
+
+        /**
+         * The arcs from the source to the meeting vertex and from there
+         * to the target, with the level of each arc (0 for a road).
+         */
+        List<int[]> arcs = new ArrayList<>();
+        for (int v = meet; v != source; v = q.forwardParent[v])
+            arcs.add(new int[] {q.forwardParent[v], v, q.forwardLevel[v]});
+        Collections.reverse(arcs);
+        for (int v = meet; v != target; v = q.backwardParent[v])
+            arcs.add(new int[] {v, q.backwardParent[v], q.backwardLevel[v]});
+        q.reset();
+
+        List<Integer> path = new ArrayList<>();
+        path.add(source);
+        for (int[] arc : arcs) {
+            if (arc[2] == 0)
+                path.add(arc[1]);
+            else
+                unpack(m, arc[2], arc[0], arc[1], path);
+        }
+        int[] chain = new int[path.size()];
+        for (int i = 0; i < chain.length; i++)
+            chain[i] = path.get(i);
+        return (new Route<>(graph, chain, cost));
+    }
+
+    /**
+     * The cost of the shortest route between two vertices,
+     * without building the route itself.
+     * @param source The index of the first vertex.
+     * @param target The index of the last vertex.
+     * @return The cost or infinity if the target cannot be reached.
+     */
+    public double distance(int source, int target) {
+        SearchState q = states.get();
+        int meet = search(current(), q, source, target, null);
+        double cost = (meet == -1) ? Double.POSITIVE_INFINITY : q.forward[meet] + q.backward[meet];
+        q.reset();
+        return cost;
+    }
+
+    /**
+     *
+     * @return The number of levels.
+     */
+    public int getLevels() {
+        return levels;
+    }
+
+    /**
+     *
+     * @param level A level (1 is the lowest).
+     * @return The number of cells of the level.
+     */
+    public int getCellCount(int level) {
+        return cellCount[level];
+    }
+
+    /**
+     *
+     * @return How long the last customization took, in milliseconds.
+     */
+    public synchronized long getCustomizeTime() {
+        return customizeTime;
+    }
+
+    /**
+     * The published costs, customized again first if the graph changed.
+     */
+    private Metric current() {
+        Metric m = metric;
+        if (m.version != graph.getVersion()) {
+            synchronized (this) {
+                if (metric.version != graph.getVersion())
+                    customize();
+                m = metric;
+            }
+        }
+        return m;
+    }
+
+    /**
+     * Costs between the boundary vertices of one cell.
+     * @return A flat matrix, row for the vertex leaving, column for the vertex reached.
+     */
+    private double[] customizeCell(Weighting<T> weighting, int level, int c, double[][][] clique) {
+        int[] border = boundary[level][c];
+        int size = nodes[level][c].length;
+        double[] matrix = new double[border.length * border.length];
+        double[] dist = new double[size];
+        int[] parent = new int[size];
+        IndexedMinHeap heap = new IndexedMinHeap(size);
+        for (int i = 0; i < border.length; i++) {
+            localSearch(weighting, level, c, border[i], -1, clique, dist, parent, heap);
+            for (int j = 0; j < border.length; j++)
+                matrix[i * border.length + j] = dist[local[level][border[j]]];
+        }
+        return matrix;
+    }
+
+    /**
+     * A Dijkstra inside one cell of a level.
+     * On level 1 it follows the roads of the cell; on higher levels it follows
+     * the costs of the cells one level below and the roads between them.
+     * Distances and parents are kept by local index.
+     * @param stop The vertex to stop at (-1 to search the whole cell).
+     */
+    private void localSearch(Weighting<T> weighting, int level, int c, int source, int stop, double[][][] clique,
+                             double[] dist, int[] parent, IndexedMinHeap heap) {
+        int[] inside = nodes[level][c];
+        Arrays.fill(dist, Double.POSITIVE_INFINITY);
+        heap.clear();
+        int start = local[level][source];
+        dist[start] = 0.0;
+        parent[start] = -1;
+        heap.push(start, 0.0);
+        while (!heap.isEmpty()) {
+            int u = heap.poll();
+            int vertex = inside[u];
+            if (vertex == stop)
+                return;
+            double soFar = dist[u];
+            if (level > 1) {
+                int sub = cell[level - 1][vertex];
+                int[] border = boundary[level - 1][sub];
+                double[] costs = clique[level - 1][sub];
+                int i = boundaryPos[level - 1][vertex];
+                for (int j = 0; j < border.length; j++) {
+                    int w = local[level][border[j]];
+                    double tentative = soFar + costs[i * border.length + j];
+                    if (tentative < dist[w]) {
+                        dist[w] = tentative;
+                        parent[w] = u;
+                        heap.push(w, tentative);
+                    }
+                }
+            }
+            for (Graph.Edge<T> edge : graph.edgesOf(graph.getVertex(vertex))) {
+                int to = edge.getTo().getIndex();
+                if (cell[level][to] != c || (level > 1 && cell[level - 1][to] == cell[level - 1][vertex]))
+                    continue;
+                int w = local[level][to];
+                double tentative = soFar + weighting.cost(edge, 0.0);
+                if (tentative < dist[w]) {
+                    dist[w] = tentative;
+                    parent[w] = u;
+                    heap.push(w, tentative);
+                }
+            }
+        }
+    }
+
+    /**
+     * Turns an arc of a level back into roads, adding to the path
+     * every vertex after <code>from</code> up to <code>to</code>.
+     */
+    private void unpack(Metric m, int level, int from, int to, List<Integer> path) {
+        int c = cell[level][from];
+        int size = nodes[level][c].length;
+        double[] dist = new double[size];
+        int[] parent = new int[size];
+        localSearch(m.weighting, level, c, from, to, m.clique, dist, parent, new IndexedMinHeap(size));
+
+        List<Integer> steps = new ArrayList<>();
+        for (int u = local[level][to]; u != -1; u = parent[u])
+            steps.add(nodes[level][c][u]);
+        Collections.reverse(steps);
+        for (int i = 1; i < steps.size(); i++) {
+            int a = steps.get(i - 1), b = steps.get(i);
+            if (level > 1 && cell[level - 1][a] == cell[level - 1][b])
+                unpack(m, level - 1, a, b, path);
+            else
+                path.add(b);
+        }
+    }
+
+    /**
+     * The level a vertex is searched on: the highest level whose
+     * cell holds neither the source nor the target (0 if none).
+     */
+    private int queryLevel(int v, int source, int target) {
+        for (int l = levels; l >= 1; l--) {
+            if (cell[l][v] != cell[l][source] && cell[l][v] != cell[l][target])
+                return l;
+        }
+        return 0;
+    }
+
+    /**
+     * The bidirectional search.
+     * @return The vertex where the best routes of the two sides meet
+     * (-1 if none, or if the query stopped the search).
+     */
+    private int search(Metric m, SearchState q, int source, int target, Query query) {
+        q.set(q.forward, q.forwardParent, q.forwardLevel, q.forwardHeap, source, 0.0, -1, 0);
+        q.set(q.backward, q.backwardParent, q.backwardLevel, q.backwardHeap, target, 0.0, -1, 0);
+        double best = (source == target) ? 0.0 : Double.POSITIVE_INFINITY;
+        int meet = (source == target) ? source : -1;
+
+        while (!q.forwardHeap.isEmpty() || !q.backwardHeap.isEmpty()) {
+            double topForward = q.forwardHeap.isEmpty() ? Double.POSITIVE_INFINITY : q.forwardHeap.peekKey();
+            double topBackward = q.backwardHeap.isEmpty() ? Double.POSITIVE_INFINITY : q.backwardHeap.peekKey();
+            if (topForward + topBackward >= best)
+                break;
+            if (query != null && query.expand())
+                return -1;
+            boolean forward = topForward <= topBackward;
+            double[] dist = forward ? q.forward : q.backward;
+            double[] other = forward ? q.backward : q.forward;
+            int[] parent = forward ? q.forwardParent : q.backwardParent;
+            int[] arcLevel = forward ? q.forwardLevel : q.backwardLevel;
+            IndexedMinHeap heap = forward ? q.forwardHeap : q.backwardHeap;
+
+            int v = heap.poll();
+            double soFar = dist[v];
+            int level = queryLevel(v, source, target);
+
+            if (level > 0 && boundaryPos[level][v] >= 0) {
+                int c = cell[level][v];
+                int[] border = boundary[level][c];
+                double[] costs = m.clique[level][c];
+                int i = boundaryPos[level][v];
+                for (int j = 0; j < border.length; j++) {
+                    double cost = forward ? costs[i * border.length + j] : costs[j * border.length + i];
+                    double tentative = soFar + cost;
+                    int w = border[j];
+                    if (tentative < dist[w]) {
+                        q.set(dist, parent, arcLevel, heap, w, tentative, v, level);
+                        if (tentative + other[w] < best) {
+                            best = tentative + other[w];
+                            meet = w;
+                        }
+                    }
+                }
+            } else {
+                level = 0;
+            }
+            for (Graph.Edge<T> edge : graph.edgesOf(graph.getVertex(v))) {
+                int w = edge.getTo().getIndex();
+                if (level > 0 && cell[level][w] == cell[level][v])
+                    continue;
+                double cost = m.weighting.cost(forward ? edge : graph.reverse(edge), 0.0);
+                double tentative = soFar + cost;
+                if (tentative < dist[w]) {
+                    q.set(dist, parent, arcLevel, heap, w, tentative, v, 0);
+                    if (tentative + other[w] < best) {
+                        best = tentative + other[w];
+                        meet = w;
+                    }
+                }
+            }
+        }
+        return meet;
+    }
+
+    private static List<List<Integer>> lists(int count) {
+        List<List<Integer>> lists = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            lists.add(new ArrayList<Integer>());
+        return lists;
+    }
+
+    private static int[][] toArrays(List<List<Integer>> lists) {
+        int[][] arrays = new int[lists.size()][];
+        for (int i = 0; i < arrays.length; i++) {
+            List<Integer> list = lists.get(i);
+            arrays[i] = new int[list.size()];
+            for (int j = 0; j < arrays[i].length; j++)
+                arrays[i][j] = list.get(j);
+        }
+        return arrays;
+    }
+
+    /**
+     * The customized costs, the version of the graph
+     * and the weighting they are for.
+     */
+    private class Metric {
+
+        private final long          version;
+        private final Weighting<T>  weighting;
+        private final double[][][]  clique;
+
+        Metric(long version, Weighting<T> weighting, double[][][] clique) {
+            this.version = version;
+            this.weighting = weighting;
+            this.clique = clique;
+        }
+
+    }
+
+    /**
+     * The arrays of one query, kept per thread and reused.
+     * Only the entries a query touched are reset after it.
+     */
+    private static class SearchState {
+
+        private final double[]          forward;
+        private final double[]          backward;
+        private final int[]             forwardParent;
+        private final int[]             backwardParent;
+        private final int[]             forwardLevel;
+        private final int[]             backwardLevel;
+        private final IndexedMinHeap    forwardHeap;
+        private final IndexedMinHeap    backwardHeap;
+        private int[]                   touched;
+        private int                     touchedCount;
+
+        SearchState(int n) {
+            forward = new double[n];
+            backward = new double[n];
+            Arrays.fill(forward, Double.POSITIVE_INFINITY);
+            Arrays.fill(backward, Double.POSITIVE_INFINITY);
+            forwardParent = new int[n];
+            backwardParent = new int[n];
+            forwardLevel = new int[n];
+            backwardLevel = new int[n];
+            forwardHeap = new IndexedMinHeap(n);
+            backwardHeap = new IndexedMinHeap(n);
+            touched = new int[64];
+        }
+
+        void set(double[] dist, int[] parent, int[] arcLevel, IndexedMinHeap heap, int v, double d, int from, int level) {
+            if (touchedCount == touched.length)
+                touched = Arrays.copyOf(touched, touched.length * 2);
+            touched[touchedCount++] = v;
+            dist[v] = d;
+            parent[v] = from;
+            arcLevel[v] = level;
+            heap.push(v, d);
+        }
+
+        void reset() {
+            for (int i = 0; i < touchedCount; i++) {
+                forward[touched[i]] = Double.POSITIVE_INFINITY;
+                backward[touched[i]] = Double.POSITIVE_INFINITY;
+            }
+            touchedCount = 0;
+            forwardHeap.clear();
+            backwardHeap.clear();
+        }
+
+    }
+
+}
@@ -2,134 +2,253 @@ import java.util.*;
 
 /**
  * My implementation of a fixed size priority queue.
- * It is based on the <code>TreeSet</code> of JAVA.
- * However because <code>TreeSet</code> does not use
- * <code>equals</code> to remove certain objects, we
- * use an auxiliary <code>HashSet</code> with all the
- * elements that the <code>TreeSet</code> contains.
- * Whenever we need to remove an object we first remove
- * it from the <code>HashSet</code> and then put all of
- * its objects in the <code>TreeSet</code>, thus
- * maintaining the correct order of the objects.
- * @param <T> The type of objects in the priority queue.
+ * Every element is added with its priority, and the queue
+ * keeps that priority with the element: changing a score
+ * somewhere else never moves an element in the queue. The
+ * only way to change the priority of an element already in
+ * the queue is <code>decreaseKey</code>.
+ * </br>
+ * The elements are vertex indices, kept in an
+ * <code>IndexedMinHeap</code> ordered by priority, and by order
+ * of insertion for equal priorities, so the order is total and
+ * never depends on outside state. The heap finds the place of
+ * an index through an array, so nothing is hashed and nothing
+ * is allocated per element: the arrays are made once for all
+ * the indices of the graph and reused from search to search.
+ * When the capacity is reached, the element with the worst
+ * priority (the latest one among equals) is dropped. It is found
+ * in a second heap of the same indices with the order reversed,
+ * which is only kept while the capacity is below the number of
+ * indices, as a queue that can hold them all never drops any.
+ * </br>
+ * <code>checkInvariants</code> checks the whole structure
+ * and is meant to be called in an <code>assert</code>,
+ * so it only costs something when assertions are on (-ea).
  * @author Spiros Dontas
  */
-public class PrioQueue<T> extends TreeSet<T> {
+public class PrioQueue {
 
-    private final int   capacity;
-    private Set<T>      openSet;
+    private int                     capacity;
+    private final int               indices;
+    private final IndexedMinHeap    best;
+    /** The same indices by negated priority and insertion, so the worst comes first. */
+    private IndexedMinHeap          worst;
+    private boolean                 bounded;
+    private long                    sequence;
+    private long                    dropped;
 
     /**
      * Typical Constructor.
-     * Initialises capacity and the <code>comparator</code>
-     * of the <code>TreeSet</code>.
      * @param capacity The capacity of the queue
-     * @param comparator The comparator to sort the objects.
+     * @param indices The number of possible indices (0 to indices - 1).
      */
-    public PrioQueue(int capacity, Comparator<T> comparator) {
-        super(comparator);
-        this.capacity = capacity;
-        openSet = new HashSet<>();
+    public PrioQueue(int capacity, int indices) {
+        this.indices = indices;
+        best = new IndexedMinHeap(indices);
+        setCapacity(capacity);
     }
 
     /**
-     * The add method.
-     * Overrides the add method of <code>TreeSet</code>.
-     * Adds the object to the hash set and to the tree set.
-     * Checks if capacity has been reached and removes the last
-     * element if so.
-     * @param t The object to be added.
-     * @return true iff the object was truly added successfully.
+     * Adds an index that is not in the queue.
+     * If the capacity is exceeded the worst index is
+     * dropped, which may be the index just added.
+     * @param index The index to be added.
+     * @param priority Its priority (lower comes out first).
+     * @return true iff the index is in the queue after the call.
+     * @throws IllegalStateException If the index is already in the queue.
      */
-    @Override
-    public boolean add(T t) {
-        if (openSet.add(t) && super.add(t)) {
-            if (this.size() > capacity) {
-                if (this.pollLast().equals(t))
-                    return false;
-                return true;
-            }
-            return true;
+    public boolean add(int index, double priority) {
+        if (best.contains(index))
+            throw (new IllegalStateException("Already in the queue, use decreaseKey: " + index));
+        long order = sequence++;
+        best.set(index, priority, order);
+        if (bounded) {
+            worst.set(index, -priority, -order);
+            if (best.size() > capacity)
+                return dropWorst() != index;
         }
-        return false;
+        return true;
+    }
+
+    /**
+     * Lowers the priority of an index in the queue.
+     * The index then comes after the indices that
+     * already had the same priority.
+     * @param index The index.
+     * @param priority Its new priority.
+     * @throws NoSuchElementException If the index is not in the queue.
+     * @throws IllegalArgumentException If the priority is higher than the one it has.
+     */
+    public void decreaseKey(int index, double priority) {
+        if (!best.contains(index))
+            throw (new NoSuchElementException("Not in the queue: " + index));
+        if (priority > best.getKey(index))
+            throw (new IllegalArgumentException("The priority of " + index + " can only decrease."));
+        long order = sequence++;
+        best.set(index, priority, order);
+        if (bounded)
+            worst.set(index, -priority, -order);
+    }
+
+    /**
+     * Removes the index with the lowest priority.
+     * @return The index removed. {Default: -1 if empty}.
+     */
+    public int pollFirst() {
+        int first = best.poll();
+        if (first != -1 && bounded)
+            worst.remove(first);
+        return first;
+    }
+
+    /**
+     *
+     * @return The lowest priority in the queue, or infinity if it is empty.
+     */
+    public double peekPriority() {
+        return best.isEmpty() ? Double.POSITIVE_INFINITY : best.peekKey();
+    }
+
+    /**
+     *
+     * @param index The index.
+     * @return Its priority in the queue, or NaN if it is not in the queue.
+     */
+    public double getPriority(int index) {
+        return best.contains(index) ? best.getKey(index) : Double.NaN;
+    }
+
+    /**
+     *
+     * @param index The index to be checked.
+     * @return true iff the index is in the queue.
+     */
+    public boolean contains(int index) {
+        return best.contains(index);
+    }
+
+    /**
+     *
+     * @return The number of indices in the queue.
+     */
+    public int size() {
+        return best.size();
     }
 
     /**
-     * The pollFirst method.
-     * Overrides the pollFirst method of <code>TreeSet</code>.
-     * Removes the first element from the <code>TreeSet</code>,
-     * as well as from the <code>HashSet</code>.
-     * @return The element removed. {Default: null}.
+     *
+     * @return true iff the queue is empty.
      */
-    @Override
-    public T pollFirst() {
-        T temp = super.pollFirst();
-        if (openSet.remove(temp))
-            return temp;
-        return null;
+    public boolean isEmpty() {
+        return best.isEmpty();
     }
 
     /**
-     * The pollLast method.
-     * Overrides the pollLast method of <code>TreeSet</code>.
-     * Removes the last element from the <code>TreeSet</code>,
-     * as well as from the <code>HashSet</code>.
-     * @return The element removed. {Default: null}.
+     *
+     * @return The capacity of the queue.
      */
-    @Override
-    public T pollLast() {
-        T temp = super.pollLast();
-        if (openSet.remove(temp))
-            return temp;
-        return null;
+    public int getCapacity() {
+        return capacity;
     }
 
     /**
-     * The remove method.
-     * Overrides the remove method of <code>TreeSet</code>.
-     * Removes the certain object from the <code>HashSet</code>
-     * first, clears the <code>TreeSet</code> and reconstructs
-     * it by adding all of the elements of the <code>HashSet</code>.
-     * @param o The object to be removed.
-     * @return true iff the object was removed successfully.
+     * Changes the capacity. If the queue holds more indices
+     * than the new capacity, the worst ones are dropped.
+     * @param capacity The new capacity.
      */
-    @Override
-    public boolean remove(Object o) {
-        T other = (T)o;
-        if (openSet.remove(other)) {
-            super.clear();
-            for (T current : openSet)
-                super.add(current);
-            return true;
+    public void setCapacity(int capacity) {
+        if (capacity < 1)
+            throw (new IllegalArgumentException("The capacity must be at least 1."));
+        this.capacity = capacity;
+        boolean bound = capacity < indices;
+        if (bound && !bounded) {
+            /**
+             * The reversed heap was not kept up
+             * while it was not needed, so it is made
+             * again from the indices in the queue.
+             */
+            if (worst == null)
+                worst = new IndexedMinHeap(indices);
+            worst.clear();
+            for (int i = 0; i < best.size(); i++) {
+                int index = best.at(i);
+                worst.set(index, -best.getKey(index), -best.getTie(index));
+            }
         }
-        return false;
+        bounded = bound;
+        while (best.size() > capacity)
+            dropWorst();
+    }
+
+    /**
+     * The number of indices dropped because the queue was full,
+     * since it was last cleared. A search whose queue never
+     * dropped anything behaved as if it had no capacity at all.
+     * @return The number of indices dropped.
+     */
+    public long getDropped() {
+        return dropped;
     }
 
     /**
-     * The contains method.
-     * Overrides the contains method of <code>TreeSet</code>.
-     * Because the super class is based on comparing objects
-     * with <code>compareTo</code> and not <code>equals</code>,
-     * the <code>contains</code> method of the <code>HashSet</code>
-     * is used instead.
-     * @param o The object to be checked.
-     * @return true iff the object is in the queue.
+     * The bytes taken by the queue: the arrays of its heaps,
+     * which are sized by the number of indices, not by the
+     * number of indices in the queue.
+     * @return The bytes.
      */
-    @Override
-    public boolean contains(Object o) {
-        return openSet.contains(o);
+    public long memory() {
+        return MemoryReport.shallow(PrioQueue.class) + best.memory() + ((worst == null) ? 0 : worst.memory());
     }
 
     /**
-     * The clear method.
-     * Overrides the clear method of <code>TreeSet</code>.
-     * Clears the <code>TreeSet</code> as well as the
-     * <code>HashSet</code>.
+     * Removes all indices.
      */
-    @Override
     public void clear() {
-        super.clear();
-        openSet.clear();
+        best.clear();
+        if (worst != null)
+            worst.clear();
+        sequence = 0;
+        dropped = 0;
+    }
+
+    /**
+     * Checks that the queue is consistent:
+     * <ul>
+     *     <li>It holds at most <code>capacity</code> indices.</li>
+     *     <li>Both heaps are in order.</li>
+     *     <li>With a capacity below the number of indices, the reversed
+     *     heap holds the same indices with the negated priorities.</li>
+     *     <li>No priority is NaN.</li>
+     * </ul>
+     * @return true, so it can be used as <code>assert queue.checkInvariants();</code>
+     * @throws IllegalStateException If something is wrong.
+     */
+    public boolean checkInvariants() {
+        if (best.size() > capacity)
+            throw (new IllegalStateException("Size " + best.size() + " over capacity " + capacity));
+        best.checkInvariants();
+        if (bounded) {
+            worst.checkInvariants();
+            if (worst.size() != best.size())
+                throw (new IllegalStateException("Queue has " + best.size() + " indices, reversed heap has " + worst.size()));
+            for (int i = 0; i < best.size(); i++) {
+                int index = best.at(i);
+                if (!worst.contains(index) || worst.getKey(index) != -best.getKey(index))
+                    throw (new IllegalStateException("Stale reversed entry for " + index));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Drops the index with the worst priority.
+     * @return The index dropped.
+     */
+    private int dropWorst() {
+        int index = worst.poll();
+        best.remove(index);
+        dropped++;
+        return index;
     }
 
 }
@@ -0,0 +1,147 @@
+/**
+ * The limits of one call to <code>AStar.solve</code>.
+ * A query can have a deadline, a budget of expansions (vertices
+ * taken out of the openSet, over all the taxis) and can be
+ * cancelled from any other thread. The A* asks the query after
+ * every expansion whether it must stop; that check only reads
+ * a counter and a volatile flag, and the clock once every
+ * <code>CLOCK_PERIOD</code> expansions.
+ * </br>
+ * When a query stops, <code>solve</code> returns at once with
+ * the routes found so far: the taxis searched before the stop,
+ * and for the anytime A* the best route of the taxi it stopped
+ * in. The status tells why it stopped.
+ * </br>
+ * A query is used for one <code>solve</code> only.
+ * @see AStar
+ */
+public class Query {
+
+    /**
+     * Why a query ended.
+     */
+    public enum Status {
+        /** Still running, or not started. */
+        RUNNING,
+        /** Every taxi was searched. */
+        COMPLETE,
+        /** The deadline passed. */
+        DEADLINE,
+        /** The budget of expansions ran out. */
+        BUDGET,
+        /** Someone called <code>cancel</code>. */
+        CANCELLED
+    }
+
+    /**
+     * How many expansions go by between two readings of the clock.
+     * Must be a power of two.
+     */
+    private static final int    CLOCK_PERIOD = 256;
+
+    private final long          deadline;
+    private final long          budget;
+    private long                expansions;
+    private volatile boolean    cancelled;
+    private volatile Status     status = Status.RUNNING;
+
+    /**
+     * Typical constructor.
+     * The deadline counts from now.
+     * @param timeout The time the query may take in milliseconds (0 for no deadline).
+     * @param budget The most expansions the query may make (0 for no budget).
+     */
+    public Query(long timeout, long budget) {
+        this.deadline = (timeout > 0) ? System.nanoTime() + timeout * 1000000L : 0;
+        this.budget = budget;
+    }
+
+    /**
+     * A query with no limits, which can still be cancelled.
+     */
+    public Query() {
+        this(0, 0);
+    }
+
+    /**
+     * Asks the query to stop. Can be called from any thread;
+     * the search stops at its next expansion.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Counts one expansion and checks the limits.
+     * Called by the A* in its main loop.
+     * @return true iff the search must stop now.
+     */
+    boolean expand() {
+        if (status != Status.RUNNING)
+            return true;
+        expansions++;
+        if (cancelled)
+            status = Status.CANCELLED;
+        else if (budget > 0 && expansions > budget)
+            status = Status.BUDGET;
+        else if (deadline != 0 && (expansions & (CLOCK_PERIOD - 1)) == 0 && System.nanoTime() - deadline > 0)
+            status = Status.DEADLINE;
+        return status != Status.RUNNING;
+    }
+
+    /**
+     * Checks the limits without counting an expansion,
+     * for example before the search of the next taxi.
+     * @return true iff the search must stop now.
+     */
+    boolean isStopped() {
+        if (status == Status.RUNNING) {
+            if (cancelled)
+                status = Status.CANCELLED;
+            else if (deadline != 0 && System.nanoTime() - deadline > 0)
+                status = Status.DEADLINE;
+        }
+        return status != Status.RUNNING;
+    }
+
+    /**
+     * Marks the query as complete if nothing stopped it.
+     */
+    void finish() {
+        if (status == Status.RUNNING)
+            status = Status.COMPLETE;
+    }
+
+    /**
+     *
+     * @return The number of expansions made so far.
+     */
+    public long getExpansions() {
+        return expansions;
+    }
+
+    /**
+     *
+     * @return Why the query ended, or RUNNING.
+     */
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     *
+     * @return true iff the results are partial.
+     */
+    public boolean isPartial() {
+        return status == Status.DEADLINE || status == Status.BUDGET || status == Status.CANCELLED;
+    }
+
+    /**
+     *
+     * @return true iff cancel was called.
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+}
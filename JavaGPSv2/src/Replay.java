@@ -0,0 +1,330 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Replays a <code>RequestLog</code> against a graph, to compare
+ * settings of the A* on real traffic. The graph is loaded from a
+ * nodes file, the taxis are the snapshot of the log, and every
+ * request of the log is searched as <code>DispatchServer</code>
+ * would, on a fixed pool of search threads with one <code>AStar</code> each.
+ * </br>
+ * The requests arrive by one of these processes:
+ * <ul>
+ *     <li><b>recorded</b>: at the times of the log, sped up by <code>--speed</code>.</li>
+ *     <li><b>fixed</b>: one every 1/<code>--rate</code> seconds.</li>
+ *     <li><b>poisson</b>: at random times, <code>--rate</code> per second on average,
+ *     as many independent clients would send them.</li>
+ *     <li><b>closed</b>: each search thread sends its next request as soon as the
+ *     one before is answered, which measures the most the threads can serve.</li>
+ * </ul>
+ * The first three are open loop: a request arrives when it is due
+ * whether or not the ones before were answered, and waits in the queue
+ * of the pool if all threads are busy. Its latency counts from when it
+ * was due, not from when a thread took it, so a slow stretch shows in
+ * the latency of all the requests that waited behind it (a replay that
+ * waits for an answer before sending the next request would hide them).
+ * As in the server, the deadline of <code>--timeout</code> counts
+ * from the arrival too.
+ * </br>
+ * It prints the throughput, the latency percentiles (p50, p99, p999),
+ * the expansions per query and how many queries stopped early.
+ * The same log with the same options searches the same requests in
+ * the same order, so only the settings change between two runs.
+ * </br>
+ * Arguments: the nodes file and the log. Options:
+ * <ul>
+ *     <li><code>--arrival=</code> and <code>--rate=</code>, <code>--speed=</code>
+ *     and <code>--seed=</code> as above. The rate defaults to the mean rate of the log.</li>
+ *     <li><code>--arg=</code>, <code>--threads=</code>, <code>--timeout=</code>, <code>--epsilon=</code>,
+ *     <code>--anytime=</code>, <code>--top=</code>, <code>--speeds=</code> (a speed profiles file)
+ *     and <code>--departure=</code> default to the settings of the log, and are as for
+ *     <code>TaxiFinder</code>. <code>--budget=</code> stops every query after so many expansions.</li>
+ *     <li><code>--order=hilbert</code> or <code>--order=bfs</code> renumbers the vertices.</li>
+ *     <li><code>--warmup[=N]</code> runs N synthetic queries first (see <code>WarmUp</code>).</li>
+ *     <li><code>--csv=FILE</code> adds a line with the settings and the results to FILE.</li>
+ * </ul>
+ * @see RequestLog
+ */
+public class Replay {
+
+    private static final int    WARMUP_QUERIES = 50;
+    private static final long   WARMUP_MILLIS = 5000;
+
+    private final Graph<Coordinates>              graph;
+    private final RequestLog                      log;
+    private final Map<String, String>             options;
+    private final String                          arg;
+    private final int                             threads;
+    private final long                            timeout;
+    private final long                            budget;
+    private final Supplier<AStar<Coordinates>>    factory;
+    private final ThreadLocal<AStar<Coordinates>> astars;
+    private final long[]                          latencies;
+    private final long[]                          expansions;
+    private final Query.Status[]                  statuses;
+
+    /**
+     * Typical constructor.
+     * @param graph The graph, with the taxis of the log.
+     * @param log The requests.
+     * @param options The options, by name with their <code>--</code>.
+     */
+    public Replay(Graph<Coordinates> graph, RequestLog log, Map<String, String> options) {
+        this.graph = graph;
+        this.log = log;
+        this.options = options;
+        arg = setting("arg", AStar.AUTO);
+        int threads = Integer.parseInt(setting("threads", "0"));
+        this.threads = (threads > 0) ? threads : Runtime.getRuntime().availableProcessors();
+        timeout = Long.parseLong(setting("timeout", "0"));
+        budget = Long.parseLong(setting("budget", "0"));
+        Map<String, String> search = new HashMap<>();
+        for (String name : TaxiFinder.SEARCH_SETTINGS) {
+            String value = setting(name, null);
+            if (value != null)
+                search.put("--" + name, value);
+        }
+        Weighting<Coordinates> weighting = TaxiFinder.weighting(search);
+        factory = TaxiFinder.overlay(graph, weighting, TaxiFinder.astars(search, weighting), search);
+        astars = ThreadLocal.withInitial(factory);
+        latencies = new long[log.size()];
+        expansions = new long[log.size()];
+        statuses = new Query.Status[log.size()];
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Map<String, String> options = new HashMap<>();
+        List<String> positional = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                int eq = arg.indexOf('=');
+                options.put((eq < 0) ? arg : arg.substring(0, eq), (eq < 0) ? "" : arg.substring(eq + 1));
+            } else {
+                positional.add(arg);
+            }
+        }
+
+        RequestLog log = null;
+        try {
+            log = RequestLog.read(positional.get(1));
+        } catch (IOException e) {
+            System.out.println("Could not read request log: " + e.getMessage());
+            System.exit(1);
+        }
+        Graph<Coordinates> graph = new Graph<>(positional.get(0), new Coordinates());
+        String order = options.get("--order");
+        if ("hilbert".equals(order))
+            graph.renumber(VertexOrder.hilbert(graph));
+        else if ("bfs".equals(order))
+            graph.renumber(VertexOrder.bfs(graph));
+        log.addTaxis(graph, new Coordinates());
+
+        Replay replay = new Replay(graph, log, options);
+        if (options.containsKey("--warmup")) {
+            String count = options.get("--warmup");
+            new WarmUp<>(graph, replay.factory, Collections.singletonList(replay.arg), 0)
+                    .run(count.isEmpty() ? WARMUP_QUERIES : Integer.parseInt(count), WARMUP_MILLIS);
+        }
+        String arrival = options.getOrDefault("--arrival", "recorded");
+        double seconds;
+        if (arrival.equals("closed")) {
+            seconds = replay.runClosed();
+        } else {
+            seconds = replay.runOpen(replay.schedule(arrival));
+        }
+        System.out.print(replay.report(arrival, seconds));
+        if (options.containsKey("--csv"))
+            replay.appendCsv(options.get("--csv"), arrival, seconds);
+    }
+
+    /**
+     * When every request is due, in nanoseconds from the start.
+     * @param arrival The arrival process: recorded, fixed or poisson.
+     * @return The times, in order.
+     */
+    public long[] schedule(String arrival) {
+        int n = log.size();
+        long span = log.getTime(n - 1) - log.getTime(0);
+        double rate = options.containsKey("--rate") ? Double.parseDouble(options.get("--rate"))
+                : (span > 0) ? (n - 1) * 1e9 / span : 0;
+        long[] due = new long[n];
+        switch (arrival) {
+            case "recorded":
+                double speed = Double.parseDouble(options.getOrDefault("--speed", "1"));
+                for (int i = 0; i < n; i++)
+                    due[i] = (long) ((log.getTime(i) - log.getTime(0)) / speed);
+                return due;
+            case "fixed":
+            case "poisson":
+                if (rate <= 0)
+                    throw (new IllegalArgumentException("The log has no rate of its own, --rate is needed."));
+                Random rand = new Random(Long.parseLong(options.getOrDefault("--seed", "0")));
+                double time = 0;
+                for (int i = 0; i < n; i++) {
+                    due[i] = (long) time;
+                    time += arrival.equals("fixed") ? 1e9 / rate : -Math.log(1 - rand.nextDouble()) * 1e9 / rate;
+                }
+                return due;
+            default:
+                throw (new IllegalArgumentException("Unknown arrival " + arrival + "."));
+        }
+    }
+
+    /**
+     * Sends every request when it is due, whether or not
+     * the ones before were answered.
+     * @param due When every request is due (see <code>schedule</code>).
+     * @return The seconds from the first arrival to the last answer.
+     * @throws InterruptedException If the replay is interrupted.
+     */
+    public double runOpen(long[] due) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        for (int i = 0; i < due.length; i++) {
+            long arrival = start + due[i];
+            long wait;
+            while ((wait = arrival - System.nanoTime()) > 0)
+                LockSupport.parkNanos(wait);
+            int request = i;
+            Query query = new Query(timeout, budget);
+            pool.execute(() -> search(request, arrival, query));
+        }
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        return (System.nanoTime() - start) / 1e9;
+    }
+
+    /**
+     * Sends the next request as soon as a thread is free.
+     * @return The seconds from the first request to the last answer.
+     * @throws InterruptedException If the replay is interrupted.
+     */
+    public double runClosed() throws InterruptedException {
+        AtomicInteger next = new AtomicInteger();
+        Thread[] workers = new Thread[threads];
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                int request;
+                while ((request = next.getAndIncrement()) < log.size())
+                    search(request, System.nanoTime(), new Query(timeout, budget));
+            }, "replay-" + t);
+            workers[t].start();
+        }
+        for (Thread worker : workers)
+            worker.join();
+        return (System.nanoTime() - start) / 1e9;
+    }
+
+    /**
+     * The results of a run.
+     * @param arrival The arrival process of the run.
+     * @param seconds How long it took.
+     * @return A few lines of text.
+     */
+    public String report(String arrival, double seconds) {
+        int n = log.size();
+        long[] latency = latencies.clone();
+        long[] expanded = expansions.clone();
+        Arrays.sort(latency);
+        Arrays.sort(expanded);
+        Map<String, Integer> counts = new TreeMap<>();
+        for (Query.Status status : statuses)
+            counts.merge((status == null) ? "FAILED" : status.toString(), 1, Integer::sum);
+
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("Replay\t\t: %d requests, %d taxis, arrival %s, capacity %s, %d threads%n",
+                n, log.getTaxiCount(), arrival, arg, threads));
+        report.append(String.format("Throughput\t: %.1f/s over %.3f s%n", n / seconds, seconds));
+        report.append("Status\t\t: ").append(counts).append('\n');
+        report.append(String.format("Latency ms\t: mean %.3f, p50 %.3f, p99 %.3f, p999 %.3f, max %.3f%n",
+                mean(latency) / 1e6, percentile(latency, 0.5) / 1e6, percentile(latency, 0.99) / 1e6,
+                percentile(latency, 0.999) / 1e6, latency[n - 1] / 1e6));
+        report.append(String.format("Expansions\t: mean %.1f, p50 %d, p99 %d, max %d%n",
+                mean(expanded), percentile(expanded, 0.5), percentile(expanded, 0.99), expanded[n - 1]));
+        return report.toString();
+    }
+
+    /**
+     * Adds the settings and the results of a run to a csv
+     * file, with a header if the file is new, so runs with
+     * different settings end up side by side.
+     */
+    private void appendCsv(String file, String arrival, double seconds) {
+        boolean header = !new File(file).exists();
+        long[] latency = latencies.clone();
+        long[] expanded = expansions.clone();
+        Arrays.sort(latency);
+        Arrays.sort(expanded);
+        int partial = 0;
+        for (Query.Status status : statuses) {
+            if (status != Query.Status.COMPLETE)
+                partial++;
+        }
+        try (PrintWriter writer = new PrintWriter(new FileWriter(file, true))) {
+            if (header)
+                writer.println("Arrival, Capacity, Threads, Epsilon, Anytime, Top, Timeout, Budget, Requests, Seconds, "
+                        + "Throughput, p50 ms, p99 ms, p999 ms, Max ms, Mean Expansions, p99 Expansions, Partial");
+            writer.println(arrival + ", " + arg + ", " + threads + ", " + setting("epsilon", "")
+                    + ", " + setting("anytime", "") + ", " + setting("top", "")
+                    + ", " + timeout + ", " + budget + ", " + log.size() + ", " + seconds + ", " + log.size() / seconds
+                    + ", " + percentile(latency, 0.5) / 1e6 + ", " + percentile(latency, 0.99) / 1e6
+                    + ", " + percentile(latency, 0.999) / 1e6 + ", " + latency[latency.length - 1] / 1e6
+                    + ", " + mean(expanded) + ", " + percentile(expanded, 0.99) + ", " + partial);
+        } catch (IOException e) {
+            System.out.println("Could not write " + file);
+        }
+    }
+
+    /**
+     * Runs on a search thread. The routes are read, as
+     * the server does to answer, before the next search.
+     */
+    private void search(int request, long arrival, Query query) {
+        try {
+            Map<Graph.Vertex<Coordinates>, Route<Coordinates>> results =
+                    astars.get().solve(graph, arg, new Coordinates(log.getX(request), log.getY(request)), query);
+            for (Route<Coordinates> route : results.values())
+                route.getCost();
+            statuses[request] = query.getStatus();
+        } catch (RuntimeException e) {
+            System.out.println("Request " + request + " failed: " + e);
+        }
+        latencies[request] = System.nanoTime() - arrival;
+        expansions[request] = query.getExpansions();
+    }
+
+    /**
+     * An option if it is given, else the setting of the log, else a default.
+     */
+    private String setting(String name, String otherwise) {
+        if (options.containsKey("--" + name))
+            return options.get("--" + name);
+        return log.getSettings().getOrDefault(name, otherwise);
+    }
+
+    /**
+     * The nearest rank percentile of sorted values.
+     */
+    private static long percentile(long[] sorted, double p) {
+        int rank = (int) Math.ceil(p * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+
+    private static double mean(long[] values) {
+        double sum = 0;
+        for (long value : values)
+            sum += value;
+        return sum / values.length;
+    }
+
+}
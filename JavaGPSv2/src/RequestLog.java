@@ -0,0 +1,315 @@
+import java.io.*;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A log of dispatch requests, to replay real traffic later
+ * (see <code>Replay</code>). A log starts with the settings the
+ * requests were served with and a snapshot of the taxis, then
+ * has one entry per request: when it arrived and where the client was.
+ * </br>
+ * The file is binary and small:
+ * <ul>
+ *     <li>The header is a magic number, the version, the settings as
+ *     <code>key=value</code> strings and the taxis as an id and
+ *     two coordinates each.</li>
+ *     <li>A request is a tag byte, the microseconds since the request before
+ *     as a variable length number (one to three bytes at usual rates) and
+ *     the two coordinates of the client. About 12 bytes per request.</li>
+ * </ul>
+ * Coordinates are stored as ints of 1e-7 degrees, the precision of
+ * <code>Coordinates</code>, so a replayed request snaps to the same vertex.
+ * A log that was cut short (the server was killed) is read up to its last
+ * whole request.
+ * </br>
+ * A log is read whole into plain arrays, so a replay does not
+ * touch the file or make objects while it runs.
+ */
+public class RequestLog {
+
+    private static final int    MAGIC = 0x47505352;
+    private static final int    VERSION = 1;
+    private static final byte   REQUEST = 'Q';
+    private static final double SCALE = 1e7;
+
+    private final Map<String, String>   settings;
+    private final int[]                 taxiIds;
+    private final int[]                 taxiX;
+    private final int[]                 taxiY;
+    private long[]                      times;
+    private int[]                       xs;
+    private int[]                       ys;
+    private int                         size;
+
+    private RequestLog(Map<String, String> settings, int[] taxiIds, int[] taxiX, int[] taxiY) {
+        this.settings = settings;
+        this.taxiIds = taxiIds;
+        this.taxiX = taxiX;
+        this.taxiY = taxiY;
+        times = new long[1024];
+        xs = new int[1024];
+        ys = new int[1024];
+    }
+
+    /**
+     * Starts a new log.
+     * @param file The file, which is overwritten.
+     * @param settings The settings the requests are served with.
+     * @param taxis The taxis the requests are served with.
+     * @param <T> The type of the locations of the graph.
+     * @return The recorder to add the requests to.
+     * @throws IOException If the file cannot be written.
+     */
+    public static <T extends CostObject<T>> Recorder record(String file, Map<String, String> settings,
+                                                            List<Graph.Vertex<T>> taxis) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(settings.size());
+        for (Map.Entry<String, String> setting : settings.entrySet()) {
+            out.writeUTF(setting.getKey());
+            out.writeUTF(setting.getValue());
+        }
+        out.writeInt(taxis.size());
+        for (Graph.Vertex<T> taxi : taxis) {
+            out.writeInt(taxi.getId());
+            out.writeInt(fixed(taxi.getLocation().getX()));
+            out.writeInt(fixed(taxi.getLocation().getY()));
+        }
+        out.flush();
+        return new Recorder(out);
+    }
+
+    /**
+     * Reads a whole log.
+     * A log without a single whole request is refused,
+     * as there is nothing to replay or report on.
+     * @param file The file.
+     * @return The log.
+     * @throws IOException If the file cannot be read, is not a log or has no requests.
+     */
+    public static RequestLog read(String file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC)
+                throw (new IOException(file + " is not a request log"));
+            int version = in.readInt();
+            if (version != VERSION)
+                throw (new IOException(file + " is a request log of version " + version + ", not " + VERSION));
+            Map<String, String> settings = new LinkedHashMap<>();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++)
+                settings.put(in.readUTF(), in.readUTF());
+            int taxis = in.readInt();
+            int[] ids = new int[taxis], x = new int[taxis], y = new int[taxis];
+            for (int i = 0; i < taxis; i++) {
+                ids[i] = in.readInt();
+                x[i] = in.readInt();
+                y[i] = in.readInt();
+            }
+            RequestLog log = new RequestLog(Collections.unmodifiableMap(settings), ids, x, y);
+            long time = 0;
+            try {
+                int tag;
+                while ((tag = in.read()) != -1) {
+                    if (tag != REQUEST)
+                        throw (new IOException(file + " has an unknown entry " + tag + " after " + log.size + " requests"));
+                    time += readVarLong(in) * 1000L;
+                    log.add(time, in.readInt(), in.readInt());
+                }
+            } catch (EOFException e) {
+                /** The last request was cut short: keep the ones before. */
+            }
+            if (log.size == 0)
+                throw (new IOException(file + " has no requests"));
+            return log;
+        }
+    }
+
+    /**
+     *
+     * @return The settings the requests were served with.
+     */
+    public Map<String, String> getSettings() {
+        return settings;
+    }
+
+    /**
+     *
+     * @return The number of requests.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     *
+     * @param i The index of a request.
+     * @return When it arrived, in nanoseconds since the log started.
+     */
+    public long getTime(int i) {
+        return times[i];
+    }
+
+    /**
+     *
+     * @param i The index of a request.
+     * @return The x of its client.
+     */
+    public double getX(int i) {
+        return xs[i] / SCALE;
+    }
+
+    /**
+     *
+     * @param i The index of a request.
+     * @return The y of its client.
+     */
+    public double getY(int i) {
+        return ys[i] / SCALE;
+    }
+
+    /**
+     *
+     * @return The number of taxis of the snapshot.
+     */
+    public int getTaxiCount() {
+        return taxiIds.length;
+    }
+
+    /**
+     * Puts the taxis of the snapshot on a graph.
+     * @param graph A graph, usually of nodes only.
+     * @param generic A generic instance of the class used.
+     * @param <T> The type of the locations of the graph.
+     */
+    public <T extends CostObject<T>> void addTaxis(Graph<T> graph, T generic) {
+        for (int i = 0; i < taxiIds.length; i++)
+            graph.addTaxi(generic.create(taxiX[i] / SCALE, taxiY[i] / SCALE), taxiIds[i]);
+    }
+
+    private void add(long time, int x, int y) {
+        if (size == times.length) {
+            times = Arrays.copyOf(times, size * 2);
+            xs = Arrays.copyOf(xs, size * 2);
+            ys = Arrays.copyOf(ys, size * 2);
+        }
+        times[size] = time;
+        xs[size] = x;
+        ys[size] = y;
+        size++;
+    }
+
+    private static int fixed(double degrees) {
+        return (int) Math.round(degrees * SCALE);
+    }
+
+    /**
+     * Seven bits per byte, lowest first; the high bit
+     * of a byte tells whether another one follows.
+     */
+    private static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw (new IOException("Malformed request time"));
+    }
+
+    /**
+     * Appends requests to a log, from any thread.
+     * The requests are written in the order they are given, and
+     * flushed to the file at most <code>FLUSH_MILLIS</code> after.
+     * Writing stops at the first error, so a full disk does
+     * not fail the requests themselves.
+     */
+    public static class Recorder implements Closeable {
+
+        /**
+         * How long a request may stay in the buffer.
+         */
+        public static final long    FLUSH_MILLIS = 1000;
+
+        private final DataOutputStream  out;
+        private final long              start;
+        private long                    last;
+        private long                    flushed;
+        private int                     count;
+        private boolean                 stopped;
+
+        private Recorder(DataOutputStream out) {
+            this.out = out;
+            start = System.nanoTime();
+            flushed = start;
+        }
+
+        /**
+         * Adds a request that arrives now.
+         * @param client The location of its client.
+         * @param <T> The type of the location.
+         */
+        public <T extends CostObject<T>> void record(T client) {
+            record(client.getX(), client.getY());
+        }
+
+        /**
+         * Adds a request that arrives now.
+         * @param x The x of its client.
+         * @param y The y of its client.
+         */
+        public synchronized void record(double x, double y) {
+            if (stopped)
+                return;
+            long now = System.nanoTime();
+            long micros = (now - start) / 1000;
+            try {
+                out.writeByte(REQUEST);
+                writeVarLong(out, micros - last);
+                out.writeInt(fixed(x));
+                out.writeInt(fixed(y));
+                last = micros;
+                count++;
+                if (now - flushed > FLUSH_MILLIS * 1000000L) {
+                    out.flush();
+                    flushed = now;
+                }
+            } catch (IOException e) {
+                stopped = true;
+                System.out.println("Could not record request: " + e.getMessage());
+            }
+        }
+
+        /**
+         *
+         * @return The number of requests recorded.
+         */
+        public synchronized int getCount() {
+            return count;
+        }
+
+        /**
+         * Writes what is left and closes the file.
+         * @throws IOException If the file cannot be written.
+         */
+        @Override
+        public synchronized void close() throws IOException {
+            stopped = true;
+            out.close();
+        }
+
+    }
+
+}
@@ -0,0 +1,253 @@
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A route found by the A* Algorithm.
+ * The route only keeps the indices of the vertices
+ * it passes through, in order from the taxi to the
+ * client, and its total cost. The vertices themselves
+ * are only looked up in the <code>Graph</code> when the
+ * route is actually read (for example by the kml output),
+ * so routes that are never printed never build any geometry.
+ * </br>
+ * Routes read from a <code>ShortestPathTree</code> do not
+ * even keep the indices; they follow the tree the first
+ * time they are read.
+ * </br>
+ * On a graph whose chains of shape points were compressed,
+ * the route is read with the shape points of its edges in
+ * between its vertices (as vertices with index -1), so it is
+ * drawn along the roads and not straight across.
+ * </br>
+ * Every route knows how far from the best route it may be:
+ * its <code>bound</code> is a factor such that the cost of the
+ * route is at most the bound times the cost of the shortest
+ * route. It is 1 for routes known to be the shortest and
+ * infinite for routes of a beam search that dropped vertices.
+ * @param <T> The type of the object the graph contains.
+ * @see AStar
+ * @see ShortestPathTree
+ */
+public class Route<T extends CostObject<T>> extends AbstractList<Graph.Vertex<T>> {
+
+    private final Graph<T>              graph;
+    private final int                   source;
+    private final int[]                 next;
+    private final double                cost;
+    private final double                bound;
+    private int[]                       chain;
+    private List<Graph.Vertex<T>>       geometry;
+
+    /**
+     * Typical constructor.
+     * @param graph The graph the indices refer to.
+     * @param chain The vertex indices from the taxi to the client.
+     * @param cost The total cost of the route.
+     */
+    public Route(Graph<T> graph, int[] chain, double cost) {
+        this(graph, chain, cost, 1.0);
+    }
+
+    /**
+     * Constructor for routes that may not be the shortest.
+     * @param graph The graph the indices refer to.
+     * @param chain The vertex indices from the taxi to the client.
+     * @param cost The total cost of the route.
+     * @param bound The suboptimality bound of the route (1 if it is the shortest).
+     */
+    public Route(Graph<T> graph, int[] chain, double cost, double bound) {
+        this.graph = graph;
+        this.source = chain[0];
+        this.next = null;
+        this.chain = chain;
+        this.cost = cost;
+        this.bound = bound;
+    }
+
+    /**
+     * Constructor for routes that follow a successor array.
+     * @param graph The graph the indices refer to.
+     * @param next The next vertex of each vertex index towards the goal (-1 for the goal).
+     * @param source The index of the first vertex.
+     * @param cost The total cost of the route.
+     */
+    private Route(Graph<T> graph, int[] next, int source, double cost) {
+        this.graph = graph;
+        this.source = source;
+        this.next = next;
+        this.chain = null;
+        this.cost = cost;
+        this.bound = 1.0;
+    }
+
+    /**
+     * Builds a route by walking a predecessor array
+     * backwards from the goal. The walk fills the chain
+     * from its end, so the route comes out in driving
+     * order without any reversing.
+     * @param graph The graph the indices refer to.
+     * @param cameFrom The predecessor of each vertex index (-1 for the start).
+     * @param goal The index of the goal vertex.
+     * @param cost The total cost of the route.
+     * @param <T> The type of the object the graph contains.
+     * @return The route from the start to the goal.
+     */
+    public static <T extends CostObject<T>> Route<T> fromPredecessors(Graph<T> graph, int[] cameFrom, int goal, double cost) {
+        return fromPredecessors(graph, cameFrom, goal, cost, 1.0);
+    }
+
+    /**
+     * Builds a route that may not be the shortest
+     * by walking a predecessor array.
+     * @param graph The graph the indices refer to.
+     * @param cameFrom The predecessor of each vertex index (-1 for the start).
+     * @param goal The index of the goal vertex.
+     * @param cost The total cost of the route.
+     * @param bound The suboptimality bound of the route (1 if it is the shortest).
+     * @param <T> The type of the object the graph contains.
+     * @return The route from the start to the goal.
+     */
+    public static <T extends CostObject<T>> Route<T> fromPredecessors(Graph<T> graph, int[] cameFrom, int goal, double cost, double bound) {
+        return (new Route<>(graph, chainOf(cameFrom, goal), cost, bound));
+    }
+
+    /**
+     * Walks a predecessor array back from a vertex.
+     * @param cameFrom The predecessor of each vertex index (-1 for the start).
+     * @param goal The index of the last vertex.
+     * @return The vertex indices from the start to the goal.
+     */
+    public static int[] chainOf(int[] cameFrom, int goal) {
+        int length = 0;
+        for (int v = goal; v != -1; v = cameFrom[v])
+            length++;
+        int[] chain = new int[length];
+        for (int v = goal; v != -1; v = cameFrom[v])
+            chain[--length] = v;
+        return chain;
+    }
+
+    /**
+     * Builds a route that follows a successor array
+     * from the source to the goal. Nothing is walked
+     * until the route is read, and the array must not
+     * change while the route is in use.
+     * @param graph The graph the indices refer to.
+     * @param next The next vertex of each vertex index towards the goal (-1 for the goal).
+     * @param source The index of the first vertex.
+     * @param cost The total cost of the route.
+     * @param <T> The type of the object the graph contains.
+     * @return The route from the source to the goal.
+     */
+    public static <T extends CostObject<T>> Route<T> fromSuccessors(Graph<T> graph, int[] next, int source, double cost) {
+        return (new Route<>(graph, next, source, cost));
+    }
+
+    /**
+     * Walks the successor array the first time it is needed.
+     * @return The vertex indices from the taxi to the client.
+     */
+    private int[] chain() {
+        if (chain == null) {
+            int length = 0;
+            for (int v = source; v != -1; v = next[v])
+                length++;
+            int[] walked = new int[length];
+            length = 0;
+            for (int v = source; v != -1; v = next[v])
+                walked[length++] = v;
+            chain = walked;
+        }
+        return chain;
+    }
+
+    /**
+     * Puts the shape points back between the vertices the
+     * first time they are needed. Between two vertices the
+     * shortest edge is followed, which is the one any search
+     * on distances takes.
+     * @return The vertices and shape points from the taxi to the client.
+     */
+    private List<Graph.Vertex<T>> geometry() {
+        if (geometry == null) {
+            int[] c = chain();
+            List<Graph.Vertex<T>> points = new ArrayList<>(c.length);
+            Graph.Vertex<T> from = graph.getVertex(c[0]);
+            points.add(from);
+            for (int i = 1; i < c.length; i++) {
+                Graph.Edge<T> best = null;
+                for (Graph.Edge<T> edge : graph.edgesOf(from)) {
+                    if (edge.getTo().getIndex() == c[i] && (best == null || edge.cost() < best.cost()))
+                        best = edge;
+                }
+                if (best != null) {
+                    for (T point : graph.getShape(best))
+                        points.add(new Graph.Vertex<>(point));
+                }
+                from = graph.getVertex(c[i]);
+                points.add(from);
+            }
+            geometry = points;
+        }
+        return geometry;
+    }
+
+    /**
+     *
+     * @param index The position in the route (0 is the taxi).
+     * @return The vertex at that position.
+     */
+    @Override
+    public Graph.Vertex<T> get(int index) {
+        if (graph.hasShapes())
+            return geometry().get(index);
+        return graph.getVertex(chain()[index]);
+    }
+
+    /**
+     *
+     * @return The number of vertices in the route.
+     */
+    @Override
+    public int size() {
+        if (graph.hasShapes())
+            return geometry().size();
+        return chain().length;
+    }
+
+    /**
+     *
+     * @return The total cost of the route.
+     */
+    public double getCost() {
+        return cost;
+    }
+
+    /**
+     * The cost of the route is at most this
+     * times the cost of the shortest route.
+     * @return The suboptimality bound (1 if it is the shortest, infinite if unknown).
+     */
+    public double getBound() {
+        return bound;
+    }
+
+    /**
+     *
+     * @return The vertex index of the first vertex (the taxi).
+     */
+    public int getSource() {
+        return source;
+    }
+
+    /**
+     *
+     * @return The vertex index of the last vertex (the client).
+     */
+    public int getTarget() {
+        int[] c = chain();
+        return c[c.length - 1];
+    }
+
+}
@@ -0,0 +1,326 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of A* routes.
+ * Routes are keyed by the settings of the search that found
+ * them, the index of the snapped taxi vertex, the index of
+ * the snapped client vertex and the version of the
+ * <code>Graph</code>, so that any change in the graph
+ * makes the old routes unreachable instead of wrong.
+ * </br>
+ * The cache is split in segments, each one guarded by its own
+ * lock, and each segment is a segmented LRU:
+ * <ul>
+ *     <li>New routes go in the probation part.</li>
+ *     <li>A route that is hit while in probation moves to the protected part.</li>
+ *     <li>When the protected part is full its oldest route goes back to probation.</li>
+ *     <li>When the segment is full the oldest route in probation is evicted.</li>
+ * </ul>
+ * So routes that were asked only once cannot push out the
+ * popular ones. Routes also expire after a fixed time.
+ * </br>
+ * A cache can be shared by searches with different settings
+ * (beam capacity, epsilon, top k, weighting): each set of
+ * settings gets a number of its own (see <code>settings</code>)
+ * and only finds the routes stored under that number.
+ * @param <T> The type of the object the graph contains.
+ * @see AStar
+ */
+public class RouteCache<T extends CostObject<T>> {
+
+    private static final int            SEGMENTS = 16;
+
+    private final Segment<T>[]          segments;
+    private final Map<Object, Integer>  settings = new ConcurrentHashMap<>();
+    private final AtomicInteger         settingsCount = new AtomicInteger();
+    private final long                  ttl;
+    private final AtomicLong            hits;
+    private final AtomicLong            misses;
+    private final AtomicLong            evictions;
+    private final AtomicLong            expirations;
+
+    /**
+     * Typical constructor.
+     * @param capacity The maximum number of routes kept.
+     * @param ttlMillis How long a route is kept, in milliseconds (0 for ever).
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public RouteCache(int capacity, long ttlMillis) {
+        if (capacity < 1)
+            throw (new IllegalArgumentException("Cache capacity must be positive."));
+        segments = new Segment[SEGMENTS];
+        int perSegment = Math.max(1, (capacity + SEGMENTS - 1) / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++)
+            segments[i] = new Segment<>(perSegment);
+        ttl = ttlMillis * 1000000L;
+        hits = new AtomicLong();
+        misses = new AtomicLong();
+        evictions = new AtomicLong();
+        expirations = new AtomicLong();
+    }
+
+    /**
+     * The number of a set of search settings, the same for
+     * settings that are equal. The sets are kept for the
+     * life of the cache, so they should be few.
+     * @param settings The settings, with an <code>equals</code> that compares them all.
+     * @return The number to store and look up the routes of these settings with.
+     */
+    public int settings(Object settings) {
+        return this.settings.computeIfAbsent(settings, s -> settingsCount.getAndIncrement());
+    }
+
+    /**
+     * Looks up a route.
+     * @param settings The number of the settings of the search.
+     * @param source The index of the taxi vertex.
+     * @param target The index of the client vertex.
+     * @param version The version of the graph.
+     * @return The cached route or null.
+     */
+    public Route<T> get(int settings, int source, int target, long version) {
+        Key key = new Key(settings, source, target, version);
+        Segment<T> segment = segmentFor(key);
+        Route<T> route;
+        synchronized (segment) {
+            Entry<T> entry = segment.probation.remove(key);
+            if (entry != null) {
+                if (expired(entry)) {
+                    expirations.incrementAndGet();
+                    entry = null;
+                } else {
+                    segment.promote(key, entry);
+                }
+            } else {
+                entry = segment.protectedPart.get(key);
+                if (entry != null && expired(entry)) {
+                    segment.protectedPart.remove(key);
+                    expirations.incrementAndGet();
+                    entry = null;
+                }
+            }
+            route = (entry == null) ? null : entry.route;
+        }
+        if (route == null)
+            misses.incrementAndGet();
+        else
+            hits.incrementAndGet();
+        return route;
+    }
+
+    /**
+     * Stores a route.
+     * @param settings The number of the settings of the search.
+     * @param source The index of the taxi vertex.
+     * @param target The index of the client vertex.
+     * @param version The version of the graph.
+     * @param route The route found.
+     */
+    public void put(int settings, int source, int target, long version, Route<T> route) {
+        Key key = new Key(settings, source, target, version);
+        Segment<T> segment = segmentFor(key);
+        Entry<T> entry = new Entry<>(route, System.nanoTime());
+        synchronized (segment) {
+            if (segment.protectedPart.containsKey(key)) {
+                segment.protectedPart.put(key, entry);
+                return;
+            }
+            segment.probation.put(key, entry);
+            evictions.addAndGet(segment.trim());
+        }
+    }
+
+    /**
+     * Removes all the routes.
+     */
+    public void clear() {
+        for (Segment<T> segment : segments) {
+            synchronized (segment) {
+                segment.probation.clear();
+                segment.protectedPart.clear();
+            }
+        }
+    }
+
+    /**
+     *
+     * @return The number of routes currently kept.
+     */
+    public int size() {
+        int size = 0;
+        for (Segment<T> segment : segments) {
+            synchronized (segment) {
+                size += segment.probation.size() + segment.protectedPart.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     *
+     * @return The number of lookups that found a route.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     *
+     * @return The number of lookups that found nothing.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     *
+     * @return The number of routes evicted because the cache was full.
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     *
+     * @return The number of routes dropped because they were too old.
+     */
+    public long getExpirations() {
+        return expirations.get();
+    }
+
+    /**
+     *
+     * @return The ratio of hits to lookups (0 if there were none).
+     */
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return (total == 0) ? 0.0 : (double) h / total;
+    }
+
+    /**
+     * Used to print the metrics.
+     * @return String as "hits, misses, evictions, expirations, size".
+     */
+    @Override
+    public String toString() {
+        return (getHits() + ", " + getMisses() + ", " + getEvictions() + ", " + getExpirations() + ", " + size());
+    }
+
+    private boolean expired(Entry<T> entry) {
+        return (ttl > 0 && System.nanoTime() - entry.created > ttl);
+    }
+
+    private Segment<T> segmentFor(Key key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & (SEGMENTS - 1)];
+    }
+
+    /**
+     * The key of a route.
+     */
+    private static class Key {
+
+        private final int   settings;
+        private final int   source;
+        private final int   target;
+        private final long  version;
+
+        Key(int settings, int source, int target, long version) {
+            this.settings = settings;
+            this.source = source;
+            this.target = target;
+            this.version = version;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = (settings * 31 + source) * 31 + target;
+            return (h * 31 + (int) (version ^ (version >>> 32)));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key other = (Key) o;
+            return (settings == other.settings && source == other.source && target == other.target
+                    && version == other.version);
+        }
+
+    }
+
+    /**
+     * A cached route with the time it was stored.
+     */
+    private static class Entry<T extends CostObject<T>> {
+
+        private final Route<T>  route;
+        private final long      created;
+
+        Entry(Route<T> route, long created) {
+            this.route = route;
+            this.created = created;
+        }
+
+    }
+
+    /**
+     * One segment of the cache.
+     * The protected part keeps 80% of the capacity
+     * and is in access order, probation is in
+     * insertion order.
+     */
+    private static class Segment<T extends CostObject<T>> {
+
+        private final int                       capacity;
+        private final int                       protectedCapacity;
+        private final LinkedHashMap<Key, Entry<T>> probation;
+        private final LinkedHashMap<Key, Entry<T>> protectedPart;
+
+        Segment(int capacity) {
+            this.capacity = capacity;
+            protectedCapacity = Math.max(1, capacity * 4 / 5);
+            probation = new LinkedHashMap<>();
+            protectedPart = new LinkedHashMap<>(16, 0.75f, true);
+        }
+
+        /**
+         * Moves an entry that was hit to the protected part,
+         * demoting the oldest protected entry if needed.
+         */
+        void promote(Key key, Entry<T> entry) {
+            protectedPart.put(key, entry);
+            if (protectedPart.size() > protectedCapacity) {
+                Iterator<Map.Entry<Key, Entry<T>>> oldest = protectedPart.entrySet().iterator();
+                Map.Entry<Key, Entry<T>> demoted = oldest.next();
+                oldest.remove();
+                probation.put(demoted.getKey(), demoted.getValue());
+            }
+        }
+
+        /**
+         * Evicts entries until the segment fits its capacity.
+         * @return The number of entries evicted.
+         */
+        int trim() {
+            int evicted = 0;
+            while (probation.size() + protectedPart.size() > capacity) {
+                Map<Key, Entry<T>> victims = probation.isEmpty() ? protectedPart : probation;
+                Iterator<Key> oldest = victims.keySet().iterator();
+                oldest.next();
+                oldest.remove();
+                evicted++;
+            }
+            return evicted;
+        }
+
+    }
+
+}
@@ -0,0 +1,270 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.*;
+
+/**
+ * Measures how far from the shortest routes the modes of the A* are,
+ * and how much faster they are for it. For random clients on the
+ * main component it runs the exact search, a Dijkstra from the client
+ * that stops once every taxi is settled (<code>ShortestPathTree</code>),
+ * and then every mode of the A* on the same graph and taxis.
+ * </br>
+ * A mode is a capacity of the openSet (a number or <code>auto</code>, see
+ * <code>AStar.solve</code>), optionally followed by settings joined with
+ * <code>+</code>: <code>+epsilon=1.5</code> for a weighted A*,
+ * <code>+anytime=50</code> for ARA* (from epsilon 3 unless given) and
+ * <code>+top=3</code> for the 3 closest taxis only. For example
+ * <code>auto+epsilon=2</code> or <code>1024+top=1</code>.
+ * </br>
+ * For every mode it prints:
+ * <ul>
+ *     <li>The mean time of a query and the speed-up over Dijkstra.</li>
+ *     <li>How many routes it found and how many reachable taxis it missed.
+ *     A top k search misses a taxi when it returns fewer than k routes.</li>
+ *     <li>The distribution of the optimality gap of its routes, the cost over the
+ *     Dijkstra distance minus one, in percent: the share of exact routes, the
+ *     mean, the median, p90, p99 and the largest. The routes of a top k search
+ *     are compared by rank with the k shortest distances.</li>
+ *     <li>How many routes broke a guarantee: cost less than Dijkstra,
+ *     or more than the bound of the route times Dijkstra.</li>
+ * </ul>
+ * The program exits with 1 if any route broke a guarantee, so
+ * it can run as a regression check next to <code>AStarCheck</code>.
+ * </br>
+ * Arguments: the nodes file, the taxis file, the number of clients and
+ * optionally the modes (16 to 1024, auto, a weighted, an anytime and a top 3
+ * search if none are given). Options: <code>--seed=N</code> for the clients,
+ * <code>--order=hilbert</code> or <code>--order=bfs</code> to renumber the
+ * vertices and <code>--csv=FILE</code> to add one line per mode to FILE.
+ */
+public class RouteQuality {
+
+    private static final double     EPSILON = 1e-9;
+    private static final int        WARMUP = 3;
+    private static final double     ANYTIME_EPSILON = 3.0;
+    private static final String[]   MODES = {
+            "16", "32", "64", "128", "256", "512", "1024", AStar.AUTO,
+            AStar.AUTO + "+epsilon=1.5", AStar.AUTO + "+anytime=50", AStar.AUTO + "+top=3"
+    };
+
+    public static void main(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        List<String> positional = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                int eq = arg.indexOf('=');
+                options.put((eq < 0) ? arg : arg.substring(0, eq), (eq < 0) ? "" : arg.substring(eq + 1));
+            } else {
+                positional.add(arg);
+            }
+        }
+
+        Graph<Coordinates> graph = new Graph<>(positional.get(0), positional.get(1), new Coordinates());
+        String order = options.get("--order");
+        if ("hilbert".equals(order))
+            graph.renumber(VertexOrder.hilbert(graph));
+        else if ("bfs".equals(order))
+            graph.renumber(VertexOrder.bfs(graph));
+        int count = Integer.parseInt(positional.get(2));
+        List<Mode> modes = new ArrayList<>();
+        for (String mode : (positional.size() > 3) ? positional.subList(3, positional.size()) : Arrays.asList(MODES))
+            modes.add(new Mode(mode));
+
+        /**
+         * The results are ordered by cost and can not be looked
+         * up by taxi, so the vertex of every taxi is found once.
+         */
+        List<Graph.Vertex<Coordinates>> taxis = graph.getTaxis();
+        Map<Graph.Vertex<Coordinates>, Integer> sourceOf = new IdentityHashMap<>();
+        int[] sources = new int[taxis.size()];
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = graph.findVertex(taxis.get(i).getLocation()).getIndex();
+            sourceOf.put(taxis.get(i), sources[i]);
+        }
+
+        Random rand = new Random(Long.parseLong(options.getOrDefault("--seed", "1")));
+        ConnectedComponents components = graph.getComponents();
+        DistanceWeighting<Coordinates> weighting = new DistanceWeighting<>();
+        long dijkstraNanos = 0;
+        for (int c = 0; c < WARMUP + count; ) {
+            int client = rand.nextInt(graph.getVertexCount());
+            if (!components.isMain(client))
+                continue;
+            boolean measured = c++ >= WARMUP;
+            long start = System.nanoTime();
+            ShortestPathTree<Coordinates> tree = ShortestPathTree.build(graph, client, weighting, sources);
+            if (measured)
+                dijkstraNanos += System.nanoTime() - start;
+            double[] exact = new double[sources.length];
+            int reachable = 0;
+            for (int source : sources) {
+                if (tree.reaches(source))
+                    exact[reachable++] = tree.getDistance(source);
+            }
+            exact = Arrays.copyOf(exact, reachable);
+            Arrays.sort(exact);
+            for (Mode mode : modes)
+                mode.run(graph, graph.getVertex(client).getLocation(), tree, sourceOf, exact, measured);
+        }
+
+        double dijkstraMs = dijkstraNanos / 1e6 / count;
+        System.out.println(String.format("%d clients, %d taxis, %d vertices, Dijkstra %.3f ms per client",
+                count, taxis.size(), graph.getVertexCount(), dijkstraMs));
+        System.out.println(String.format("%-22s %10s %8s %8s %7s %8s %9s %8s %8s %8s %9s %6s",
+                "Mode", "Time ms", "Speed-up", "Routes", "Missed", "Exact %", "Mean gap", "p50", "p90", "p99", "Max gap", "Broken"));
+        boolean broken = false;
+        for (Mode mode : modes) {
+            System.out.println(mode.row(dijkstraMs, count));
+            broken |= mode.broken > 0;
+        }
+        if (options.containsKey("--csv"))
+            appendCsv(options.get("--csv"), modes, dijkstraMs, count);
+        if (broken)
+            System.exit(1);
+    }
+
+    private static void appendCsv(String file, List<Mode> modes, double dijkstraMs, int count) {
+        boolean header = !new File(file).exists();
+        try (PrintWriter writer = new PrintWriter(new FileWriter(file, true))) {
+            if (header)
+                writer.println("Mode, Clients, Time ms, Speed-up, Routes, Missed, Exact %, Mean gap %, p50 gap %, p90 gap %, "
+                        + "p99 gap %, Max gap %, Broken");
+            for (Mode mode : modes) {
+                double[] gaps = mode.sortedGaps();
+                double ms = mode.nanos / 1e6 / count;
+                writer.println(mode.name + ", " + count + ", " + ms + ", " + dijkstraMs / ms + ", " + mode.gapCount
+                        + ", " + mode.missed + ", " + 100.0 * mode.exact / Math.max(1, mode.gapCount) + ", " + mean(gaps)
+                        + ", " + percentile(gaps, 0.5) + ", " + percentile(gaps, 0.9) + ", " + percentile(gaps, 0.99)
+                        + ", " + percentile(gaps, 1.0) + ", " + mode.broken);
+            }
+        } catch (IOException e) {
+            System.out.println("Could not write " + file);
+        }
+    }
+
+    /**
+     * The nearest rank percentile of sorted values, 0 if there are none.
+     */
+    private static double percentile(double[] sorted, double p) {
+        if (sorted.length == 0)
+            return 0.0;
+        int rank = (int) Math.ceil(p * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+
+    private static double mean(double[] values) {
+        double sum = 0;
+        for (double value : values)
+            sum += value;
+        return (values.length == 0) ? 0.0 : sum / values.length;
+    }
+
+    /**
+     * One mode of the A* and what it did so far.
+     */
+    private static class Mode {
+
+        private final String                name;
+        private final String                arg;
+        private final int                   topK;
+        private final AStar<Coordinates>    astar;
+        private long                        nanos;
+        private long                        missed;
+        private long                        exact;
+        private long                        broken;
+        /** The gaps in percent. */
+        private double[]                    gaps = new double[1024];
+        private int                         gapCount;
+
+        Mode(String name) {
+            this.name = name;
+            String[] parts = name.split("\\+");
+            arg = parts[0];
+            astar = new AStar<>();
+            double epsilon = 0;
+            long anytime = -1;
+            int top = 0;
+            for (int i = 1; i < parts.length; i++) {
+                String[] setting = parts[i].split("=");
+                if (setting.length != 2)
+                    throw (new IllegalArgumentException("Mode " + name + ": expected name=value, got " + parts[i] + "."));
+                switch (setting[0]) {
+                    case "epsilon":
+                        epsilon = Double.parseDouble(setting[1]);
+                        break;
+                    case "anytime":
+                        anytime = Long.parseLong(setting[1]);
+                        break;
+                    case "top":
+                        top = Integer.parseInt(setting[1]);
+                        break;
+                    default:
+                        throw (new IllegalArgumentException("Mode " + name + ": unknown setting " + setting[0] + "."));
+                }
+            }
+            if (anytime >= 0)
+                astar.setAnytime((epsilon > 0) ? epsilon : ANYTIME_EPSILON, anytime);
+            else if (epsilon > 0)
+                astar.setEpsilon(epsilon);
+            astar.setTopK(top);
+            topK = top;
+        }
+
+        /**
+         * Runs the mode for one client and compares its routes
+         * with the Dijkstra distances, while they are still
+         * ordered by this mode's A*.
+         * @param distances The distances of the reachable taxis, shortest first.
+         */
+        void run(Graph<Coordinates> graph, Coordinates client, ShortestPathTree<Coordinates> tree,
+                 Map<Graph.Vertex<Coordinates>, Integer> sourceOf, double[] distances, boolean measured) {
+            long start = System.nanoTime();
+            Map<Graph.Vertex<Coordinates>, Route<Coordinates>> results = astar.solve(graph, arg, client, null);
+            if (!measured)
+                return;
+            nanos += System.nanoTime() - start;
+            int rank = 0;
+            for (Map.Entry<Graph.Vertex<Coordinates>, Route<Coordinates>> entry : results.entrySet()) {
+                Route<Coordinates> route = entry.getValue();
+                double shortest = tree.getDistance(sourceOf.get(entry.getKey()));
+                if (route.getCost() < shortest - EPSILON || route.getCost() > route.getBound() * shortest + EPSILON)
+                    broken++;
+                /** A top k search is only as good as the k best routes there are. */
+                double reference = (topK > 0 && rank < distances.length) ? distances[rank] : shortest;
+                double gap = (reference > 0) ? 100.0 * (route.getCost() / reference - 1) : 0.0;
+                if (Math.abs(gap) <= 100.0 * EPSILON) {
+                    gap = 0.0;
+                    exact++;
+                }
+                addGap(gap);
+                rank++;
+            }
+            int expected = (topK > 0) ? Math.min(topK, distances.length) : distances.length;
+            missed += Math.max(0, expected - results.size());
+        }
+
+        String row(double dijkstraMs, int count) {
+            double[] gaps = sortedGaps();
+            double ms = nanos / 1e6 / count;
+            return String.format("%-22s %10.3f %8.2f %8d %7d %8.2f %9.4f %8.4f %8.4f %8.4f %9.4f %6d",
+                    name, ms, dijkstraMs / ms, gapCount, missed, 100.0 * exact / Math.max(1, gapCount), mean(gaps),
+                    percentile(gaps, 0.5), percentile(gaps, 0.9), percentile(gaps, 0.99), percentile(gaps, 1.0), broken);
+        }
+
+        double[] sortedGaps() {
+            double[] sorted = Arrays.copyOf(gaps, gapCount);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+
+        private void addGap(double gap) {
+            if (gapCount == gaps.length)
+                gaps = Arrays.copyOf(gaps, gapCount * 2);
+            gaps[gapCount++] = gap;
+        }
+
+    }
+
+}
@@ -0,0 +1,167 @@
+import java.util.Arrays;
+
+/**
+ * A reverse shortest path tree towards one target vertex.
+ * It is computed with Dijkstra's algorithm starting from
+ * the target, and keeps for every vertex index its exact
+ * distance to the target and the next vertex on the way
+ * there. So the distance of any taxi to the target is a
+ * single array read.
+ * </br>
+ * The roads of the <code>Graph</code> are two-way, so the tree
+ * is searched along the edges going out of each vertex, but
+ * every edge is weighed in the opposite direction (the way a
+ * taxi would drive it), as the weighting may differ per direction.
+ * Time dependent weightings cannot be used, because the time a
+ * taxi enters an edge is not known when searching backwards.
+ * @param <T> The type of the object the graph contains.
+ * @see DistanceTreeCache
+ */
+public class ShortestPathTree<T extends CostObject<T>> {
+
+    private final Graph<T>  graph;
+    private final int       target;
+    private final long      version;
+    private final double[]  distance;
+    private final int[]     next;
+
+    private ShortestPathTree(Graph<T> graph, int target, long version, double[] distance, int[] next) {
+        this.graph = graph;
+        this.target = target;
+        this.version = version;
+        this.distance = distance;
+        this.next = next;
+    }
+
+    /**
+     * Computes the tree of a target.
+     * @param graph The graph.
+     * @param target The index of the target vertex.
+     * @param weighting The weighting of the edges (not time dependent).
+     * @param <T> The type of the object the graph contains.
+     * @return The tree.
+     */
+    public static <T extends CostObject<T>> ShortestPathTree<T> build(Graph<T> graph, int target, Weighting<T> weighting) {
+        return build(graph, target, weighting, null);
+    }
+
+    /**
+     * Computes the part of the tree of a target that holds some sources.
+     * The search stops as soon as every source is settled, so only the
+     * vertices closer to the target than the farthest source are in the
+     * tree; the others look unreachable.
+     * @param graph The graph.
+     * @param target The index of the target vertex.
+     * @param weighting The weighting of the edges (not time dependent).
+     * @param sources The indices of the vertices that must be in the tree (null for all).
+     * @param <T> The type of the object the graph contains.
+     * @return The tree.
+     */
+    public static <T extends CostObject<T>> ShortestPathTree<T> build(Graph<T> graph, int target, Weighting<T> weighting, int[] sources) {
+        if (weighting.isTimeDependent())
+            throw (new IllegalArgumentException("Reverse trees need a weighting that does not depend on time."));
+        long version = graph.getVersion();
+        /** The costs of one moment, taken after the version (see <code>AStar</code>). */
+        Weighting<T> pinned = weighting.snapshot();
+        int n = graph.getVertexCount();
+        double[] distance = new double[n];
+        int[] next = new int[n];
+        Arrays.fill(distance, Double.POSITIVE_INFINITY);
+        Arrays.fill(next, -1);
+        boolean[] settled = new boolean[n];
+        IndexedMinHeap heap = new IndexedMinHeap(n);
+        boolean[] wanted = null;
+        int remaining = 0;
+        if (sources != null) {
+            wanted = new boolean[n];
+            for (int source : sources) {
+                if (!wanted[source]) {
+                    wanted[source] = true;
+                    remaining++;
+                }
+            }
+        }
+
+        distance[target] = 0.0;
+        heap.push(target, 0.0);
+        while (!heap.isEmpty()) {
+            int current = heap.poll();
+            settled[current] = true;
+            if (wanted != null && wanted[current] && --remaining == 0)
+                break;
+            double soFar = distance[current];
+            for (Graph.Edge<T> edge : graph.edgesOf(graph.getVertex(current))) {
+                int neighbor = edge.getTo().getIndex();
+                if (settled[neighbor])
+                    continue;
+                double tentative = soFar + pinned.cost(graph.reverse(edge), 0.0);
+                if (tentative < distance[neighbor]) {
+                    distance[neighbor] = tentative;
+                    next[neighbor] = current;
+                    heap.push(neighbor, tentative);
+                }
+            }
+        }
+        /**
+         * Tentative distances of a search cut short are not
+         * final, so the vertices not settled are left out.
+         */
+        if (wanted != null) {
+            for (int i = 0; i < n; i++) {
+                if (!settled[i]) {
+                    distance[i] = Double.POSITIVE_INFINITY;
+                    next[i] = -1;
+                }
+            }
+        }
+
+        return (new ShortestPathTree<>(graph, target, version, distance, next));
+    }
+
+    /**
+     *
+     * @return The index of the target vertex.
+     */
+    public int getTarget() {
+        return target;
+    }
+
+    /**
+     *
+     * @return The version of the graph the tree was computed on.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     *
+     * @param source The index of a vertex.
+     * @return Its distance to the target (infinity if unreachable).
+     */
+    public double getDistance(int source) {
+        return distance[source];
+    }
+
+    /**
+     *
+     * @param source The index of a vertex.
+     * @return true iff the target can be reached from it.
+     */
+    public boolean reaches(int source) {
+        return distance[source] != Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * The route from a vertex to the target.
+     * The route follows the tree lazily.
+     * @param source The index of a vertex.
+     * @return The route or null if the target cannot be reached.
+     */
+    public Route<T> route(int source) {
+        if (!reaches(source))
+            return null;
+        return Route.fromSuccessors(graph, next, source, distance[source]);
+    }
+
+}
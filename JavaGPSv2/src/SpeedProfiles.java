@@ -0,0 +1,255 @@
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * The speed profiles of the ways.
+ * A profile is the speed of a way in each time bucket of
+ * the day (for example 24 hourly or 96 quarter-hour buckets).
+ * Between the middles of two buckets the speed changes
+ * linearly, so the speed of a way is piecewise linear in time.
+ * <code>travelTime</code> drives an edge at the speed of every
+ * moment rather than at the speed it is entered with, so the
+ * profiles are FIFO: entering an edge later never gets out of it
+ * earlier, which is what a time dependent A* needs to be exact.
+ * </br>
+ * The profiles file is a csv keyed by the way id of the nodes file:
+ * <pre>
+ * id,b0,b1,...,bN
+ * 1234,50,50,...,35
+ * </pre>
+ * with speeds in km/h. To keep the memory low:
+ * <ul>
+ *     <li>Speeds are kept as single bytes (1 to 255 km/h).</li>
+ *     <li>Identical profiles are kept only once.</li>
+ *     <li>Way ids are kept in a sorted <code>int[]</code> next to the index of their profile.</li>
+ * </ul>
+ * Ways missing from the file drive at a default speed.
+ * @see TravelTimeWeighting
+ */
+public class SpeedProfiles {
+
+    private final int       buckets;
+    private final double    bucketHours;
+    private final byte[]    speeds;
+    private final int[]     wayIds;
+    private final int[]     profileOf;
+    private final double    maxSpeed;
+
+    /**
+     * Reads the profiles file.
+     * @param file The profiles file.
+     * @param defaultSpeed The speed of ways with no profile, in km/h.
+     */
+    public SpeedProfiles(String file, int defaultSpeed) {
+        Map<String, Integer> distinct = new HashMap<>();
+        List<byte[]> profiles = new ArrayList<>();
+        Map<Integer, Integer> ways = new TreeMap<>();
+        BufferedReader br = null;
+        int count = 0;
+
+        try {
+            br = new BufferedReader(new FileReader(file));
+            String line = br.readLine();
+            count = line.split(",").length - 1;
+            if (count < 1)
+                throw (new IllegalArgumentException("Profiles file must have at least one time bucket."));
+            byte[] constant = new byte[count];
+            Arrays.fill(constant, toByte(defaultSpeed));
+            distinct.put(Arrays.toString(constant), 0);
+            profiles.add(constant);
+            while ((line = br.readLine()) != null) {
+                String profile[] = line.split(",");
+                int id = Integer.parseInt(profile[0].trim());
+                byte[] speed = new byte[count];
+                for (int i = 0; i < count; i++)
+                    speed[i] = toByte(Integer.parseInt(profile[i + 1].trim()));
+                String key = Arrays.toString(speed);
+                Integer index = distinct.get(key);
+                if (index == null) {
+                    index = profiles.size();
+                    distinct.put(key, index);
+                    profiles.add(speed);
+                }
+                ways.put(id, index);
+            }
+        } catch (FileNotFoundException e) {
+            System.out.println("Profiles file not found!");
+            System.exit(1);
+        } catch (IOException e) {
+            System.out.println("IOException");
+            System.exit(1);
+        } finally {
+            try {
+                if (br != null) {
+                    br.close();
+                }
+            } catch (IOException e) {
+                System.out.println("Could not close profiles file");
+            }
+        }
+
+        buckets = count;
+        bucketHours = 24.0 / count;
+        speeds = new byte[profiles.size() * count];
+        int max = 0;
+        for (int p = 0; p < profiles.size(); p++) {
+            System.arraycopy(profiles.get(p), 0, speeds, p * count, count);
+            for (byte b : profiles.get(p))
+                max = Math.max(max, b & 0xFF);
+        }
+        maxSpeed = max;
+        wayIds = new int[ways.size()];
+        profileOf = new int[ways.size()];
+        int i = 0;
+        for (Map.Entry<Integer, Integer> entry : ways.entrySet()) {
+            wayIds[i] = entry.getKey();
+            profileOf[i] = entry.getValue();
+            i++;
+        }
+        assert checkFifo();
+    }
+
+    /**
+     * The speed of a way at a certain time.
+     * @param wayId The id of the way.
+     * @param time The time in hours since midnight (any value, it wraps around).
+     * @return The speed in km/h.
+     */
+    public double speed(int wayId, double time) {
+        int base = baseOf(wayId);
+        double position = positionOf(time);
+        int i = (int) position;
+        double fraction = position - i;
+        int from = speeds[base + (i % buckets)] & 0xFF;
+        int to = speeds[base + ((i + 1) % buckets)] & 0xFF;
+        return (from + (to - from) * fraction);
+    }
+
+    /**
+     * The time needed to drive along a way, entering it at a certain time.
+     * The speed keeps changing while driving, so the distance is the
+     * integral of the speed: between the middles of two buckets the speed
+     * is linear and the distance quadratic in time, and the time is found
+     * by solving it bucket after bucket until the distance is covered.
+     * Dividing the distance by the speed at the entry instead would let
+     * a car that enters just before a speed up arrive after one that
+     * enters just after it.
+     * @param wayId The id of the way.
+     * @param time The time the way is entered, in hours since midnight (any value, it wraps around).
+     * @param kilometres The distance driven.
+     * @return The hours needed.
+     */
+    public double travelTime(int wayId, double time, double kilometres) {
+        return drive(baseOf(wayId), positionOf(time), kilometres);
+    }
+
+    /**
+     *
+     * @return The highest speed of all profiles in km/h.
+     */
+    public double getMaxSpeed() {
+        return maxSpeed;
+    }
+
+    /**
+     *
+     * @return The number of time buckets of a day.
+     */
+    public int getBuckets() {
+        return buckets;
+    }
+
+    /**
+     *
+     * @return The number of distinct profiles kept.
+     */
+    public int getProfileCount() {
+        return speeds.length / buckets;
+    }
+
+    /**
+     * Checks that every profile is FIFO: for a few lengths, entering
+     * later, in steps of a quarter of a bucket over a whole day, never
+     * arrives earlier. The integration in <code>travelTime</code> makes
+     * this true of any profile, so a failure is a bug in it. It is meant
+     * to be called in an <code>assert</code>, so it only costs something
+     * when assertions are on (-ea).
+     * @return true, so it can be used as <code>assert profiles.checkFifo();</code>
+     * @throws IllegalStateException If a profile is not FIFO.
+     */
+    public boolean checkFifo() {
+        double step = bucketHours / 4;
+        for (int base = 0; base < speeds.length; base += buckets) {
+            for (double kilometres : new double[] {0.01, 1.0, 50.0}) {
+                double arrival = Double.NEGATIVE_INFINITY;
+                for (int k = 0; k <= 4 * buckets; k++) {
+                    double time = k * step;
+                    double next = time + drive(base, positionOf(time), kilometres);
+                    if (next < arrival - 1e-9)
+                        throw (new IllegalStateException("Profile " + base / buckets + " is not FIFO at hour " + time
+                                + " for " + kilometres + " km."));
+                    arrival = Math.max(arrival, next);
+                }
+            }
+        }
+        return true;
+    }
+
+    private int baseOf(int wayId) {
+        int found = Arrays.binarySearch(wayIds, wayId);
+        return ((found < 0) ? 0 : profileOf[found]) * buckets;
+    }
+
+    /**
+     * Where a time falls between the middles of the buckets:
+     * the integer part is the bucket whose middle it follows,
+     * the fraction how far it is towards the next middle.
+     */
+    private double positionOf(double time) {
+        double hour = time % 24.0;
+        if (hour < 0)
+            hour += 24.0;
+        double position = hour / bucketHours - 0.5;
+        if (position < 0)
+            position += buckets;
+        return position;
+    }
+
+    private double drive(int base, double position, double kilometres) {
+        int i = (int) position;
+        double fraction = position - i;
+        double left = kilometres;
+        double hours = 0.0;
+        while (true) {
+            int from = speeds[base + (i % buckets)] & 0xFF;
+            int to = speeds[base + ((i + 1) % buckets)] & 0xFF;
+            double speed = from + (to - from) * fraction;
+            double slope = (to - from) / bucketHours;
+            double span = (1 - fraction) * bucketHours;
+            double covered = (speed + slope * span / 2) * span;
+            if (covered >= left) {
+                /**
+                 * The root of slope / 2 * t^2 + speed * t = left,
+                 * written so it holds for a slope of 0 too.
+                 */
+                return hours + 2 * left / (speed + Math.sqrt(Math.max(0.0, speed * speed + 2 * slope * left)));
+            }
+            left -= covered;
+            hours += span;
+            i = (i + 1) % buckets;
+            fraction = 0.0;
+        }
+    }
+
+    /**
+     * Speeds are clamped between 1 and 255 km/h so that
+     * they fit in a byte and no edge takes for ever.
+     */
+    private static byte toByte(int speed) {
+        return (byte) Math.max(1, Math.min(255, speed));
+    }
+
+}
@@ -1,7 +1,10 @@
 import java.awt.Color;
+import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.*;
+import java.util.function.Supplier;
 
 /**
  * The main class.</br>
@@ -13,20 +16,186 @@ import java.util.*;
  */
 public class TaxiFinder {
 
+    /**
+     * The speed in km/h of ways without a speed profile.
+     */
+    private static final int    DEFAULT_SPEED = 40;
+
+    /**
+     * How many tiles a tiled graph keeps in memory.
+     */
+    private static final int    MAX_TILES = 64;
+
+    /**
+     * The first weight of the anytime A* if none is given.
+     */
+    private static final double ANYTIME_EPSILON = 3.0;
+
+    /**
+     * How many requests can wait for a search thread when serving.
+     */
+    private static final int    DEFAULT_QUEUE = 64;
+
+    /**
+     * How many warm-up queries run by default, and for how long at most.
+     */
+    private static final int    WARMUP_QUERIES = 50;
+    private static final long   WARMUP_MILLIS = 5000;
+
+    /**
+     * How many requests close a batch, and how many
+     * share one distance tree instead of running A*.
+     */
+    private static final int    BATCH_GROUP = 64;
+    private static final int    BATCH_SHARED = 4;
+
+    /**
+     * How often a traffic file is checked for changes, in milliseconds.
+     */
+    private static final long   TRAFFIC_MILLIS = 1000;
+
+    /**
+     * How many requests make a client vertex hot enough for a tree
+     * of its own, and every how many requests that count is halved.
+     */
+    private static final int    TREE_HOT = 3;
+    private static final int    TREE_DECAY = 1000;
+
+    /**
+     * How many levels of cells an overlay has.
+     */
+    private static final int    OVERLAY_LEVELS = 4;
+
+    /**
+     * The options of the A* that a request log keeps,
+     * so that a replay searches as the server did.
+     */
+    static final String[]       SEARCH_SETTINGS = {"epsilon", "anytime", "top", "speeds", "departure", "trees",
+                                                   "overlay"};
+
+    /**
+     * How often the edits of a served graph are compacted
+     * by default, in milliseconds, and how many it takes.
+     */
+    private static final long   COMPACT_MILLIS = 10000;
+    private static final int    COMPACT_EDITS = 64;
+
     /**
      * Main.
      * Displays times of each stage as well.
+     * The arguments are:
+     * <ul>
+     *     <li>The nodes, taxis and client files. The nodes may also be a directory
+     *     of tiles written by <code>GraphTiler</code>, which are then loaded on demand.</li>
+     *     <li>The capacity of the openSet, or <code>auto</code> for an adaptive one (see <code>AStar.solve</code>).</li>
+     *     <li>Optionally a speed profiles file, to find the fastest routes instead of the shortest.</li>
+     *     <li>Optionally the departure time in hours since midnight (default 0).</li>
+     * </ul>
+     * Options start with <code>--</code> and can be anywhere:
+     * <ul>
+     *     <li><code>--compress</code> collapses the chains of shape points of the nodes file.</li>
+     *     <li><code>--order=hilbert</code> or <code>--order=bfs</code> renumbers the
+     *     vertices so that neighbours are close in memory (see <code>VertexOrder</code>).</li>
+     *     <li><code>--epsilon=1.5</code> runs a weighted A* whose routes cost at most 1.5 times the shortest.</li>
+     *     <li><code>--anytime=200</code> runs an anytime A* (ARA*) that improves its routes for 200 milliseconds,
+     *     starting from the weight given by <code>--epsilon</code> (default 3).</li>
+     *     <li><code>--top=3</code> routes only the 3 taxis closest by road, taking the taxis in order
+     *     of straight line distance and stopping as soon as no other taxi can be closer.</li>
+     *     <li><code>--trees=8</code> keeps the distance trees of the 8 most popular client vertices,
+     *     shared by all the searches, and answers the clients asked for 3 times or more from
+     *     them (see <code>DistanceTreeCache</code>). Not with time dependent speeds.</li>
+     *     <li><code>--overlay=0.01</code> routes every taxi through a multi-level overlay of the graph
+     *     (see <code>OverlayRouter</code>) instead of the A*, with cells of 0.01 degrees on the first
+     *     of 4 levels, each twice the size of the one below. The routes are the shortest ones. Not
+     *     for tiled or edited graphs, nor with time dependent speeds.</li>
+     *     <li><code>--timeout=500</code> stops the search after 500 milliseconds and
+     *     <code>--budget=100000</code> after 100000 expansions, keeping the routes found so far.</li>
+     *     <li><code>--warmup</code> runs synthetic queries before the real ones, so their timings
+     *     (and the first requests when serving) are not those of a cold JVM (see <code>WarmUp</code>).
+     *     <code>--warmup=500</code> runs 500 of them instead of 50, with the capacity given and
+     *     <code>auto</code>, or with the capacities of <code>--warmup-mix=auto,64,1024</code>.</li>
+     *     <li><code>--traffic=FILE</code> multiplies the cost of the edges of every way by the
+     *     <code>wayId,multiplier</code> lines of FILE, read again whenever it changes, and
+     *     <code>--traffic-port=PORT</code> takes such lines on a local port (see <code>TrafficFeed</code>).
+     *     Every search keeps the traffic of when it started. Not for tiled or edited graphs.</li>
+     *     <li><code>--memory</code> prints how much memory the graph and the search take
+     *     (see <code>MemoryReport</code>).</li>
+     *     <li><code>--serve=7070</code> answers requests on a local port instead of solving the
+     *     client file once (see <code>DispatchServer</code>), with <code>--threads=N</code> search
+     *     threads, <code>--queue=N</code> waiting requests and <code>--timeout</code> per request.
+     *     The requests are searched with the same settings as the client file would be.
+     *     <code>--batch=5</code> groups the requests for the same client vertex that arrive within
+     *     5 milliseconds and searches each group once (see <code>BatchSolver</code>).
+     *     <code>--cache=N</code> keeps up to N routes in one cache shared by all the
+     *     searches (see <code>RouteCache</code>).
+     *     <code>--record=requests.log</code> records the requests and the settings to replay
+     *     them later (see <code>Replay</code>).
+     *     <code>--edit</code> accepts edits of the graph while serving (see <code>GraphEditor</code>),
+     *     compacted once 64 of them are pending, looking every 10 seconds or every
+     *     <code>--compact=MS</code> milliseconds. It needs a
+     *     nodes file without <code>--compress</code>, and does not go with <code>--batch</code>.</li>
+     * </ul>
      * @param args The arguments.
      */
     public static void main(String[] args) {
 
+        Map<String, String> options = new HashMap<>();
+        List<String> positional = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                int eq = arg.indexOf('=');
+                options.put((eq < 0) ? arg : arg.substring(0, eq), (eq < 0) ? "" : arg.substring(eq + 1));
+            } else {
+                positional.add(arg);
+            }
+        }
+        args = positional.toArray(new String[positional.size()]);
+
         long startTime = System.currentTimeMillis();
-        Graph<Coordinates> graph = new Graph<>(args[0], args[1], args[2], new Coordinates());
+        Graph<Coordinates> graph;
+        if (new File(args[0]).isDirectory()) {
+            graph = new TiledGraph(args[0], MAX_TILES, args[1], args[2]);
+        } else {
+            graph = new Graph<>(args[0], args[1], args[2], new Coordinates(), options.containsKey("--compress"));
+            String order = options.get("--order");
+            if ("hilbert".equals(order))
+                graph.renumber(VertexOrder.hilbert(graph));
+            else if ("bfs".equals(order))
+                graph.renumber(VertexOrder.bfs(graph));
+        }
+        if (args.length > 4)
+            options.put("--speeds", args[4]);
+        if (args.length > 5)
+            options.put("--departure", args[5]);
+        Weighting<Coordinates> weighting = traffic(graph, weighting(options), options);
+        Supplier<AStar<Coordinates>> astars = overlay(graph, weighting, astars(options, weighting), options);
+        if (options.containsKey("--warmup"))
+            warmUp(graph, astars, args[3], options);
         long graphTime = System.currentTimeMillis();
-        AStar<Coordinates> astar = new AStar<>();
-        Map<Graph.Vertex<Coordinates>, List<Graph.Vertex<Coordinates>>> results = astar.solve(graph, args[3]);
+        if (options.containsKey("--serve")) {
+            serve(graph, astars, args[3], options);
+            return;
+        }
+        AStar<Coordinates> astar = astars.get();
+        Query query = null;
+        if (options.containsKey("--timeout") || options.containsKey("--budget")) {
+            long timeout = options.containsKey("--timeout") ? Long.parseLong(options.get("--timeout")) : 0;
+            long budget = options.containsKey("--budget") ? Long.parseLong(options.get("--budget")) : 0;
+            query = new Query(timeout, budget);
+        }
+        Map<Graph.Vertex<Coordinates>, Route<Coordinates>> results = astar.solve(graph, args[3], query);
         long astarTime = System.currentTimeMillis();
-        kml(results, args[3]);
+        if (query != null && query.isPartial())
+            System.out.println("Partial results\t: " + query.getStatus() + " after " + query.getExpansions() + " expansions");
+        if (options.containsKey("--memory")) {
+            System.out.println(graph.memoryReport());
+            System.out.println(astar.memoryReport());
+            System.out.print(MemoryReport.jvm());
+        }
+        if (results.isEmpty())
+            System.out.println("No routes found");
+        else
+            kml(results, args[3]);
         long kmlTime = System.currentTimeMillis();
 
         System.out.println("Preprocessing\t: " + (graphTime - startTime) / 1000.0);
@@ -36,22 +205,231 @@ public class TaxiFinder {
 
     }
 
+    /**
+     * The settings of the A* given by the options, as a factory:
+     * the query, the warm-up and every search thread of the server
+     * get their own <code>AStar</code>, all set up the same way.
+     * The speed profiles (<code>--speeds</code>, the fifth argument)
+     * are read once and shared, as a weighting is only read, and
+     * so is the cache of distance trees (<code>--trees</code>).
+     * @param options The options, by name with their <code>--</code>.
+     * @return The factory.
+     */
+    static Supplier<AStar<Coordinates>> astars(Map<String, String> options) {
+        return astars(options, weighting(options));
+    }
+
+    /**
+     * The weighting of the options: travel times with <code>--speeds</code>,
+     * else distances.
+     * @param options The options, by name with their <code>--</code>.
+     * @return The weighting.
+     */
+    static Weighting<Coordinates> weighting(Map<String, String> options) {
+        if (options.containsKey("--speeds"))
+            return (new TravelTimeWeighting<Coordinates>(new SpeedProfiles(options.get("--speeds"), DEFAULT_SPEED)));
+        return (new DistanceWeighting<Coordinates>());
+    }
+
+    /**
+     * Same as <code>astars(options)</code>, with a weighting of its own.
+     * @param options The options, by name with their <code>--</code>.
+     * @param weighting The weighting of the edges, shared by all.
+     * @return The factory.
+     */
+    static Supplier<AStar<Coordinates>> astars(Map<String, String> options, Weighting<Coordinates> weighting) {
+        double departure = options.containsKey("--departure") ? Double.parseDouble(options.get("--departure")) : 0;
+        double epsilon = options.containsKey("--epsilon") ? Double.parseDouble(options.get("--epsilon")) : 0;
+        long anytime = options.containsKey("--anytime") ? Long.parseLong(options.get("--anytime")) : -1;
+        int top = options.containsKey("--top") ? Integer.parseInt(options.get("--top")) : 0;
+        DistanceTreeCache<Coordinates> trees = options.containsKey("--trees")
+                ? new DistanceTreeCache<Coordinates>(Integer.parseInt(options.get("--trees")), TREE_HOT, TREE_DECAY) : null;
+        return () -> {
+            AStar<Coordinates> astar = new AStar<>();
+            astar.setWeighting(weighting);
+            astar.setDeparture(departure);
+            if (anytime >= 0)
+                astar.setAnytime((epsilon > 0) ? epsilon : ANYTIME_EPSILON, anytime);
+            else if (epsilon > 0)
+                astar.setEpsilon(epsilon);
+            astar.setTopK(top);
+            astar.setTreeCache(trees);
+            return astar;
+        };
+    }
+
+    /**
+     * Routes the taxis of every <code>AStar</code> of a factory
+     * through one overlay of the graph when <code>--overlay</code>
+     * is given. The overlay follows the weighting by itself, so
+     * new traffic customizes it again.
+     * @param graph The graph.
+     * @param weighting The weighting of the searches of the factory.
+     * @param astars The factory.
+     * @param options The options, by name with their <code>--</code>.
+     * @return The factory, with the overlay set on every AStar it makes.
+     */
+    static Supplier<AStar<Coordinates>> overlay(Graph<Coordinates> graph, Weighting<Coordinates> weighting,
+                                                Supplier<AStar<Coordinates>> astars, Map<String, String> options) {
+        if (!options.containsKey("--overlay"))
+            return astars;
+        if (graph instanceof TiledGraph || options.containsKey("--edit") || weighting.isTimeDependent()) {
+            System.out.println("--overlay needs a nodes file, without --edit or time dependent speeds");
+            System.exit(1);
+        }
+        long start = System.currentTimeMillis();
+        int[][] partition = OverlayRouter.gridPartition(graph, Double.parseDouble(options.get("--overlay")), OVERLAY_LEVELS);
+        OverlayRouter<Coordinates> overlay = new OverlayRouter<>(graph, weighting, partition);
+        System.out.println("Overlay\t\t: " + (System.currentTimeMillis() - start) / 1000.0 + " ("
+                + overlay.getCellCount(1) + " cells)");
+        return () -> {
+            AStar<Coordinates> astar = astars.get();
+            astar.setOverlay(overlay);
+            return astar;
+        };
+    }
+
+    /**
+     * Puts live traffic on top of a weighting when a feed is given:
+     * a file (<code>--traffic=FILE</code>), read again whenever it
+     * changes, or a local port (<code>--traffic-port=PORT</code>) that
+     * takes batches of updates (see <code>TrafficFeed</code>).
+     * @return The overlay, or the weighting itself without a feed.
+     */
+    private static Weighting<Coordinates> traffic(Graph<Coordinates> graph, Weighting<Coordinates> weighting,
+                                                  Map<String, String> options) {
+        if (!options.containsKey("--traffic") && !options.containsKey("--traffic-port"))
+            return weighting;
+        if (graph instanceof TiledGraph || options.containsKey("--edit")) {
+            System.out.println("--traffic needs a nodes file, without --edit");
+            System.exit(1);
+        }
+        TrafficOverlay<Coordinates> overlay = new TrafficOverlay<>(graph, weighting);
+        if (options.containsKey("--traffic"))
+            TrafficFeed.watch(overlay, options.get("--traffic"), TRAFFIC_MILLIS);
+        if (options.containsKey("--traffic-port")) {
+            try {
+                TrafficFeed.listen(overlay, Integer.parseInt(options.get("--traffic-port")));
+            } catch (IOException e) {
+                System.out.println("Could not open port " + options.get("--traffic-port"));
+                System.exit(1);
+            }
+        }
+        return overlay;
+    }
+
+    /**
+     * Runs the warm-up queries and prints how long they took.
+     * The warm-up counts as preprocessing.
+     */
+    private static void warmUp(Graph<Coordinates> graph, Supplier<AStar<Coordinates>> astars, String arg,
+                               Map<String, String> options) {
+        String count = options.get("--warmup");
+        List<String> mix = new ArrayList<>();
+        if (options.containsKey("--warmup-mix")) {
+            mix.addAll(Arrays.asList(options.get("--warmup-mix").split(",")));
+        } else {
+            mix.add(arg);
+            if (!arg.startsWith(AStar.AUTO))
+                mix.add(AStar.AUTO);
+        }
+        long start = System.currentTimeMillis();
+        WarmUp<Coordinates> warmUp = new WarmUp<>(graph, astars, mix, 0);
+        warmUp.run(count.isEmpty() ? WARMUP_QUERIES : Integer.parseInt(count), WARMUP_MILLIS);
+        System.out.println("Warm-up\t\t: " + (System.currentTimeMillis() - start) / 1000.0 + " (" + warmUp.getQueries()
+                + " queries, " + warmUp.getExpansions() + " expansions)");
+    }
+
+    /**
+     * Runs a <code>DispatchServer</code> until the program is killed.
+     */
+    private static void serve(Graph<Coordinates> graph, Supplier<AStar<Coordinates>> astars, String arg,
+                              Map<String, String> options) {
+        int threads = options.containsKey("--threads") ? Integer.parseInt(options.get("--threads")) : 0;
+        int queue = options.containsKey("--queue") ? Integer.parseInt(options.get("--queue")) : DEFAULT_QUEUE;
+        long timeout = options.containsKey("--timeout") ? Long.parseLong(options.get("--timeout")) : 0;
+        DispatchServer<Coordinates> server = new DispatchServer<>(graph, new Coordinates(), astars, arg, threads, queue,
+                timeout);
+        if (options.containsKey("--cache"))
+            server.setCache(new RouteCache<Coordinates>(Integer.parseInt(options.get("--cache")), 0));
+        if (options.containsKey("--batch"))
+            server.setBatching(Long.parseLong(options.get("--batch")), BATCH_GROUP, BATCH_SHARED);
+        if (options.containsKey("--record"))
+            server.setRecorder(recorder(graph, arg, threads, queue, timeout, options));
+        if (options.containsKey("--edit")) {
+            if (graph instanceof TiledGraph || graph.hasShapes() || options.containsKey("--batch")) {
+                System.out.println("--edit needs a nodes file, without --compress or --batch");
+                System.exit(1);
+            }
+            GraphEditor<Coordinates> editor = new GraphEditor<>(graph);
+            long compact = options.containsKey("--compact") ? Long.parseLong(options.get("--compact")) : COMPACT_MILLIS;
+            editor.startCompaction(compact, COMPACT_EDITS);
+            server.setEditor(editor);
+        }
+        try {
+            server.start(Integer.parseInt(options.get("--serve")));
+            System.out.println("Serving on port " + server.getPort());
+            server.join();
+        } catch (IOException e) {
+            System.out.println("Could not open port " + options.get("--serve"));
+            System.exit(1);
+        } catch (InterruptedException e) {
+            server.stop();
+        }
+    }
+
+    /**
+     * Starts the log of the requests of the server, with the settings
+     * a replay needs, and closes it when the program is killed.
+     */
+    private static RequestLog.Recorder recorder(Graph<Coordinates> graph, String arg, int threads, int queue,
+                                                long timeout, Map<String, String> options) {
+        Map<String, String> settings = new LinkedHashMap<>();
+        settings.put("arg", arg);
+        settings.put("threads", Integer.toString(threads));
+        settings.put("queue", Integer.toString(queue));
+        settings.put("timeout", Long.toString(timeout));
+        if (options.containsKey("--batch"))
+            settings.put("batch", options.get("--batch"));
+        if (options.containsKey("--cache"))
+            settings.put("cache", options.get("--cache"));
+        for (String name : SEARCH_SETTINGS) {
+            if (options.containsKey("--" + name))
+                settings.put(name, options.get("--" + name));
+        }
+        RequestLog.Recorder recorder = null;
+        try {
+            recorder = RequestLog.record(options.get("--record"), settings, graph.getTaxis());
+        } catch (IOException e) {
+            System.out.println("Could not write " + options.get("--record"));
+            System.exit(1);
+        }
+        RequestLog.Recorder log = recorder;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                log.close();
+            } catch (IOException e) {
+                System.out.println("Could not close " + options.get("--record"));
+            }
+        }));
+        return recorder;
+    }
+
     /**
      * Constructs the kml file.
      * We suppose we have the results sorted in a <code>TreeMap</code>
      * based on the total cost in kilometres. The map consists
-     * of an <code>ArrayList</code> of <code>Coordinates</code>.
+     * of a <code>Route</code> from each taxi to the client.
      * @param result The results of the A* for each taxi.
-     * @param arg The capacity of the openSet given by the user.
+     * @param arg The capacity of the openSet given by the user (a number or <code>auto</code>).
      */
-    private static void kml(Map<Graph.Vertex<Coordinates>, List<Graph.Vertex<Coordinates>>> result, String arg) {
+    private static void kml(Map<Graph.Vertex<Coordinates>, Route<Coordinates>> result, String arg) {
 
         Random rand = new Random();
         Color green = Color.GREEN.darker(), color;
         PrintWriter writer = null;
-        TreeMap<Graph.Vertex<Coordinates>, List<Graph.Vertex<Coordinates>>> results = (TreeMap<Graph.Vertex<Coordinates>, List<Graph.Vertex<Coordinates>>>) result;
-        int capacity = Integer.parseInt(arg);
-        String file = "kml" + capacity + ".kml";
+        TreeMap<Graph.Vertex<Coordinates>, Route<Coordinates>> results = (TreeMap<Graph.Vertex<Coordinates>, Route<Coordinates>>) result;
+        String file = "kml" + arg + ".kml";
 
         try {
 
@@ -59,7 +437,7 @@ public class TaxiFinder {
             writer.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
             writer.println("<kml xmlns=\"http://earth.google.com/kml/2.1\">");
             writer.println("<Document>");
-            writer.println("<name>Taxi Routes " + capacity + "</name>");
+            writer.println("<name>Taxi Routes " + arg + "</name>");
             writer.println("<Style id=\"green\">");
             writer.println("<LineStyle>");
             writer.println("<color>" + Integer.toHexString(green.getRGB()) + "</color>");
@@ -93,7 +471,7 @@ public class TaxiFinder {
 
             }
             Graph.Vertex<Coordinates> current = results.firstEntry().getKey();
-            ArrayList<Graph.Vertex<Coordinates>> coordinates = (ArrayList<Graph.Vertex<Coordinates>>)results.firstEntry().getValue();
+            Route<Coordinates> coordinates = results.firstEntry().getValue();
             results.pollFirstEntry();
             /**
              *  This is to make the client point
@@ -102,7 +480,7 @@ public class TaxiFinder {
             writer.println("<name>Client</name>");
             writer.println("<Point>");
             writer.println("<coordinates>");
-            writer.println(coordinates.get(0).getLocation());
+            writer.println(coordinates.get(coordinates.size() - 1).getLocation());
             writer.println("</coordinates>");
             writer.println("</Point>");
             writer.println("</Placemark>");
@@ -138,7 +516,7 @@ public class TaxiFinder {
             while (!results.isEmpty()) {
 
                 current = results.firstEntry().getKey();
-                coordinates = (ArrayList<Graph.Vertex<Coordinates>>)results.firstEntry().getValue();
+                coordinates = results.firstEntry().getValue();
                 results.pollFirstEntry();
                 writer.println("<Placemark>");
                 writer.println("<name>TaxiID " + current.getId() + "</name>");
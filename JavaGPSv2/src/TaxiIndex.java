@@ -0,0 +1,285 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * A grid over the taxis, to find them in order of straight line distance.
+ * The taxis are bucketed in square cells of longitude/latitude degrees,
+ * stored as one sorted array of taxis with the start of every cell.
+ * A <code>Cursor</code> looks at the cells around a location ring by
+ * ring, and hands out a taxi only once no taxi in a ring not looked
+ * at yet can be closer, so the taxis come out exactly in order of
+ * <code>distance</code> while only the cells near the location are read.
+ * The positions of the taxis are kept in a <code>Haversine.Points</code>
+ * in the order of the cells, so reading a cell is one pass of
+ * <code>terms</code> over a range of it, and the taxis are ranked by
+ * their haversine terms without a <code>distance</code> per taxi.
+ * </br>
+ * The distance of a taxi is the distance of its vertex, which is a
+ * lower bound of the cost of its route for any admissible weighting.
+ * This is what lets <code>AStar</code> stop routing taxis once the k
+ * best routes are shorter than the next taxi is in a straight line.
+ * @param <T> The type of the object the graph contains.
+ * @see AStar#setTopK(int)
+ */
+public class TaxiIndex<T extends CostObject<T>> {
+
+    /**
+     * The smallest cell, in degrees (about 10 metres).
+     */
+    private static final double MIN_CELL = 1e-4;
+
+    private final List<Graph.Vertex<T>> taxis;
+    private final double                cell;
+    private final double                cosMin;
+    private final boolean               wraps;
+    private final int                   minX, maxX, minY, maxY;
+    private final LongIntHashMap        cells;
+    private final int[]                 start;
+    private final int[]                 members;
+    private final Haversine.Points      points;
+    private final int                   largestCell;
+
+    /**
+     * Typical constructor.
+     * The cells are sized so that there are about as many cells as taxis.
+     * @param taxis The taxis.
+     */
+    public TaxiIndex(List<Graph.Vertex<T>> taxis) {
+        this.taxis = taxis;
+        int n = taxis.size();
+        double west = Double.MAX_VALUE, east = -Double.MAX_VALUE, south = Double.MAX_VALUE, north = -Double.MAX_VALUE;
+        for (Graph.Vertex<T> taxi : taxis) {
+            west = Math.min(west, taxi.getLocation().getX());
+            east = Math.max(east, taxi.getLocation().getX());
+            south = Math.min(south, taxi.getLocation().getY());
+            north = Math.max(north, taxi.getLocation().getY());
+        }
+        cell = (n == 0) ? 1.0 : Math.max(MIN_CELL, Math.sqrt((east - west) * (north - south) / n));
+        /**
+         * Past 180 degrees of longitude the shorter way
+         * may cross the antimeridian, so longitudes bound nothing.
+         */
+        wraps = (n > 0 && east - west > 180);
+        cosMin = (n == 0) ? 1.0 : Math.cos(Math.toRadians(Math.max(Math.abs(south), Math.abs(north))));
+
+        long[] keys = new long[n];
+        Integer[] order = new Integer[n];
+        int x0 = Integer.MAX_VALUE, x1 = Integer.MIN_VALUE, y0 = Integer.MAX_VALUE, y1 = Integer.MIN_VALUE;
+        for (int i = 0; i < n; i++) {
+            int cx = cellOf(taxis.get(i).getLocation().getX());
+            int cy = cellOf(taxis.get(i).getLocation().getY());
+            x0 = Math.min(x0, cx);
+            x1 = Math.max(x1, cx);
+            y0 = Math.min(y0, cy);
+            y1 = Math.max(y1, cy);
+            keys[i] = key(cx, cy);
+            order[i] = i;
+        }
+        minX = x0;
+        maxX = x1;
+        minY = y0;
+        maxY = y1;
+        Arrays.sort(order, (a, b) -> Long.compare(keys[a], keys[b]));
+
+        cells = new LongIntHashMap(n);
+        members = new int[n];
+        int[] starts = new int[n + 1];
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            members[i] = order[i];
+            if (i == 0 || keys[order[i]] != keys[order[i - 1]]) {
+                cells.put(keys[order[i]], count);
+                starts[count++] = i;
+            }
+        }
+        starts[count] = n;
+        start = Arrays.copyOf(starts, count + 1);
+
+        double[] xs = new double[n], ys = new double[n];
+        for (int i = 0; i < n; i++) {
+            xs[i] = taxis.get(members[i]).getLocation().getX();
+            ys[i] = taxis.get(members[i]).getLocation().getY();
+        }
+        points = new Haversine.Points(xs, ys);
+        int largest = 0;
+        for (int c = 0; c < count; c++)
+            largest = Math.max(largest, start[c + 1] - start[c]);
+        largestCell = largest;
+    }
+
+    /**
+     * Starts handing out the taxis in order of distance from a location.
+     * @param location The location.
+     * @return A cursor over all the taxis.
+     */
+    public Cursor nearest(T location) {
+        return new Cursor(location);
+    }
+
+    /**
+     *
+     * @return The size of a cell in degrees.
+     */
+    public double getCellSize() {
+        return cell;
+    }
+
+    /**
+     *
+     * @return The bytes taken by the index, without the taxis.
+     */
+    public long memory() {
+        return MemoryReport.shallow(TaxiIndex.class) + cells.memory() + MemoryReport.array(start.length, 4) + MemoryReport.array(members.length, 4)
+                + points.memory();
+    }
+
+    private int cellOf(double degrees) {
+        return (int) Math.floor(degrees / cell);
+    }
+
+    private static long key(int cx, int cy) {
+        return (((long) cx << 32) | (cy & 0xFFFFFFFFL));
+    }
+
+    /**
+     * The taxis around a location, closest first.
+     * Not thread safe; every search uses its own.
+     */
+    public class Cursor {
+
+        private final T                         location;
+        private final int                       cx, cy;
+        private final int                       lastRing;
+        private final PriorityQueue<Candidate>  pending = new PriorityQueue<>();
+        private final double[]                  terms = new double[largestCell];
+        private int                             ring = -1;
+        private int                             cellsRead;
+
+        private Cursor(T location) {
+            this.location = location;
+            cx = cellOf(location.getX());
+            cy = cellOf(location.getY());
+            lastRing = taxis.isEmpty() ? -1 : Math.max(Math.max(Math.abs(cx - minX), Math.abs(cx - maxX)),
+                    Math.max(Math.abs(cy - minY), Math.abs(cy - maxY)));
+        }
+
+        /**
+         *
+         * @return The distance of the taxi <code>next</code> will return, or infinity if there is none.
+         */
+        public double nextDistance() {
+            fill();
+            if (pending.isEmpty())
+                return Double.POSITIVE_INFINITY;
+            /** Within 1e-8 of <code>distance</code>, so shrunk to stay a lower bound. */
+            return Haversine.kilometres(pending.peek().term) * (1 - 2e-8);
+        }
+
+        /**
+         *
+         * @return The closest taxi not handed out yet, or null if there is none.
+         */
+        public Graph.Vertex<T> next() {
+            fill();
+            Candidate next = pending.poll();
+            return (next == null) ? null : taxis.get(next.taxi);
+        }
+
+        /**
+         *
+         * @return How many cells were read so far.
+         */
+        public int getCellsRead() {
+            return cellsRead;
+        }
+
+        /**
+         * Reads rings until the closest pending taxi is no
+         * farther than any taxi in the rings still unread.
+         */
+        private void fill() {
+            while (ring < lastRing && (pending.isEmpty() || pending.peek().term > Haversine.termOf(unreadBound())))
+                readRing(++ring);
+        }
+
+        /**
+         * Reads the cells of a ring that are inside the grid
+         * of the taxis, so a location far from all of them
+         * costs nothing per ring.
+         */
+        private void readRing(int r) {
+            if (r == 0) {
+                readCell(cx, cy);
+                return;
+            }
+            int fromX = Math.max(cx - r, minX), toX = Math.min(cx + r, maxX);
+            for (int x = fromX; x <= toX; x++) {
+                readCell(x, cy - r);
+                readCell(x, cy + r);
+            }
+            int fromY = Math.max(cy - r + 1, minY), toY = Math.min(cy + r - 1, maxY);
+            for (int y = fromY; y <= toY; y++) {
+                readCell(cx - r, y);
+                readCell(cx + r, y);
+            }
+        }
+
+        private void readCell(int x, int y) {
+            if (x < minX || x > maxX || y < minY || y > maxY)
+                return;
+            int slot = cells.get(key(x, y));
+            if (slot == -1)
+                return;
+            cellsRead++;
+            int from = start[slot], to = start[slot + 1];
+            points.terms(from, to, location.getX(), location.getY(), terms);
+            for (int i = from; i < to; i++)
+                pending.add(new Candidate(members[i], terms[i - from]));
+        }
+
+        /**
+         * A lower bound of the distance of any taxi outside the rings read.
+         * Such a taxi is at least <code>ring</code> cells away in longitude
+         * or in latitude. A latitude gap bounds the great circle distance
+         * directly; a longitude gap only does through the cosine of the
+         * highest latitude around.
+         */
+        private double unreadBound() {
+            double gap = Math.toRadians(ring * cell);
+            double byLatitude = Haversine.EARTH_RADIUS * gap;
+            if (wraps || gap >= Math.PI)
+                return 0.0;
+            double cos = Math.min(cosMin, Math.cos(Math.toRadians(location.getY())));
+            double s = Math.sin(gap / 2) * cos;
+            double byLongitude = 2 * Haversine.EARTH_RADIUS * Math.asin(Math.min(1.0, s));
+            /** Stay clear of the 1e-8 between <code>Haversine</code> and <code>distance</code>. */
+            return Math.min(byLatitude, byLongitude) * (1 - 1e-7);
+        }
+
+    }
+
+    private static class Candidate implements Comparable<Candidate> {
+
+        private final int       taxi;
+        private final double    term;
+
+        Candidate(int taxi, double term) {
+            this.taxi = taxi;
+            this.term = term;
+        }
+
+        /**
+         * By haversine term, which grows with the distance, then by
+         * the order of the taxis, so equal distances come out as in
+         * <code>getTaxis</code>.
+         */
+        @Override
+        public int compareTo(Candidate other) {
+            int byDistance = Double.compare(term, other.term);
+            return (byDistance != 0) ? byDistance : Integer.compare(taxi, other.taxi);
+        }
+
+    }
+
+}
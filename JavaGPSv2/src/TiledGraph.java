@@ -0,0 +1,447 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A graph that is loaded tile by tile.
+ * Instead of reading the whole nodes file, it reads the index
+ * written by <code>GraphTiler</code> and loads a tile only when
+ * one of its vertices is needed: when a taxi or the client is
+ * snapped next to it, or when the A* asks for the edges of one
+ * of its vertices. At most a fixed number of tiles stays in
+ * memory; when another tile is needed, the least recently used
+ * one is dropped and will be read again from disk if needed.
+ * </br>
+ * The tiles in memory are found without a lock, so searches on
+ * many threads do not wait for each other; only reading a tile
+ * from disk is done under the lock. A tile remembers the number
+ * of tile reads when it was last used, so the one dropped is the
+ * least recently used as far as the reads can tell.
+ * </br>
+ * Edges that lead into another tile point to a light copy of
+ * the vertex they end at (same location and index, no edges),
+ * so tiles never hold on to each other and a dropped tile is
+ * really freed. Searches only go through <code>getVertex</code>
+ * and <code>edgesOf</code>, which always give the loaded vertex.
+ * <code>memoryReport</code> counts the tiles in memory at the
+ * time it is called, so it changes as tiles come and go.
+ * @see GraphTiler
+ */
+public class TiledGraph extends Graph<Coordinates> {
+
+    /**
+     * The radius of the Earth in kilometres, as in <code>Coordinates</code>.
+     */
+    private static final double             EARTH_RADIUS = 6371.0;
+
+    private final String                    directory;
+    private final double                    cellSize;
+    private final int                       vertexCount;
+    private final int                       edgeCount;
+    private final int                       maxTiles;
+    private final int[]                     cellX;
+    private final int[]                     cellY;
+    private final int[]                     first;
+    private final Map<Long, Integer>        tileOfCell;
+    private final AtomicReferenceArray<Tile> resident;
+    private final List<Integer>             loaded;
+    private volatile long                   loads;
+    private long                            evictions;
+
+    /**
+     * Constructor for a graph of tiles only,
+     * with no taxis and no client.
+     * @param directory The directory of the tiles.
+     * @param maxTiles How many tiles can be in memory at once.
+     */
+    public TiledGraph(String directory, int maxTiles) {
+        super();
+        this.directory = directory;
+        this.maxTiles = maxTiles;
+        tileOfCell = new HashMap<>();
+        loaded = new ArrayList<>();
+
+        DataInputStream in = null;
+        double cell = 0;
+        int vertices = 0, edges = 0, tiles = 0;
+        int[] xs = null, ys = null, firsts = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(new File(directory, GraphTiler.INDEX))));
+            cell = in.readDouble();
+            vertices = in.readInt();
+            edges = in.readInt();
+            tiles = in.readInt();
+            xs = new int[tiles];
+            ys = new int[tiles];
+            firsts = new int[tiles];
+            for (int t = 0; t < tiles; t++) {
+                xs[t] = in.readInt();
+                ys[t] = in.readInt();
+                firsts[t] = in.readInt();
+                in.readInt();
+                tileOfCell.put(GraphTiler.key(xs[t], ys[t]), t);
+            }
+        } catch (FileNotFoundException e) {
+            System.out.println("Tiles index not found!");
+            System.exit(1);
+        } catch (IOException e) {
+            System.out.println("IOException");
+            System.exit(1);
+        } finally {
+            try {
+                if (in != null) {
+                    in.close();
+                }
+            } catch (IOException e) {
+                System.out.println("Could not close tiles index");
+            }
+        }
+        cellSize = cell;
+        vertexCount = vertices;
+        edgeCount = edges;
+        cellX = xs;
+        cellY = ys;
+        first = firsts;
+        resident = new AtomicReferenceArray<>(tiles);
+    }
+
+    /**
+     * The tiled graph constructor.
+     * Only the tiles around the taxis and the client are loaded.
+     * @param directory The directory of the tiles.
+     * @param maxTiles How many tiles can be in memory at once.
+     * @param taxifile The file of taxis.
+     * @param clientfile The file of client(s).
+     */
+    public TiledGraph(String directory, int maxTiles, String taxifile, String clientfile) {
+        this(directory, maxTiles);
+        readTaxis(taxifile, new Coordinates());
+        readClient(clientfile, new Coordinates());
+    }
+
+    /**
+     * Get a vertex by its index, loading its tile if needed.
+     * @param index The index of the vertex.
+     * @return The vertex with this index.
+     */
+    @Override
+    public Vertex<Coordinates> getVertex(int index) {
+        int tile = tileOf(index);
+        return tile(tile).vertices[index - first[tile]];
+    }
+
+    /**
+     *
+     * @return The number of vertices of all the tiles.
+     */
+    @Override
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    /**
+     *
+     * @return The number of edges of all the tiles.
+     */
+    @Override
+    public int getEdgeCount() {
+        return edgeCount;
+    }
+
+    /**
+     * Get the edges of a vertex, loading its tile if needed.
+     * @param vertex A vertex of the graph.
+     * @return Its edges.
+     */
+    @Override
+    public List<Edge<Coordinates>> edgesOf(Vertex<Coordinates> vertex) {
+        return getVertex(vertex.getIndex()).getEdges();
+    }
+
+    /**
+     * Get the vertex at a location, loading its tile if needed.
+     * @param location The location.
+     * @return The vertex or null if there is none there.
+     */
+    @Override
+    public Vertex<Coordinates> findVertex(Coordinates location) {
+        Integer tile = tileOfCell.get(GraphTiler.key(GraphTiler.cell(location.getX(), cellSize), GraphTiler.cell(location.getY(), cellSize)));
+        if (tile == null)
+            return null;
+        Tile t = tile(tile);
+        int position = t.positions.get(location.key());
+        return (position == -1) ? null : t.vertices[position];
+    }
+
+    /**
+     * Finds the closest vertex by looking at the tile of
+     * the location and the tiles around it, going further
+     * out ring by ring until a vertex is found, and then
+     * on until the next ring is further away than the
+     * closest vertex found, as a closer vertex may sit
+     * across the border or the corner of a cell.
+     * @param loc The taxi's/client's location.
+     * @return The closest location based on the nodes.
+     */
+    @Override
+    protected Coordinates findClosest(Coordinates loc) {
+        int cx = GraphTiler.cell(loc.getX(), cellSize);
+        int cy = GraphTiler.cell(loc.getY(), cellSize);
+        double min = Double.MAX_VALUE;
+        Coordinates result = null;
+        int maxRing = 0;
+        for (int t = 0; t < cellX.length; t++)
+            maxRing = Math.max(maxRing, Math.max(Math.abs(cellX[t] - cx), Math.abs(cellY[t] - cy)));
+
+        for (int ring = 0; ring <= maxRing; ring++) {
+            if (result != null && ringDistance(loc, cx, cy, ring) > min)
+                break;
+            for (int x = cx - ring; x <= cx + ring; x++) {
+                for (int y = cy - ring; y <= cy + ring; y++) {
+                    if (Math.max(Math.abs(x - cx), Math.abs(y - cy)) != ring)
+                        continue;
+                    Integer tile = tileOfCell.get(GraphTiler.key(x, y));
+                    if (tile == null)
+                        continue;
+                    for (Vertex<Coordinates> vertex : tile(tile).vertices) {
+                        double dist = vertex.getLocation().distance(loc);
+                        if (dist < min) {
+                            min = dist;
+                            result = vertex.getLocation();
+                        }
+                    }
+                }
+            }
+        }
+
+        return (result == null) ? null : result.create(result);
+    }
+
+    /**
+     * A lower bound of the distance from a location to the
+     * cells of a ring around its own cell: the distance to
+     * the closest of the parallels and meridians where the
+     * ring starts. A meridian at dLon is asin(cos(lat) sin(dLon))
+     * away along the great circle, a parallel at dLat is dLat away.
+     * @return The distance in kilometres.
+     */
+    private double ringDistance(Coordinates loc, int cx, int cy, int ring) {
+        if (ring == 0)
+            return 0;
+        double dx = Math.min(loc.getX() - (cx - ring + 1) * cellSize, (cx + ring) * cellSize - loc.getX());
+        double dy = Math.min(loc.getY() - (cy - ring + 1) * cellSize, (cy + ring) * cellSize - loc.getY());
+        double meridian = Math.asin(Math.cos(Math.toRadians(loc.getY())) * Math.sin(Math.toRadians(Math.min(dx, 90))));
+        return (EARTH_RADIUS * Math.min(Math.toRadians(dy), meridian));
+    }
+
+    /**
+     *
+     * @return The number of tiles read from disk so far.
+     */
+    public synchronized long getLoads() {
+        return loads;
+    }
+
+    /**
+     *
+     * @return The number of tiles dropped from memory so far.
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     *
+     * @return The number of tiles in memory.
+     */
+    public synchronized int getResidentTiles() {
+        return loaded.size();
+    }
+
+    /**
+     *
+     * @return The number of tiles on disk.
+     */
+    public int getTileCount() {
+        return first.length;
+    }
+
+    /**
+     * Accounts for the memory of the graph: the index of the
+     * tiles, which is always there, the tiles in memory now
+     * and the bookkeeping of which tile to drop next. Light
+     * copies of the vertices across a tile border are counted
+     * apart, as they are the price of freeing tiles for good.
+     * @return The report.
+     */
+    @Override
+    public MemoryReport memoryReport() {
+        int tiles = first.length;
+        long vertexBytes = 0, edgeBytes = 0, borderBytes = 0, positionBytes = 0;
+        int vertices = 0, edges = 0, border = 0, count;
+        synchronized (this) {
+            count = loaded.size();
+            for (int tile : loaded) {
+                Tile t = resident.get(tile);
+                int base = first[tile], end = base + t.vertices.length;
+                vertices += t.vertices.length;
+                vertexBytes += MemoryReport.array(t.vertices.length, MemoryReport.REFERENCE)
+                        + t.vertices.length * (MemoryReport.shallow(Vertex.class) + MemoryReport.shallow(Coordinates.class));
+                for (Vertex<Coordinates> vertex : t.vertices) {
+                    List<Edge<Coordinates>> list = vertex.getEdges();
+                    edges += list.size();
+                    edgeBytes += MemoryReport.arrayList(list.size()) + list.size() * MemoryReport.shallow(Edge.class);
+                    for (Edge<Coordinates> edge : list) {
+                        int to = edge.getTo().getIndex();
+                        if (to < base || to >= end) {
+                            border++;
+                            borderBytes += MemoryReport.shallow(Vertex.class) + MemoryReport.shallow(Coordinates.class);
+                        }
+                    }
+                }
+                positionBytes += MemoryReport.shallow(Tile.class) + t.positions.memory();
+            }
+        }
+        MemoryReport report = new MemoryReport("Tiled graph of " + vertexCount + " vertices, " + edgeCount + " edges and "
+                + getTaxis().size() + " taxis, " + count + " of " + tiles + " tiles in memory");
+        report.add("tile index", tiles, "tiles", 3 * MemoryReport.array(tiles, 4) + MemoryReport.hashMap(tileOfCell.size())
+                + tileOfCell.size() * (MemoryReport.shallow(Long.class) + MemoryReport.shallow(Integer.class)), "layout");
+        report.add("tile vertices", vertices, "vertices", vertexBytes, "layout");
+        report.add("tile edges", edges, "edges", edgeBytes, "layout");
+        report.add("border copies", border, "vertices", borderBytes, "layout");
+        report.add("tile positions", vertices, "keys", positionBytes, "exact");
+        report.add("tile LRU", count, "tiles", MemoryReport.shallow(AtomicReferenceArray.class)
+                + MemoryReport.array(tiles, MemoryReport.REFERENCE) + MemoryReport.arrayList(count)
+                + count * MemoryReport.shallow(Integer.class), "layout");
+        reportTaxis(report);
+        return report;
+    }
+
+    /**
+     * Finds the tile of a vertex index.
+     * Tiles hold consecutive indices, so a binary search
+     * over the first index of each tile is enough.
+     */
+    private int tileOf(int index) {
+        int found = Arrays.binarySearch(first, index);
+        return (found >= 0) ? found : -found - 2;
+    }
+
+    /**
+     * Gives a tile, reading it if it is not in memory,
+     * and marks it as used.
+     */
+    private Tile tile(int tile) {
+        Tile t = resident.get(tile);
+        if (t == null)
+            t = load(tile);
+        long now = loads;
+        if (t.used != now)
+            t.used = now;
+        return t;
+    }
+
+    /**
+     * Reads a tile unless another thread did meanwhile, dropping
+     * the least recently used tile first if memory is full.
+     */
+    private synchronized Tile load(int tile) {
+        Tile t = resident.get(tile);
+        if (t != null)
+            return t;
+        t = read(tile);
+        if (loaded.size() >= maxTiles) {
+            int oldest = 0;
+            for (int i = 1; i < loaded.size(); i++) {
+                if (resident.get(loaded.get(i)).used < resident.get(loaded.get(oldest)).used)
+                    oldest = i;
+            }
+            resident.set(loaded.remove(oldest), null);
+            evictions++;
+        }
+        t.used = ++loads;
+        loaded.add(tile);
+        resident.set(tile, t);
+        return t;
+    }
+
+    /**
+     * Reads the vertices and edges of a tile from disk.
+     */
+    private Tile read(int tile) {
+        Vertex<Coordinates>[] vertices = null;
+        LongIntHashMap positions = null;
+        int base = first[tile];
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(GraphTiler.tileFile(directory, cellX[tile], cellY[tile]))));
+            int count = in.readInt();
+            vertices = newVertices(count);
+            positions = new LongIntHashMap(count);
+            for (int i = 0; i < count; i++) {
+                vertices[i] = new Vertex<>(new Coordinates(in.readDouble(), in.readDouble()));
+                setIndex(vertices[i], base + i);
+                positions.put(vertices[i].getLocation().key(), i);
+            }
+            int edges = in.readInt();
+            for (int i = 0; i < edges; i++) {
+                int from = in.readInt();
+                int to = in.readInt();
+                int wayId = in.readInt();
+                int index = in.readInt();
+                Coordinates location = new Coordinates(in.readDouble(), in.readDouble());
+                Vertex<Coordinates> target;
+                if (to >= base && to < base + count) {
+                    target = vertices[to - base];
+                } else {
+                    target = new Vertex<>(location);
+                    setIndex(target, to);
+                }
+                try {
+                    vertices[from].addEdge(newEdge(vertices[from], target, wayId, index));
+                } catch (SameVerticesException e) {
+
+                }
+            }
+        } catch (FileNotFoundException e) {
+            System.out.println("Tile file not found!");
+            System.exit(1);
+        } catch (IOException e) {
+            System.out.println("IOException");
+            System.exit(1);
+        } finally {
+            try {
+                if (in != null) {
+                    in.close();
+                }
+            } catch (IOException e) {
+                System.out.println("Could not close tile file");
+            }
+        }
+        return (new Tile(vertices, positions));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Vertex<Coordinates>[] newVertices(int count) {
+        return (Vertex<Coordinates>[]) new Vertex<?>[count];
+    }
+
+    /**
+     * A tile in memory: its vertices in the order of
+     * their indices and their positions by location key.
+     */
+    private static class Tile {
+
+        private final Vertex<Coordinates>[] vertices;
+        private final LongIntHashMap        positions;
+        /** The number of tile reads when the tile was last used. */
+        private volatile long               used;
+
+        Tile(Vertex<Coordinates>[] vertices, LongIntHashMap positions) {
+            this.vertices = vertices;
+            this.positions = positions;
+        }
+
+    }
+
+}
@@ -0,0 +1,184 @@
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A background feed of live traffic.
+ * Reads lines of "wayId,multiplier" and publishes them to
+ * a <code>TrafficOverlay</code>. There are two kinds of feeds:
+ * <ul>
+ *     <li>A file feed, which checks a file every so often and, when
+ *     it has changed, publishes its whole contents (ways not in the
+ *     file go back to 1).</li>
+ *     <li>A socket feed, which listens on a local port and publishes
+ *     every batch of lines it receives; a batch ends with an empty
+ *     line or when the connection closes.</li>
+ * </ul>
+ * The feed runs on a daemon thread, so it never keeps the program alive.
+ * @see TrafficOverlay
+ */
+public class TrafficFeed implements Runnable {
+
+    private final TrafficOverlay<?> overlay;
+    private final String            file;
+    private final long              period;
+    private final int               port;
+    private volatile boolean        running;
+    private long                    lastModified = -1;
+    private ServerSocket            server;
+    private Thread                  thread;
+
+    private TrafficFeed(TrafficOverlay<?> overlay, String file, long period, int port) {
+        this.overlay = overlay;
+        this.file = file;
+        this.period = period;
+        this.port = port;
+    }
+
+    /**
+     * Starts a feed that watches a file.
+     * The file is read once before this returns,
+     * so the first search already sees its traffic.
+     * @param overlay The overlay to publish to.
+     * @param file The traffic file.
+     * @param periodMillis How often the file is checked.
+     * @return The running feed.
+     */
+    public static TrafficFeed watch(TrafficOverlay<?> overlay, String file, long periodMillis) {
+        TrafficFeed feed = new TrafficFeed(overlay, file, periodMillis, -1);
+        feed.check();
+        feed.start();
+        return feed;
+    }
+
+    /**
+     * Starts a feed that listens on a local port.
+     * @param overlay The overlay to publish to.
+     * @param port The port (on the loopback address).
+     * @return The running feed.
+     * @throws IOException If the port cannot be opened.
+     */
+    public static TrafficFeed listen(TrafficOverlay<?> overlay, int port) throws IOException {
+        TrafficFeed feed = new TrafficFeed(overlay, null, 0, port);
+        feed.server = new ServerSocket(port, 8, InetAddress.getLoopbackAddress());
+        feed.start();
+        return feed;
+    }
+
+    private void start() {
+        running = true;
+        thread = new Thread(this, "traffic-feed");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the feed.
+     */
+    public void stop() {
+        running = false;
+        thread.interrupt();
+        if (server != null) {
+            try {
+                server.close();
+            } catch (IOException e) {
+                System.out.println("Could not close traffic socket");
+            }
+        }
+    }
+
+    /**
+     * The loop of the feed thread.
+     */
+    @Override
+    public void run() {
+        if (server != null)
+            serve();
+        else
+            poll();
+    }
+
+    private void poll() {
+        while (running) {
+            check();
+            try {
+                Thread.sleep(period);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Publishes the file if it changed since it was last read.
+     */
+    private void check() {
+        File traffic = new File(file);
+        long modified = traffic.lastModified();
+        if (modified == 0 || modified == lastModified)
+            return;
+        lastModified = modified;
+        BufferedReader br = null;
+        try {
+            br = new BufferedReader(new FileReader(traffic));
+            Map<Integer, Float> batch = new HashMap<>();
+            String line;
+            while ((line = br.readLine()) != null)
+                parse(line, batch);
+            overlay.update(batch, true);
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Could not read traffic file: " + e.getMessage());
+        } finally {
+            try {
+                if (br != null) {
+                    br.close();
+                }
+            } catch (IOException e) {
+                System.out.println("Could not close traffic file");
+            }
+        }
+    }
+
+    private void serve() {
+        while (running) {
+            try (Socket socket = server.accept();
+                 BufferedReader br = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+                Map<Integer, Float> batch = new HashMap<>();
+                String line;
+                while ((line = br.readLine()) != null) {
+                    if (line.trim().isEmpty()) {
+                        publish(batch);
+                    } else {
+                        parse(line, batch);
+                    }
+                }
+                publish(batch);
+            } catch (IOException | IllegalArgumentException e) {
+                if (running)
+                    System.out.println("Traffic feed error: " + e.getMessage());
+            }
+        }
+    }
+
+    private void publish(Map<Integer, Float> batch) {
+        if (!batch.isEmpty()) {
+            overlay.update(batch, false);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Parses a "wayId,multiplier" line.
+     * Lines that do not start with a number (like a header) are skipped.
+     */
+    private static void parse(String line, Map<Integer, Float> batch) {
+        String traffic[] = line.split(",");
+        if (traffic.length < 2 || traffic[0].trim().isEmpty() || !Character.isDigit(traffic[0].trim().charAt(0)))
+            return;
+        batch.put(Integer.parseInt(traffic[0].trim()), Float.parseFloat(traffic[1].trim()));
+    }
+
+}
@@ -0,0 +1,203 @@
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Live traffic on top of another weighting.
+ * Every edge of the <code>Graph</code> has a multiplier of its
+ * cost (1 means free flow, 2 means it takes twice as long).
+ * The multipliers are a <code>float[]</code> indexed by edge index
+ * which is never changed after it is published: an update copies
+ * the array, changes the copy and publishes it with a single
+ * volatile write. So:
+ * <ul>
+ *     <li>Searches never block and never wait for an update.</li>
+ *     <li>A search always reads complete arrays, never half an update.</li>
+ *     <li>A search takes a <code>snapshot</code> when it starts and keeps
+ *     its costs to the end: its gScores all come from one array, and its
+ *     heuristic stays admissible even if the smallest multiplier goes
+ *     down meanwhile. The next search sees the new costs.</li>
+ *     <li>The graph is never rebuilt, only its version moves on, so caches drop old routes.</li>
+ * </ul>
+ * Updates are given per way id, as that is what traffic feeds know.
+ * Multipliers below 1 make edges cheaper than their base cost, so the
+ * heuristic is scaled by the smallest multiplier to stay admissible.
+ * @param <T> The type of the object the graph contains.
+ * @see TrafficFeed
+ */
+public class TrafficOverlay<T extends CostObject<T>> implements Weighting<T> {
+
+    private final Graph<T>          graph;
+    private final Weighting<T>      base;
+    private final long[]            byWay;
+    private volatile Snapshot       current;
+
+    /**
+     * Typical constructor.
+     * All multipliers start at 1.
+     * @param graph The graph whose edges are weighed.
+     * @param base The weighting the multipliers apply to.
+     */
+    public TrafficOverlay(Graph<T> graph, Weighting<T> base) {
+        this.graph = graph;
+        this.base = base;
+        /**
+         * Pairs of (way id, edge index) packed in longs and
+         * sorted, so all the edges of a way are next to each other.
+         */
+        byWay = new long[graph.getEdgeCount()];
+        int i = 0;
+        for (int v = 0; v < graph.getVertexCount(); v++) {
+            for (Graph.Edge<T> edge : graph.edgesOf(graph.getVertex(v)))
+                byWay[i++] = ((long) edge.getWayId() << 32) | (edge.getIndex() & 0xFFFFFFFFL);
+        }
+        Arrays.sort(byWay, 0, i);
+        float[] ones = new float[graph.getEdgeCount()];
+        Arrays.fill(ones, 1.0f);
+        current = new Snapshot(ones, 1.0f);
+    }
+
+    /**
+     *
+     * @param edge The edge.
+     * @param time The time the edge is entered, in hours since midnight.
+     * @return The base cost times the multiplier of the edge.
+     */
+    @Override
+    public double cost(Graph.Edge<T> edge, double time) {
+        return cost(current, base, edge, time);
+    }
+
+    /**
+     *
+     * @param distance The straight line distance in kilometres.
+     * @return The base heuristic scaled down by the smallest multiplier.
+     */
+    @Override
+    public double heuristic(double distance) {
+        return (base.heuristic(distance) * Math.min(1.0f, current.smallest));
+    }
+
+    /**
+     * The multipliers published last, which do
+     * not change for the weighting returned.
+     * @return The weighting of the traffic of now.
+     */
+    @Override
+    public Weighting<T> snapshot() {
+        return (new Pinned(current, base.snapshot()));
+    }
+
+    /**
+     *
+     * @return true iff the base weighting is time dependent.
+     */
+    @Override
+    public boolean isTimeDependent() {
+        return base.isTimeDependent();
+    }
+
+    /**
+     * Publishes new multipliers for some ways.
+     * Updates are serialised with each other but never with searches.
+     * @param multipliers The multiplier of each way id.
+     * @param reset true to set all other ways back to 1.
+     */
+    public synchronized void update(Map<Integer, Float> multipliers, boolean reset) {
+        float[] next;
+        if (reset) {
+            next = new float[current.multipliers.length];
+            Arrays.fill(next, 1.0f);
+        } else {
+            next = current.multipliers.clone();
+        }
+        for (Map.Entry<Integer, Float> entry : multipliers.entrySet()) {
+            float value = entry.getValue();
+            if (!(value > 0.0f) || Float.isInfinite(value))
+                throw (new IllegalArgumentException("Multiplier of way " + entry.getKey() + " must be positive and finite."));
+            long from = (long) entry.getKey() << 32;
+            int i = Arrays.binarySearch(byWay, from);
+            if (i < 0)
+                i = -i - 1;
+            for (; i < byWay.length && (byWay[i] >> 32) == entry.getKey(); i++)
+                next[(int) byWay[i]] = value;
+        }
+        float smallest = Float.MAX_VALUE;
+        for (float value : next)
+            smallest = Math.min(smallest, value);
+        current = new Snapshot(next, smallest);
+        graph.nextVersion();
+    }
+
+    /**
+     * Sets all multipliers back to 1.
+     */
+    public synchronized void clear() {
+        float[] ones = new float[current.multipliers.length];
+        Arrays.fill(ones, 1.0f);
+        current = new Snapshot(ones, 1.0f);
+        graph.nextVersion();
+    }
+
+    /**
+     *
+     * @param edge The index of an edge.
+     * @return Its current multiplier.
+     */
+    public float getMultiplier(int edge) {
+        return current.multipliers[edge];
+    }
+
+    private static <T extends CostObject<T>> double cost(Snapshot snapshot, Weighting<T> base, Graph.Edge<T> edge, double time) {
+        int index = edge.getIndex();
+        float[] multipliers = snapshot.multipliers;
+        double cost = base.cost(edge, time);
+        return (index < 0 || index >= multipliers.length) ? cost : cost * multipliers[index];
+    }
+
+    /**
+     * The weighting of one snapshot, for one search.
+     */
+    private class Pinned implements Weighting<T> {
+
+        private final Snapshot      snapshot;
+        private final Weighting<T>  base;
+
+        Pinned(Snapshot snapshot, Weighting<T> base) {
+            this.snapshot = snapshot;
+            this.base = base;
+        }
+
+        @Override
+        public double cost(Graph.Edge<T> edge, double time) {
+            return TrafficOverlay.cost(snapshot, base, edge, time);
+        }
+
+        @Override
+        public double heuristic(double distance) {
+            return (base.heuristic(distance) * Math.min(1.0f, snapshot.smallest));
+        }
+
+        @Override
+        public boolean isTimeDependent() {
+            return base.isTimeDependent();
+        }
+
+    }
+
+    /**
+     * The published state: the multipliers and the smallest of them.
+     * Both are read through the same reference so they always match.
+     */
+    private static class Snapshot {
+
+        private final float[]   multipliers;
+        private final float     smallest;
+
+        Snapshot(float[] multipliers, float smallest) {
+            this.multipliers = multipliers;
+            this.smallest = smallest;
+        }
+
+    }
+
+}
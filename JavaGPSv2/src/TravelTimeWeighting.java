@@ -0,0 +1,55 @@
+/**
+ * A time dependent weighting.
+ * The cost of an edge is the time in hours needed to
+ * drive along it while the speed of its way changes,
+ * which keeps the costs FIFO (see <code>SpeedProfiles.travelTime</code>).
+ * The heuristic divides the distance by the
+ * highest speed of all profiles, so it never overestimates.
+ * @param <T> The type of the object the graph contains.
+ * @see SpeedProfiles
+ */
+public class TravelTimeWeighting<T extends CostObject<T>> implements Weighting<T> {
+
+    private final SpeedProfiles profiles;
+    private final double        maxSpeed;
+
+    /**
+     * Typical constructor.
+     * @param profiles The speed profiles of the ways.
+     */
+    public TravelTimeWeighting(SpeedProfiles profiles) {
+        this.profiles = profiles;
+        this.maxSpeed = profiles.getMaxSpeed();
+    }
+
+    /**
+     *
+     * @param edge The edge.
+     * @param time The time the edge is entered, in hours since midnight.
+     * @return The hours needed to drive along it.
+     */
+    @Override
+    public double cost(Graph.Edge<T> edge, double time) {
+        return profiles.travelTime(edge.getWayId(), time, edge.cost());
+    }
+
+    /**
+     *
+     * @param distance The straight line distance in kilometres.
+     * @return The hours needed at the highest speed.
+     */
+    @Override
+    public double heuristic(double distance) {
+        return (distance / maxSpeed);
+    }
+
+    /**
+     *
+     * @return true.
+     */
+    @Override
+    public boolean isTimeDependent() {
+        return true;
+    }
+
+}
@@ -0,0 +1,164 @@
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Orders of the vertices of a <code>Graph</code> that keep
+ * neighbouring vertices at neighbouring indices.
+ * The nodes file lists vertices way by way, so two ends of a
+ * crossroad can be far apart in the file, and so in memory.
+ * Given to <code>Graph.renumber</code>, these orders make a search
+ * touch memory that is close to what it touched just before.
+ * <ul>
+ *     <li><code>hilbert</code> follows a Hilbert curve over the longitude
+ *     and latitude, so vertices close on the map are close in the order.</li>
+ *     <li><code>bfs</code> follows a breadth first search of the roads,
+ *     and works for any kind of location.</li>
+ * </ul>
+ * Every order gives the old index of the vertex at each new index.
+ * @see OrderBenchmark
+ */
+public class VertexOrder {
+
+    /**
+     * The number of bits of each coordinate on the curve.
+     * Two of them must fit in the upper half of a long.
+     */
+    private static final int    BITS = 15;
+
+    private VertexOrder() {
+
+    }
+
+    /**
+     * Orders the vertices along a Hilbert curve over
+     * the bounding box of the graph.
+     * @param graph The graph.
+     * @return The old index of the vertex at each new index.
+     */
+    public static int[] hilbert(Graph<Coordinates> graph) {
+        int n = graph.getVertexCount();
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (int v = 0; v < n; v++) {
+            Coordinates location = graph.getVertex(v).getLocation();
+            minX = Math.min(minX, location.getX());
+            minY = Math.min(minY, location.getY());
+            maxX = Math.max(maxX, location.getX());
+            maxY = Math.max(maxY, location.getY());
+        }
+        int side = 1 << BITS;
+        double scaleX = (maxX > minX) ? (side - 1) / (maxX - minX) : 0;
+        double scaleY = (maxY > minY) ? (side - 1) / (maxY - minY) : 0;
+
+        /**
+         * Pairs of (curve position, old index) packed in longs,
+         * so that sorting them sorts the vertices along the curve.
+         */
+        long[] keys = new long[n];
+        for (int v = 0; v < n; v++) {
+            Coordinates location = graph.getVertex(v).getLocation();
+            int x = (int) ((location.getX() - minX) * scaleX);
+            int y = (int) ((location.getY() - minY) * scaleY);
+            keys[v] = ((long) hilbertIndex(side, x, y) << 32) | v;
+        }
+        Arrays.sort(keys);
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++)
+            order[i] = (int) keys[i];
+        return order;
+    }
+
+    /**
+     * Orders the vertices by a breadth first search,
+     * starting again from the first vertex not seen
+     * yet whenever a component is done.
+     * @param graph The graph.
+     * @param <T> The type of the object the graph contains.
+     * @return The old index of the vertex at each new index.
+     */
+    public static <T extends CostObject<T>> int[] bfs(Graph<T> graph) {
+        int n = graph.getVertexCount();
+        int[] order = new int[n];
+        boolean[] seen = new boolean[n];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        int next = 0;
+        for (int start = 0; start < n; start++) {
+            if (seen[start])
+                continue;
+            seen[start] = true;
+            queue.add(start);
+            while (!queue.isEmpty()) {
+                int v = queue.poll();
+                order[next++] = v;
+                for (Graph.Edge<T> edge : graph.edgesOf(graph.getVertex(v))) {
+                    int to = edge.getTo().getIndex();
+                    if (!seen[to]) {
+                        seen[to] = true;
+                        queue.add(to);
+                    }
+                }
+            }
+        }
+        return order;
+    }
+
+    /**
+     * The order the graph has now, for comparisons.
+     * @param graph The graph.
+     * @param <T> The type of the object the graph contains.
+     * @return The identity order.
+     */
+    public static <T extends CostObject<T>> int[] identity(Graph<T> graph) {
+        int[] order = new int[graph.getVertexCount()];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        return order;
+    }
+
+    /**
+     * The mean distance between the indices of the two
+     * ends of an edge. The smaller it is, the more often
+     * a neighbour is already in the cache.
+     * @param graph The graph.
+     * @param <T> The type of the object the graph contains.
+     * @return The mean index distance over all edges.
+     */
+    public static <T extends CostObject<T>> double meanEdgeSpan(Graph<T> graph) {
+        long total = 0, edges = 0;
+        for (int v = 0; v < graph.getVertexCount(); v++) {
+            for (Graph.Edge<T> edge : graph.edgesOf(graph.getVertex(v))) {
+                total += Math.abs(edge.getTo().getIndex() - v);
+                edges++;
+            }
+        }
+        return (edges == 0) ? 0 : (double) total / edges;
+    }
+
+    /**
+     * The position of a cell on the Hilbert curve
+     * that fills a square of the given side.
+     * @param side The side of the square, a power of two.
+     * @param x The cell along the first axis.
+     * @param y The cell along the second axis.
+     * @return The position of the cell on the curve.
+     */
+    private static int hilbertIndex(int side, int x, int y) {
+        int d = 0;
+        for (int s = side / 2; s > 0; s /= 2) {
+            int rx = (x & s) > 0 ? 1 : 0;
+            int ry = (y & s) > 0 ? 1 : 0;
+            d += s * s * ((3 * rx) ^ ry);
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = s - 1 - x;
+                    y = s - 1 - y;
+                }
+                int swap = x;
+                x = y;
+                y = swap;
+            }
+        }
+        return d;
+    }
+
+}
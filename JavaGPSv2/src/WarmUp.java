@@ -0,0 +1,121 @@
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Runs synthetic queries on a loaded graph before the real ones.
+ * The first searches of a fresh JVM run in the interpreter and
+ * pay for the JIT compiling the A*, the <code>PrioQueue</code>,
+ * the hash maps and the routes; a warm-up pays that before the
+ * first real query, which then runs at steady state speed.
+ * </br>
+ * Every query puts a client on a random vertex of the main
+ * component and searches with the next capacity of the mix
+ * (for example <code>auto</code> and <code>64</code>), so the
+ * code of every mode the real queries use gets compiled. Each
+ * query stops after <code>BUDGET</code> expansions, so a warm-up
+ * costs about the same on any size of graph, and the whole
+ * warm-up stops at its time limit. The routes found are read
+ * vertex by vertex, as the kml file and the dispatch server do.
+ * The warm-up has its own <code>AStar</code>, made by the same factory
+ * as the ones of the real queries, so it runs the weighting, the
+ * epsilon, the anytime rounds and the top k search they will run.
+ * It leaves no state behind but what the graph builds once anyway
+ * (the snap points).
+ * </br>
+ * Class loading is the other cost of a cold start, and a class data
+ * sharing archive removes it. On Java 13 and later, with the classes
+ * in a jar, a training run with the warm-up writes one for all the
+ * classes it loaded:
+ * <code>java -XX:ArchiveClassesAtExit=gps.jsa -cp gps.jar TaxiFinder ... --warmup</code>
+ * and later runs map it with <code>-XX:SharedArchiveFile=gps.jsa</code>.
+ * @param <T> The type of the object the graph contains.
+ */
+public class WarmUp<T extends CostObject<T>> {
+
+    /**
+     * The most expansions of one warm-up query.
+     */
+    public static final long    BUDGET = 5000;
+
+    private final Graph<T>              graph;
+    private final Supplier<AStar<T>>    astars;
+    private final List<String>          mix;
+    private final Random                rand;
+    private int                         queries;
+    private long                        expansions;
+    /** Read from the routes, so that reading them is not optimised away. */
+    private long                        touched;
+
+    /**
+     * Constructor for a warm-up of the plain A*.
+     * @param graph The graph.
+     * @param mix The capacities of the openSet to cycle through (see <code>AStar.solve</code>).
+     * @param seed The seed of the random clients.
+     */
+    public WarmUp(Graph<T> graph, List<String> mix, long seed) {
+        this(graph, AStar::new, mix, seed);
+    }
+
+    /**
+     * Typical constructor.
+     * @param graph The graph.
+     * @param astars Makes the <code>AStar</code> of the warm-up, set up as the one of the real queries.
+     * @param mix The capacities of the openSet to cycle through (see <code>AStar.solve</code>).
+     * @param seed The seed of the random clients.
+     */
+    public WarmUp(Graph<T> graph, Supplier<AStar<T>> astars, List<String> mix, long seed) {
+        if (mix.isEmpty())
+            throw (new IllegalArgumentException("The mix needs at least one capacity."));
+        this.graph = graph;
+        this.astars = astars;
+        this.mix = mix;
+        this.rand = new Random(seed);
+    }
+
+    /**
+     * Runs warm-up queries.
+     * @param count The number of queries.
+     * @param millis The most time the warm-up may take.
+     * @return The number of queries run.
+     */
+    public int run(int count, long millis) {
+        long end = System.nanoTime() + millis * 1000000L;
+        ConnectedComponents components = graph.getComponents();
+        AStar<T> astar = astars.get();
+        int run = 0;
+        while (run < count && System.nanoTime() < end) {
+            Graph.Vertex<T> vertex = graph.getVertex(rand.nextInt(graph.getVertexCount()));
+            if (components != null && !components.isMain(vertex.getIndex()))
+                continue;
+            Query query = new Query(0, BUDGET);
+            Map<Graph.Vertex<T>, Route<T>> results = astar.solve(graph, mix.get(run % mix.size()), vertex.getLocation(), query);
+            for (Route<T> route : results.values()) {
+                for (int i = 0; i < route.size(); i++)
+                    touched += route.get(i).getIndex();
+            }
+            expansions += query.getExpansions();
+            run++;
+        }
+        queries += run;
+        return run;
+    }
+
+    /**
+     *
+     * @return The number of queries run so far.
+     */
+    public int getQueries() {
+        return queries;
+    }
+
+    /**
+     *
+     * @return The number of expansions of all the queries so far.
+     */
+    public long getExpansions() {
+        return expansions;
+    }
+
+}
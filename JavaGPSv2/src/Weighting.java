@@ -0,0 +1,48 @@
+/**
+ * The way the A* Algorithm weighs the edges of a <code>Graph</code>.
+ * A weighting gives the cost of driving along an edge and a
+ * lower bound of the cost of a straight line distance, which
+ * the A* uses as its heuristic. For the heuristic to stay
+ * admissible no edge may cost less than its length weighs.
+ * @param <T> The type of the object the graph contains.
+ * @see DistanceWeighting
+ * @see TravelTimeWeighting
+ */
+public interface Weighting<T extends CostObject<T>> {
+
+    /**
+     * The cost of an edge.
+     * @param edge The edge.
+     * @param time The time the edge is entered, in hours since midnight.
+     * @return The cost of driving along the edge.
+     */
+    public double cost(Graph.Edge<T> edge, double time);
+
+    /**
+     * A lower bound for the cost of a distance.
+     * @param distance The straight line distance in kilometres.
+     * @return The least possible cost of covering it.
+     */
+    public double heuristic(double distance);
+
+    /**
+     * Time dependent weightings have costs in hours,
+     * so the time an edge is entered is the departure
+     * time plus the cost so far.
+     * @return true iff the cost depends on the time.
+     */
+    public boolean isTimeDependent();
+
+    /**
+     * The weighting a search uses from start to end.
+     * A weighting whose costs can change while it is
+     * in use (see <code>TrafficOverlay</code>) gives one
+     * that keeps the costs of now, so a search never mixes
+     * costs of before and after a change. Others give themselves.
+     * @return The weighting to search with.
+     */
+    public default Weighting<T> snapshot() {
+        return this;
+    }
+
+}